@@ -0,0 +1,120 @@
+package uk.ac.newcastle.enterprisemiddleware.area;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import uk.ac.newcastle.enterprisemiddleware.util.SingleFlight;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * <p>Local copy of the US area codes served by {@link AreaService}.</p>
+ *
+ * <p>Area codes have three digits, so the whole table is held in an array indexed by the code itself and a lookup
+ * never leaves the JVM. The table is fetched in the background shortly after startup and again every
+ * <code>app.area.refresh-interval</code>; each refresh builds a new array and publishes it in one write, so readers
+ * always see a complete table.</p>
+ *
+ * <p>Until the first fetch succeeds, lookups fall back to a remote call per code, concurrent lookups of the same code
+ * sharing one call. If a later refresh fails the previous table is kept and the fetch is retried on the next
+ * check.</p>
+ *
+ * @see AreaService
+ */
+@ApplicationScoped
+public class AreaCodeTable {
+
+    private static final int SIZE = 1000;
+
+    @Inject
+    Logger log;
+
+    @RestClient
+    AreaService areaService;
+
+    @ConfigProperty(name = "app.area.refresh-interval", defaultValue = "PT1H")
+    Duration refreshInterval;
+
+    @Inject
+    MeterRegistry registry;
+
+    private volatile Area[] areas;
+    private volatile long loadedAt;
+
+    private SingleFlight<Integer, Area> fetches;
+
+    @PostConstruct
+    void init() {
+        fetches = new SingleFlight<>("area-by-code", registry);
+    }
+
+    /**
+     * <p>Returns the Area with the given code.</p>
+     *
+     * @param code The three digit area code
+     * @return The Area
+     * @throws InvalidAreaCodeException If no Area has this code
+     */
+    public Area getArea(int code) {
+        Area[] table = areas;
+        if (table == null) {
+            return fetches.get(code, this::fetchArea);
+        }
+        Area area = code >= 0 && code < SIZE ? table[code] : null;
+        if (area == null) {
+            throw new InvalidAreaCodeException("The area code provided does not exist");
+        }
+        return area;
+    }
+
+    /**
+     * <p>Fetches the table if it has never been loaded or is older than the refresh interval.</p>
+     *
+     * <p>Checked every <code>app.area.check-interval</code> rather than every refresh interval so that a failed fetch
+     * at startup is retried promptly.</p>
+     */
+    @Scheduled(every = "${app.area.check-interval:60s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void refresh() {
+        if (areas != null && System.currentTimeMillis() - loadedAt < refreshInterval.toMillis()) {
+            return;
+        }
+        List<Area> fetched;
+        try {
+            fetched = areaService.getAreas();
+        } catch (RuntimeException e) {
+            log.warning("AreaCodeTable.refresh() - Could not fetch area codes, will retry: " + e);
+            return;
+        }
+        Area[] table = new Area[SIZE];
+        int count = 0;
+        for (Area area : fetched) {
+            if (area.getId() >= 0 && area.getId() < SIZE) {
+                table[area.getId()] = area;
+                count++;
+            }
+        }
+        areas = table;
+        loadedAt = System.currentTimeMillis();
+        log.info("AreaCodeTable.refresh() - Loaded " + count + " area codes");
+    }
+
+    private Area fetchArea(int code) {
+        try {
+            return areaService.getAreaById(code);
+        } catch (ClientErrorException e) {
+            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
+                throw new InvalidAreaCodeException("The area code provided does not exist", e);
+            }
+            throw e;
+        }
+    }
+}
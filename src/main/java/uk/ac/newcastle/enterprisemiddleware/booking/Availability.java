@@ -0,0 +1,49 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The dates of a range on which a flight is already booked, the other dates of
+ * the range can still be booked.
+ */
+public class Availability {
+
+	private final Integer flightId;
+
+	private final LocalDate from;
+
+	private final LocalDate to;
+
+	private final List<LocalDate> booked;
+
+	Availability(Integer flightId, LocalDate from, LocalDate to, List<LocalDate> booked) {
+		this.flightId = flightId;
+		this.from = from;
+		this.to = to;
+		this.booked = booked;
+	}
+
+	public Integer getFlightId() {
+		return flightId;
+	}
+
+	public LocalDate getFrom() {
+		return from;
+	}
+
+	/**
+	 * The last date of the range, inclusive.
+	 */
+	public LocalDate getTo() {
+		return to;
+	}
+
+	public List<LocalDate> getBooked() {
+		return booked;
+	}
+
+	public long getAvailableDays() {
+		return to.toEpochDay() - from.toEpochDay() + 1 - booked.size();
+	}
+}
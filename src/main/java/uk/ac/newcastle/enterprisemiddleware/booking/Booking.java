@@ -5,6 +5,8 @@ import java.util.Date;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
 
@@ -22,6 +24,9 @@ public class Booking {
 	@NotBlank
 	private Date d;
 
+	@JsonIgnore
+	private Long version;
+
 	public Integer getId() {
 		return id;
 	}
@@ -53,4 +58,12 @@ public class Booking {
 	public void setDate(Date d) {
 		this.d = d;
 	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
 }
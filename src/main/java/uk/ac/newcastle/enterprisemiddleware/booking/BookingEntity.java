@@ -4,48 +4,83 @@ import java.util.Date;
 import java.util.Objects;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.jpa.QueryHints;
+
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
 import uk.ac.newcastle.enterprisemiddleware.flight.FlightEntity;
 
 @Entity
+@Cacheable
 @ApplicationScoped
-@Table(name = "booking")
-@NamedQueries({ @NamedQuery(name = "Booking.findAll", query = "SELECT b FROM BookingEntity b ORDER BY b.d ASC"),
-		@NamedQuery(name = "Booking.findByFlight", query = "SELECT b FROM BookingEntity b WHERE b.flight = :flight"),
-		@NamedQuery(name = "Booking.findByDate", query = "SELECT b FROM BookingEntity b WHERE b.d = :d") })
+// a PATCH only writes the columns it changed
+@DynamicUpdate
+@Table(name = "booking", uniqueConstraints = @UniqueConstraint(name = BookingEntity.UNIQUE_FLIGHT_DATE, columnNames = {
+		"flight_id", "date" }), indexes = @Index(name = "idx_booking_date", columnList = "date, id"))
+@NamedQueries({
+		@NamedQuery(name = "Booking.findAll", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer JOIN FETCH b.flight ORDER BY b.d ASC, b.id ASC", hints = @QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true")),
+		@NamedQuery(name = "Booking.findAllAfter", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer JOIN FETCH b.flight WHERE b.d > :d OR (b.d = :d AND b.id > :id) ORDER BY b.d ASC, b.id ASC"),
+		@NamedQuery(name = "Booking.count", query = "SELECT COUNT(b) FROM BookingEntity b"),
+		@NamedQuery(name = "Booking.findByFlightNumberBetween", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer JOIN FETCH b.flight f WHERE f.number >= :from AND f.number <= :to ORDER BY f.number ASC, b.d ASC, b.id ASC"),
+		@NamedQuery(name = "Booking.countByFlightNumberBetween", query = "SELECT COUNT(b) FROM BookingEntity b WHERE b.flight.number >= :from AND b.flight.number <= :to"),
+		@NamedQuery(name = "Booking.findCustomerAndFlight", query = "SELECT c, f FROM CustomerEntity c, FlightEntity f WHERE c.email = :email AND f.number = :number"),
+		@NamedQuery(name = "Booking.findByCustomer", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer c JOIN FETCH b.flight WHERE c.id = :id ORDER BY b.d ASC, b.id ASC"),
+		@NamedQuery(name = "Booking.findAllById", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer JOIN FETCH b.flight WHERE b.id IN :ids"),
+		@NamedQuery(name = "Booking.findFlightDates", query = "SELECT b.flight.id, b.d FROM BookingEntity b"),
+		@NamedQuery(name = "Booking.findFlightDatesOf", query = "SELECT b.flight.id, b.d FROM BookingEntity b WHERE b.flight.id IN :ids"),
+		@NamedQuery(name = "Booking.findFlightDatesBetween", query = "SELECT b.flight.id, b.d FROM BookingEntity b WHERE b.flight.id IN :ids AND b.d >= :from AND b.d < :to"),
+		@NamedQuery(name = "Booking.findFlightIdsByDate", query = "SELECT b.flight.id FROM BookingEntity b WHERE b.d = :d"),
+		@NamedQuery(name = "Booking.findByFlight", query = "SELECT b FROM BookingEntity b JOIN FETCH b.customer JOIN FETCH b.flight f WHERE f.id = :id ORDER BY b.d ASC, b.id ASC"),
+		@NamedQuery(name = "Booking.update", query = "UPDATE BookingEntity b SET b.customer = :customer, b.flight = :flight, b.d = :d, b.version = b.version + 1 WHERE b.id = :id AND b.version = :version") })
 public class BookingEntity {
 
+	// a flight can only be booked once for a given date
+	public static final String UNIQUE_FLIGHT_DATE = "uk_booking_flight_date";
+	public static final String FK_CUSTOMER = "fk_booking_customer";
+	public static final String FK_FLIGHT = "fk_booking_flight";
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bookingId_seq")
-	@SequenceGenerator(name = "bookingId_seq", initialValue = 1, allocationSize = 1)
+	@SequenceGenerator(name = "bookingId_seq", initialValue = 1, allocationSize = 50)
 	private Long id;
 
 	@ManyToOne(fetch = FetchType.LAZY)
-	@JoinColumn(name = "customer_id", nullable = false)
+	@JoinColumn(name = "customer_id", nullable = false, foreignKey = @ForeignKey(name = FK_CUSTOMER))
 	private CustomerEntity customer;
 
 	@ManyToOne(fetch = FetchType.LAZY)
-	@JoinColumn(name = "flight_id", nullable = false)
+	@JoinColumn(name = "flight_id", nullable = false, foreignKey = @ForeignKey(name = FK_FLIGHT))
 	private FlightEntity flight;
 
 	@NotNull
 	@Column(name = "date")
 	private Date d;
 
+	@Version
+	@Column(name = "version")
+	private Long version;
+
 	public Long getId() {
 		return id;
 	}
@@ -60,7 +95,9 @@ public class BookingEntity {
 
 	public void setCustomer(CustomerEntity customer) {
 		this.customer = customer;
-		if (customer != null)
+		// a customer resolved by reference is an uninitialized proxy, keeping the
+		// inverse side in sync would load it and its bookings for nothing
+		if (customer != null && Hibernate.isInitialized(customer) && Hibernate.isInitialized(customer.getBooking()))
 			customer.addBooking(this);
 	}
 
@@ -80,6 +117,14 @@ public class BookingEntity {
 		this.d = d;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	// Hibernate requirement
 	@Override
 	public boolean equals(Object o) {
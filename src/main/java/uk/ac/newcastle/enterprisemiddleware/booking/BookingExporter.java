@@ -0,0 +1,185 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+
+/**
+ * Writes every Booking as newline delimited JSON or as CSV.
+ *
+ * The rows are read through a forward only cursor and each one is written as
+ * soon as it is read, so neither the server nor the database session holds
+ * more than one fetch of rows whatever the number of bookings. The response is
+ * flushed after every fetch, a slow client holds the cursor open rather than
+ * making the server buffer the rest of the export.
+ */
+@ApplicationScoped
+public class BookingExporter {
+
+	public static final String CSV = "text/csv";
+
+	static final String CSV_HEADER = "id,date,customer_id,customer_name,customer_email,customer_phonenumber,"
+			+ "flight_id,flight_number,flight_departure,flight_destination";
+
+	@Inject
+	BookingService bookingService;
+
+	@Inject
+	ObjectMapper objectMapper;
+
+	@ConfigProperty(name = "app.booking-export.fetch-size", defaultValue = "500")
+	int fetchSize;
+
+	/**
+	 * Creates the body of an NDJSON export, one Booking per line in the form
+	 * returned by <code>GET /bookings</code>. Nothing is read until the response is
+	 * written.
+	 */
+	public StreamingOutput ndjson() {
+		return output -> ndjson(output, written -> {
+		});
+	}
+
+	/**
+	 * Writes an NDJSON export, telling the listener how many Bookings have been
+	 * written after each one.
+	 */
+	public void ndjson(OutputStream output, LongConsumer written) throws IOException {
+		export(output, this::writeNdjson, null, action -> bookingService.exportAll(fetchSize, action), written);
+	}
+
+	/**
+	 * Writes an NDJSON export of the Bookings of the flights whose numbers are
+	 * between two numbers, both included, ordered by flight number then date.
+	 */
+	public void ndjson(OutputStream output, String flightFrom, String flightTo, LongConsumer written)
+			throws IOException {
+		export(output, this::writeNdjson, null,
+				action -> bookingService.exportByFlightNumbers(flightFrom, flightTo, fetchSize, action), written);
+	}
+
+	/**
+	 * Creates the body of a CSV export with a header line, one Booking per line
+	 * with its customer and flight flattened into columns. Nothing is read until
+	 * the response is written.
+	 */
+	public StreamingOutput csv() {
+		return output -> csv(output, written -> {
+		});
+	}
+
+	/**
+	 * Writes a CSV export, telling the listener how many Bookings have been
+	 * written after each one.
+	 */
+	public void csv(OutputStream output, LongConsumer written) throws IOException {
+		export(output, BookingExporter::writeCsv, CSV_HEADER, action -> bookingService.exportAll(fetchSize, action),
+				written);
+	}
+
+	/**
+	 * Writes a CSV export of the Bookings of the flights whose numbers are between
+	 * two numbers, both included, ordered by flight number then date.
+	 */
+	public void csv(OutputStream output, String flightFrom, String flightTo, LongConsumer written)
+			throws IOException {
+		export(output, BookingExporter::writeCsv, CSV_HEADER,
+				action -> bookingService.exportByFlightNumbers(flightFrom, flightTo, fetchSize, action), written);
+	}
+
+	private void export(OutputStream output, RowWriter rows, String header, Consumer<Consumer<Booking>> bookings,
+			LongConsumer written) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		if (header != null) {
+			writer.write(header);
+			writer.write('\n');
+		}
+		Consumer<Booking> action = new Consumer<>() {
+			private long count;
+
+			@Override
+			public void accept(Booking booking) {
+				try {
+					rows.write(writer, booking);
+					written.accept(++count);
+					if (count % fetchSize == 0) {
+						writer.flush();
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+		try {
+			bookings.accept(action);
+		} catch (UncheckedIOException e) {
+			// the client went away, the cursor is already closed
+			throw e.getCause();
+		}
+		writer.flush();
+	}
+
+	private void writeNdjson(Writer writer, Booking booking) throws IOException {
+		writer.write(objectMapper.writeValueAsString(booking));
+		writer.write('\n');
+	}
+
+	private static void writeCsv(Writer writer, Booking booking) throws IOException {
+		Customer customer = booking.getCustomer();
+		Flight flight = booking.getFlight();
+		writer.write(String.valueOf(booking.getId()));
+		writer.write(',');
+		writer.write(booking.getDate().toInstant().toString());
+		writer.write(',');
+		writer.write(String.valueOf(customer.getId()));
+		writer.write(',');
+		writer.write(csvField(customer.getName()));
+		writer.write(',');
+		writer.write(csvField(customer.getEmail()));
+		writer.write(',');
+		writer.write(csvField(customer.getPhonenumber()));
+		writer.write(',');
+		writer.write(String.valueOf(flight.getId()));
+		writer.write(',');
+		writer.write(csvField(flight.getNumber()));
+		writer.write(',');
+		writer.write(csvField(flight.getDeparture()));
+		writer.write(',');
+		writer.write(csvField(flight.getDestination()));
+		writer.write('\n');
+	}
+
+	// RFC 4180: a field holding a separator, quote or line break is quoted, with
+	// its quotes doubled
+	static String csvField(String value) {
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	@FunctionalInterface
+	private interface RowWriter {
+		void write(Writer writer, Booking booking) throws IOException;
+	}
+}
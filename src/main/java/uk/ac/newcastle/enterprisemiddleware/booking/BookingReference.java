@@ -0,0 +1,81 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import java.util.Date;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Compact Booking payload that refers to its customer and flight instead of
+ * embedding them, either by id or by customer email and flight number.
+ */
+public class BookingReference {
+
+	private Integer id;
+
+	private Integer customerId;
+
+	private Integer flightId;
+
+	private String email;
+
+	private String flightNumber;
+
+	@NotNull
+	private Date date;
+
+	public Integer getId() {
+		return id;
+	}
+
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	public Integer getCustomerId() {
+		return customerId;
+	}
+
+	public void setCustomerId(Integer customerId) {
+		this.customerId = customerId;
+	}
+
+	public Integer getFlightId() {
+		return flightId;
+	}
+
+	public void setFlightId(Integer flightId) {
+		this.flightId = flightId;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public String getFlightNumber() {
+		return flightNumber;
+	}
+
+	public void setFlightNumber(String flightNumber) {
+		this.flightNumber = flightNumber;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public void setDate(Date date) {
+		this.date = date;
+	}
+
+	public boolean byId() {
+		return customerId != null && flightId != null;
+	}
+
+	public boolean byKey() {
+		return email != null && flightNumber != null;
+	}
+}
@@ -1,16 +1,30 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 
-import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+
+import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightEntity;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.CollectionCacheEvictor;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
 
 /**
  * There are no access modifiers on the methods making them 'package' scope.
@@ -18,6 +32,7 @@ import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
  */
 
 @ApplicationScoped
+@Measured
 public class BookingRepository {
 
 	@Inject
@@ -26,37 +41,183 @@ public class BookingRepository {
 	@Inject
 	EntityManager em;
 
+	@Inject
+	CollectionCacheEvictor cacheEvictor;
+
+	@Inject
+	SessionFactory sessionFactory;
+
 	List<BookingEntity> findAll() {
 		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findAll", BookingEntity.class);
 		return query.getResultList();
 	}
 
-	List<BookingEntity> findByFlight(Flight flight) {
-		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findByFlight", BookingEntity.class)
-				.setParameter("flight", flight);
+	// a forward only cursor over every booking in listing order, for exports. The
+	// stateless session keeps no persistence context, so a row can be collected as
+	// soon as the action is done with it whatever the size of the table
+	void scrollAll(int fetchSize, Consumer<BookingEntity> action) {
+		log.info("BookingRepository.scrollAll() - Scrolling all Bookings");
+
+		scroll(session -> session.createNamedQuery("Booking.findAll", BookingEntity.class), fetchSize, action);
+	}
+
+	// the bookings of the flights whose numbers are between from and to, both
+	// included, ordered by flight number then date
+	void scrollByFlightNumbers(String from, String to, int fetchSize, Consumer<BookingEntity> action) {
+		log.info("BookingRepository.scrollByFlightNumbers() - Scrolling Bookings of Flights " + from + " to " + to);
+
+		scroll(session -> session.createNamedQuery("Booking.findByFlightNumberBetween", BookingEntity.class)
+				.setParameter("from", from).setParameter("to", to), fetchSize, action);
+	}
+
+	long countByFlightNumbers(String from, String to) {
+		return em.createNamedQuery("Booking.countByFlightNumberBetween", Long.class).setParameter("from", from)
+				.setParameter("to", to).getSingleResult();
+	}
+
+	private void scroll(Function<StatelessSession, Query<BookingEntity>> query, int fetchSize,
+			Consumer<BookingEntity> action) {
+		try (StatelessSession session = sessionFactory.openStatelessSession();
+				ScrollableResults rows = query.apply(session).setFetchSize(fetchSize)
+						.scroll(ScrollMode.FORWARD_ONLY)) {
+			while (rows.next()) {
+				action.accept((BookingEntity) rows.get(0));
+			}
+		}
+	}
+
+	List<BookingEntity> findPage(Cursor after, int limit) {
+		TypedQuery<BookingEntity> query = after == null
+				? em.createNamedQuery("Booking.findAll", BookingEntity.class)
+				: em.createNamedQuery("Booking.findAllAfter", BookingEntity.class)
+						.setParameter("d", after.getDate(0))
+						.setParameter("id", after.getLong(1));
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	long count() {
+		return em.createNamedQuery("Booking.count", Long.class).getSingleResult();
+	}
+
+	List<BookingEntity> findByCustomer(Integer customerId) {
+		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findByCustomer", BookingEntity.class)
+				.setParameter("id", Long.valueOf(customerId));
 		return query.getResultList();
 	}
 
-	List<BookingEntity> findByDate(Date d) {
-		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findByDate", BookingEntity.class)
-				.setParameter("d", d);
+	List<BookingEntity> findByFlight(Integer flightId) {
+		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findByFlight", BookingEntity.class)
+				.setParameter("id", Long.valueOf(flightId));
 		return query.getResultList();
 	}
 
+	// the flight and date of every booking, without loading the bookings
+	List<Object[]> findFlightDates() {
+		return em.createNamedQuery("Booking.findFlightDates", Object[].class).getResultList();
+	}
+
+	// the flight and date of every booking of some flights
+	List<Object[]> findFlightDates(Collection<Long> flightIds) {
+		return em.createNamedQuery("Booking.findFlightDatesOf", Object[].class).setParameter("ids", flightIds)
+				.getResultList();
+	}
+
+	// the flight and date of the bookings of some flights between two instants,
+	// served by uk_booking_flight_date
+	List<Object[]> findFlightDates(Collection<Long> flightIds, Date from, Date to) {
+		return em.createNamedQuery("Booking.findFlightDatesBetween", Object[].class).setParameter("ids", flightIds)
+				.setParameter("from", from).setParameter("to", to).getResultList();
+	}
+
+	// served by idx_booking_date, the flights are not joined
+	List<Long> findFlightIdsByDate(Date date) {
+		return em.createNamedQuery("Booking.findFlightIdsByDate", Long.class).setParameter("d", date)
+				.getResultList();
+	}
+
+	// references are not loaded, the foreign keys check the customer and flight
+	// exist when the booking is flushed
+	CustomerEntity customerReference(Integer id) {
+		return em.getReference(CustomerEntity.class, Long.valueOf(id));
+	}
+
+	FlightEntity flightReference(Integer id) {
+		return em.getReference(FlightEntity.class, Long.valueOf(id));
+	}
+
+	// resolves both sides of a booking in one round trip, empty if either the
+	// customer or the flight doesn't exist
+	Optional<Object[]> findCustomerAndFlight(String email, String number) {
+		TypedQuery<Object[]> query = em.createNamedQuery("Booking.findCustomerAndFlight", Object[].class)
+				.setParameter("email", email)
+				.setParameter("number", number);
+		return query.getResultStream().findFirst();
+	}
+
 	Optional<BookingEntity> findById(Integer id) {
 		return Optional.ofNullable(em.find(BookingEntity.class, Long.valueOf(id)));
 	}
 
+	// one IN query fetching the customer and flight of every booking with it, ids
+	// not found are left out
+	List<BookingEntity> findAllById(List<Integer> ids) {
+		TypedQuery<BookingEntity> query = em.createNamedQuery("Booking.findAllById", BookingEntity.class)
+				.setParameter("ids", ids.stream().map(Long::valueOf).collect(Collectors.toList()));
+		return query.getResultList();
+	}
+
 	BookingEntity create(BookingEntity booking) {
 		log.info("BookingRepository.create() - Creating " + booking.getId());
 
+		attach(booking);
 		em.persist(booking);
+		// flush so a unique constraint violation is raised here rather than at commit
+		em.flush();
+		cacheEvictor.evict(CustomerEntity.BOOKINGS, booking.getCustomer().getId());
 		return booking;
 	}
 
-	BookingEntity update(BookingEntity booking) {
-		log.info("BookingRepository.update() - Updating " + booking.getId());
-		em.merge(booking);
+	// the inserts of a bulk import chunk are flushed together so Hibernate can send
+	// them in JDBC batches, clearing keeps the persistence context from growing
+	void createAll(List<BookingEntity> bookings) {
+		log.info("BookingRepository.createAll() - Creating " + bookings.size() + " Bookings");
+
+		for (BookingEntity booking : bookings) {
+			attach(booking);
+			em.persist(booking);
+		}
+		em.flush();
+		em.clear();
+		for (BookingEntity booking : bookings) {
+			cacheEvictor.evict(CustomerEntity.BOOKINGS, booking.getCustomer().getId());
+		}
+	}
+
+	// a single UPDATE applied only on top of the given version, 0 if the row has
+	// moved on or is gone
+	int update(BookingEntity booking, long version) {
+		log.info("BookingRepository.update() - Updating " + booking.getId() + " at version " + version);
+
+		attach(booking);
+		int updated = em.createNamedQuery("Booking.update")
+				.setParameter("customer", booking.getCustomer())
+				.setParameter("flight", booking.getFlight())
+				.setParameter("d", booking.getDate())
+				.setParameter("id", booking.getId())
+				.setParameter("version", version)
+				.executeUpdate();
+		cacheEvictor.evict(CustomerEntity.BOOKINGS, null);
+		return updated;
+	}
+
+	// writes the changes made to a managed Booking, with @DynamicUpdate the UPDATE
+	// only sets the columns that changed and the version
+	BookingEntity flush(BookingEntity booking) {
+		log.info("BookingRepository.flush() - Updating " + booking.getId());
+
+		attach(booking);
+		em.flush();
+		cacheEvictor.evict(CustomerEntity.BOOKINGS, null);
 		return booking;
 	}
 
@@ -64,6 +225,14 @@ public class BookingRepository {
 		log.info("BookingRepository.delete() - Deleting " + booking.getId());
 
 		em.remove(em.merge(booking));
+		cacheEvictor.evict(CustomerEntity.BOOKINGS, booking.getCustomer().getId());
 		return booking;
 	}
+
+	// a customer or flight mapped from a payload is a detached copy without its
+	// version, which Hibernate would take for a new row. Only its id is needed
+	private void attach(BookingEntity booking) {
+		booking.setCustomer(em.getReference(CustomerEntity.class, booking.getCustomer().getId()));
+		booking.setFlight(em.getReference(FlightEntity.class, booking.getFlight().getId()));
+	}
 }
@@ -1,24 +1,32 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -27,10 +35,17 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.hibernate.service.spi.ServiceException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerService;
 import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
 import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
+import uk.ac.newcastle.enterprisemiddleware.util.BulkImporter;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 @Path("/bookings")
@@ -45,6 +60,12 @@ public class BookingRestService {
 	@Inject
 	BookingService bookingService;
 
+	@Inject
+	BulkImporter bulkImporter;
+
+	@Inject
+	BookingExporter bookingExporter;
+
 	@Inject
 	CustomerService customerService;
 
@@ -52,10 +73,39 @@ public class BookingRestService {
 	FlightService flightService;
 
 	@GET
-	@Operation(summary = "Fetch all Bookings", description = "Returns a JSON array of all stored Booking objects.")
+	@Operation(summary = "Fetch all Bookings", description = "Returns a JSON array of one page of stored Booking objects. The next page, if any, is linked in the Link header. Given ids, returns the Bookings with those ids instead.")
 	@APIResponse(responseCode = "200", description = "Bookings would be return")
-	public Response getAll() {
-		return Response.ok(bookingService.findAll()).build();
+	@APIResponse(responseCode = "400", description = "Invalid cursor, limit or ids supplied")
+	public Response getAll(
+			@Parameter(description = "Cursor of the page to fetch, as returned in the Link header of the previous page") @QueryParam("after") String after,
+			@Parameter(description = "Maximum number of Bookings to return") @Schema(minimum = "1", maximum = "1000", defaultValue = "100") @QueryParam("limit") Integer limit,
+			@Parameter(description = "Return the total number of Bookings in the X-Total-Count header") @QueryParam("count") boolean count,
+			@Parameter(description = "Comma separated ids of the Bookings to fetch instead of a page, ids not found are listed in the X-Missing-Ids header") @QueryParam("ids") String ids,
+			@Context UriInfo uriInfo) {
+
+		Page<Booking> page;
+		try {
+			if (ids != null)
+				return bookingService.findAllById(MultiGet.ids(ids)).toResponse().build();
+			page = bookingService.findPage(after, Page.limit(limit));
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+		}
+		return page.toResponse(uriInfo, count ? bookingService.count() : null).build();
+	}
+
+	@GET
+	@Path("/{id:[0-9]+}")
+	@Operation(summary = "Fetch a Booking by id", description = "Returns a JSON representation of the Booking object with the provided id. Its ETag can be sent back in If-Match to update it.")
+	@APIResponse(responseCode = "200", description = "Booking found")
+	@APIResponse(responseCode = "304", description = "Booking has not changed since the ETag given in If-None-Match")
+	@APIResponse(responseCode = "404", description = "Booking with id not found")
+	public Response getById(
+			@Parameter(description = "Id of Booking to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id,
+			@Context Request request) {
+		return bookingService.findById(id)
+				.map(booking -> ETags.ok(request, ETags.of(booking.getId(), booking.getVersion()), booking).build())
+				.orElse(Response.status(Response.Status.NOT_FOUND).build());
 	}
 
 	@POST
@@ -114,21 +164,94 @@ public class BookingRestService {
 			throw new RestServiceException(e);
 		}
 
-		return Response.ok(booking).status(Response.Status.CREATED).build();
+		return Response.ok(booking).status(Response.Status.CREATED).tag(ETags.of(booking.getId(), booking.getVersion())).build();
+	}
+
+	@POST
+	@Path("/ref")
+	@Operation(summary = "Add a new Booking by reference", description = "Add a new Booking whose customer and flight are given either by customerId and flightId or by customer email and flightNumber, instead of as full objects.")
+	@APIResponse(responseCode = "201", description = "Booking created successfully.")
+	@APIResponse(responseCode = "400", description = "Invalid Booking supplied in request body, or the customer or flight doesn't exist")
+	@APIResponse(responseCode = "409", description = "Booking supplied in request body conflicts with an existing Booking")
+	@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+	public Response createBookingByReference(
+			@Parameter(description = "JSON representation of the Booking with its customer and flight referenced by id or by email and number", required = true) BookingReference reference) {
+
+		if (reference == null) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
+		}
+
+		// unlike createBooking nothing is looked up here, the service resolves the
+		// references and the database rejects a customer or flight that doesn't exist
+		try {
+			reference.setId(null);
+			bookingService.createByReference(reference);
+		} catch (ConstraintViolationException ce) {
+			Map<String, String> responseObj = new HashMap<>();
+			for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+				responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+			}
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("The customer/flight info is problem", Response.Status.BAD_REQUEST, e);
+		} catch (UniqueFlightWithDateException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("flight", "The flight is already booked on this date");
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+		}
+
+		return Response.ok(reference).status(Response.Status.CREATED).build();
+	}
+
+	@POST
+	@Path("/import")
+	@Consumes(BulkImporter.NDJSON)
+	@Produces(BulkImporter.NDJSON)
+	@Operation(summary = "Import Bookings in bulk", description = "Adds one Booking per line of a newline delimited JSON body. Bookings refer to their customer and flight by id. Every line is answered with one line holding its line number, the status the single Booking endpoint would have returned and either the new id or the error.")
+	@APIResponse(responseCode = "200", description = "Results of the import, one per line of the request body")
+	public Response importBookings(
+			@Parameter(description = "Newline delimited JSON representations of Booking objects", required = true) InputStream body) {
+		return Response.ok(bulkImporter.importLines(body, Booking.class, bookingService)).build();
+	}
+
+	@GET
+	@Path("/export")
+	@Produces({ BulkImporter.NDJSON, BookingExporter.CSV })
+	@Operation(summary = "Export all Bookings", description = "Streams every stored Booking ordered by date, as newline delimited JSON in the form returned by the listing or, if text/csv is asked for in Accept, as CSV with a header line and the customer and flight flattened into columns.")
+	@APIResponse(responseCode = "200", description = "All Bookings, one per line")
+	@APIResponse(responseCode = "406", description = "Neither newline delimited JSON nor CSV is acceptable")
+	public Response exportBookings(@Context HttpHeaders headers) {
+		for (MediaType type : headers.getAcceptableMediaTypes()) {
+			if (type.isCompatible(MediaType.valueOf(BulkImporter.NDJSON))) {
+				return Response.ok(bookingExporter.ndjson(), BulkImporter.NDJSON).build();
+			}
+			if (type.isCompatible(MediaType.valueOf(BookingExporter.CSV))) {
+				return Response.ok(bookingExporter.csv(), BookingExporter.CSV).build();
+			}
+		}
+		return Response.status(Response.Status.NOT_ACCEPTABLE).build();
 	}
 
 	@PUT
 	@Path("/{id:[0-9]+}")
 	@Operation(description = "Update a Booking in the database")
 	@APIResponses(value = { @APIResponse(responseCode = "200", description = "Booking updated successfully"),
-			@APIResponse(responseCode = "400", description = "Invalid Booking supplied in request body"),
+			@APIResponse(responseCode = "400", description = "Invalid Booking supplied in request body, or its id doesn't match the path"),
 			@APIResponse(responseCode = "404", description = "Booking with id not found"),
-			@APIResponse(responseCode = "409", description = "Booking details supplied in request body conflict with another existing Booking"),
+			@APIResponse(responseCode = "409", description = "Booking details supplied in request body conflict with another existing Booking, or the Booking was changed concurrently"),
+			@APIResponse(responseCode = "412", description = "Booking has changed since the version given in If-Match"),
 			@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request") })
 	@Transactional
 	public Response updateBooking(
 			@Parameter(description = "Id of Booking to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
-			@Parameter(description = "JSON representation of Booking object to be updated in the database", required = true) Booking booking) {
+			@Parameter(description = "JSON representation of Booking object to be updated in the database", required = true) Booking booking,
+			@Context HttpHeaders headers) {
+
+		// the path names the booking, a body without an id is taken to mean the same
+		if (booking.getId() == null)
+			booking.setId(id);
+		if (!id.equals(booking.getId()))
+			throw new RestServiceException("The id in the body doesn't match the path", Response.Status.BAD_REQUEST);
 
 		Customer customer = customerService.findById(booking.getCustomer().getId())
 				.orElseThrow(() -> new RestServiceException("We can't found customer", Response.Status.BAD_REQUEST));
@@ -152,22 +275,71 @@ public class BookingRestService {
 				responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
 			}
 			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
-		} catch (UniqueFlightWithDateException e) {
-			// we are updating an existence flight, so ignore this as expected
 		}
 
+		Long version = ETags.ifMatch(headers, id);
 		try {
 			// we do NOT further check whether the id is associated with this customer by
 			// comparing the email, it means with this API the user could change everything
 			// including email. The behavior would be like creating a new object with same
 			// id. For simplify I think treat this as correct operation.
-			bookingService.update(id, booking);
+			bookingService.update(id, booking, version);
 		} catch (ServiceException e) {
 			Map<String, String> responseObj = new HashMap<>();
 			responseObj.put("id", "please ensure the id is associated with this number");
 			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
+		} catch (UniqueFlightWithDateException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("flight", "The flight" + booking.getFlight().getNumber() + "is already booked");
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+		} catch (OptimisticLockException e) {
+			throw new RestServiceException("Booking has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
 		}
-		return Response.ok(booking).build();
+		return Response.ok(booking).tag(ETags.of(booking.getId(), booking.getVersion())).build();
+	}
+
+	@PATCH
+	@Path("/{id:[0-9]+}")
+	@Consumes(MergePatch.MEDIA_TYPE)
+	@Operation(description = "Change some fields of a Booking, given as a JSON Merge Patch")
+	@APIResponses(value = { @APIResponse(responseCode = "200", description = "Booking updated successfully"),
+			@APIResponse(responseCode = "400", description = "Invalid patch supplied in request body, or the customer/flight doesn't exist"),
+			@APIResponse(responseCode = "404", description = "Booking with id not found"),
+			@APIResponse(responseCode = "409", description = "Booking details supplied in request body conflict with another existing Booking, or the Booking was changed concurrently"),
+			@APIResponse(responseCode = "412", description = "Booking has changed since the version given in If-Match"),
+			@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request") })
+	public Response patchBooking(
+			@Parameter(description = "Id of Booking to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
+			@Parameter(description = "JSON Merge Patch holding the fields to change", required = true) JsonNode patch,
+			@Context HttpHeaders headers) {
+
+		Long version = ETags.ifMatch(headers, id);
+		Booking booking;
+		try {
+			booking = bookingService.patch(id, MergePatch.of(patch), version);
+		} catch (ServiceException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("id", "please ensure the id is associated with this number");
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
+		} catch (ConstraintViolationException ce) {
+			Map<String, String> responseObj = new HashMap<>();
+
+			for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+				responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+			}
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException(e.getMessage(), Response.Status.BAD_REQUEST, e);
+		} catch (UniqueFlightWithDateException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("flight", "The flight is already booked on this date");
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+		} catch (OptimisticLockException e) {
+			throw new RestServiceException("Booking has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
+		}
+		return Response.ok(booking).tag(ETags.of(booking.getId(), booking.getVersion())).build();
 	}
 
 	@DELETE
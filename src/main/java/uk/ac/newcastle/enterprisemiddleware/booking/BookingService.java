@@ -1,15 +1,33 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 import javax.transaction.Transactional;
 
 import org.hibernate.service.spi.ServiceException;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightEntity;
+import uk.ac.newcastle.enterprisemiddleware.util.BulkWriter;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.PersistenceExceptions;
+
 /**
  * This Service assumes the Control responsibility in the ECB pattern.
  *
@@ -21,7 +39,7 @@ import org.hibernate.service.spi.ServiceException;
  * methods.
  */
 @ApplicationScoped
-public class BookingService {
+public class BookingService implements BulkWriter<Booking> {
 
 	@Inject
 	Logger log;
@@ -35,6 +53,12 @@ public class BookingService {
 	@Inject
 	BookingRepository bookingRepository;
 
+	@Inject
+	FlightAvailability flightAvailability;
+
+	@Inject
+	ObjectMapper objectMapper;
+
 	// wrapper to demonstrate how validator works, it's really as same as @valid.
 	// Keep in mind we do not want to expose internal service error state to REST
 	// API, especially not the validated value contained in the violation object.
@@ -47,26 +71,226 @@ public class BookingService {
 		return bookingMapper.toDomainList(bookingRepository.findAll());
 	}
 
+	// keyset pagination on (date, id), the cursor holds the sort keys of the last
+	// booking of the previous page
+	public Page<Booking> findPage(String after, int limit) {
+		Cursor cursor = Cursor.decode(after, 2);
+		return Page.of(bookingRepository.findPage(cursor, limit + 1), limit,
+				b -> Cursor.of(b.getDate(), b.getId()), bookingMapper::toDomainList);
+	}
+
+	public long count() {
+		return bookingRepository.count();
+	}
+
+	// every booking in listing order, handed to the action one at a time as the
+	// cursor advances rather than collected in a list
+	public void exportAll(int fetchSize, Consumer<Booking> action) {
+		bookingRepository.scrollAll(fetchSize, entity -> action.accept(bookingMapper.toDomain(entity)));
+	}
+
+	// as exportAll, for the flights whose numbers are between from and to
+	public void exportByFlightNumbers(String from, String to, int fetchSize, Consumer<Booking> action) {
+		bookingRepository.scrollByFlightNumbers(from, to, fetchSize,
+				entity -> action.accept(bookingMapper.toDomain(entity)));
+	}
+
+	public long countByFlightNumbers(String from, String to) {
+		return bookingRepository.countByFlightNumbers(from, to);
+	}
+
+	// the customer and flight of every booking are fetched by the same query, the
+	// mapper walks both and would otherwise load them one booking at a time
+	public List<Booking> findByCustomer(Integer customerId) {
+		return bookingMapper.toDomainList(bookingRepository.findByCustomer(customerId));
+	}
+
+	public List<Booking> findByFlight(Integer flightId) {
+		return bookingMapper.toDomainList(bookingRepository.findByFlight(flightId));
+	}
+
+	// a flight can only be booked once for a date, these are the flights that no
+	// longer can be
+	public Set<Integer> findFlightIdsBookedOn(Date date) {
+		Set<Integer> ids = new HashSet<>();
+		for (Long id : bookingRepository.findFlightIdsByDate(date)) {
+			ids.add(id.intValue());
+		}
+		return ids;
+	}
+
 	public Optional<Booking> findById(Integer id) {
 		return bookingRepository.findById(id).map(bookingMapper::toDomain);
 	}
 
+	public MultiGet<Booking> findAllById(List<Integer> ids) {
+		return MultiGet.of(ids, bookingMapper.toDomainList(bookingRepository.findAllById(ids)), Booking::getId);
+	}
+
+	@Override
 	@Transactional
 	public void create(Booking booking) {
 		log.info("BookingService.create() - Creating: {} " + booking);
 
 		BookingEntity entity = bookingMapper.toEntity(booking);
-		bookingRepository.create(entity);
+		try {
+			bookingRepository.create(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		flightAvailability.changed(entity.getFlight().getId(), entity.getDate());
 		bookingMapper.updateDomainFromEntity(entity, booking);
 	}
 
+	// creates a booking from a compact payload, the customer and flight are
+	// either referenced by id without being loaded or resolved together by
+	// email and number, so the create costs a single round trip plus the insert
 	@Transactional
-	public void update(Integer id, Booking booking) {
+	public void createByReference(BookingReference reference) {
+		log.info("BookingService.createByReference() - Creating: {} " + reference);
+
+		BookingEntity entity = new BookingEntity();
+		if (reference.byId()) {
+			entity.setCustomer(bookingRepository.customerReference(reference.getCustomerId()));
+			entity.setFlight(bookingRepository.flightReference(reference.getFlightId()));
+		} else if (reference.byKey()) {
+			Object[] row = bookingRepository.findCustomerAndFlight(reference.getEmail(), reference.getFlightNumber())
+					.orElseThrow(() -> new IllegalArgumentException("The customer or flight doesn't exist"));
+			entity.setCustomer((CustomerEntity) row[0]);
+			entity.setFlight((FlightEntity) row[1]);
+		} else {
+			throw new IllegalArgumentException("Either customerId and flightId or email and flightNumber are required");
+		}
+		entity.setDate(reference.getDate());
+		bookingValidator.validate(entity);
+
+		try {
+			bookingRepository.create(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		flightAvailability.changed(entity.getFlight().getId(), entity.getDate());
+		reference.setId(entity.getId().intValue());
+		if (!reference.byId()) {
+			reference.setCustomerId(entity.getCustomer().getId().intValue());
+			reference.setFlightId(entity.getFlight().getId().intValue());
+		}
+	}
+
+	@Override
+	public void prepareImport(Booking booking) {
+		// imported bookings refer to their customer and flight by id, the foreign
+		// keys check they exist when the chunk is written
+		if (booking.getCustomer() == null || booking.getCustomer().getId() == null)
+			throw new IllegalArgumentException("The customer id is missing");
+		if (booking.getFlight() == null || booking.getFlight().getId() == null)
+			throw new IllegalArgumentException("The flight id is missing");
+		booking.setId(null);
+		validateBooking(booking);
+	}
+
+	// writes one chunk of a bulk import in a single transaction, BulkImporter
+	// falls back to create() row by row if the chunk is rejected
+	@Override
+	@Transactional
+	public void createAll(List<Booking> bookings) {
+		log.info("BookingService.createAll() - Creating " + bookings.size() + " Bookings");
+
+		List<BookingEntity> entities = new ArrayList<>(bookings.size());
+		for (Booking booking : bookings) {
+			entities.add(bookingMapper.toEntity(booking));
+		}
+		try {
+			bookingRepository.createAll(entities);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		for (int i = 0; i < entities.size(); i++) {
+			flightAvailability.changed(entities.get(i).getFlight().getId(), entities.get(i).getDate());
+			bookingMapper.updateDomainFromEntity(entities.get(i), bookings.get(i));
+		}
+	}
+
+	@Override
+	public Integer idOf(Booking booking) {
+		return booking.getId();
+	}
+
+	@Override
+	public boolean isConflict(RuntimeException e) {
+		return e instanceof UniqueFlightWithDateException;
+	}
+
+	// a single UPDATE that only applies on top of the expected version, which is
+	// the one sent in If-Match or else the one of the row as read here
+	@Transactional
+	public void update(Integer id, Booking booking, Long version) {
 		log.info("BookingService.update() - Updating " + id);
 
-		bookingRepository.findById(id)
+		BookingEntity existing = bookingRepository.findById(id)
 				.orElseThrow(() -> new ServiceException("No Booking found for bookingId[%s]" + id));
-		bookingRepository.update(bookingMapper.toEntity(booking));
+		long expected = version != null ? version : existing.getVersion();
+		Long previousFlight = existing.getFlight().getId();
+		Date previousDate = existing.getDate();
+		BookingEntity changes = bookingMapper.toEntity(booking);
+		// the row read above is the one updated, whatever id the payload holds
+		changes.setId(Long.valueOf(id));
+		int updated;
+		try {
+			updated = bookingRepository.update(changes, expected);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		if (updated == 0)
+			throw new OptimisticLockException("Booking " + id + " is no longer at version " + expected);
+		flightAvailability.changed(previousFlight, previousDate);
+		flightAvailability.changed(changes.getFlight().getId(), changes.getDate());
+		booking.setVersion(expected + 1);
+	}
+
+	// applies a merge patch to the managed entity, so only the changed fields are
+	// validated and dirty checking leaves the other columns out of the UPDATE. A
+	// changed customer or flight is only looked at for its id, and must exist
+	@Transactional
+	public Booking patch(Integer id, MergePatch patch, Long version) {
+		log.info("BookingService.patch() - Patching " + id);
+
+		BookingEntity entity = bookingRepository.findById(id)
+				.orElseThrow(() -> new ServiceException("No Booking found for bookingId[%s]" + id));
+		if (version != null && !version.equals(entity.getVersion()))
+			throw new OptimisticLockException("Booking " + id + " is no longer at version " + version);
+		MergePatch.Patched<Booking> patched = patch.apply(objectMapper, bookingMapper.toDomain(entity));
+		Booking booking = patched.getValue();
+		if (!id.equals(booking.getId()))
+			throw new IllegalArgumentException("The id of a Booking can not be changed");
+		BookingEntity changes = bookingMapper.toEntity(booking);
+		Long previousFlight = entity.getFlight().getId();
+		Date previousDate = entity.getDate();
+		Set<String> properties = new HashSet<>();
+		if (patched.changed("customer")) {
+			entity.setCustomer(changes.getCustomer());
+			properties.add("customer");
+		}
+		if (patched.changed("flight")) {
+			entity.setFlight(changes.getFlight());
+			properties.add("flight");
+		}
+		if (patched.changed("date")) {
+			entity.setDate(changes.getDate());
+			properties.add("d");
+		}
+		bookingValidator.validate(entity, properties);
+		try {
+			bookingRepository.flush(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		if (properties.contains("flight") || properties.contains("d")) {
+			flightAvailability.changed(previousFlight, previousDate);
+			flightAvailability.changed(entity.getFlight().getId(), entity.getDate());
+		}
+		// mapped again, a moved booking only had the id of its new customer or flight
+		return bookingMapper.toDomain(entity);
 	}
 
 	@Transactional
@@ -76,5 +300,22 @@ public class BookingService {
 		BookingEntity entity = bookingRepository.findById(id)
 				.orElseThrow(() -> new ServiceException("No Booking found for bookingId[%s]" + id));
 		bookingRepository.delete(entity);
+		flightAvailability.changed(entity.getFlight().getId(), entity.getDate());
+	}
+
+	// one booking per flight and date is enforced by the database, map its
+	// violation back to the exception the REST layer reports as 409 and a
+	// dangling customer or flight reference to a 400
+	private RuntimeException translate(PersistenceException e) {
+		if (PersistenceExceptions.isConstraintViolation(e, BookingEntity.UNIQUE_FLIGHT_DATE)) {
+			return new UniqueFlightWithDateException("this booking is already exist", e);
+		}
+		if (PersistenceExceptions.isConstraintViolation(e, BookingEntity.FK_CUSTOMER)) {
+			return new IllegalArgumentException("The customer doesn't exist", e);
+		}
+		if (PersistenceExceptions.isConstraintViolation(e, BookingEntity.FK_FLIGHT)) {
+			return new IllegalArgumentException("The flight doesn't exist", e);
+		}
+		return e;
 	}
 }
@@ -1,7 +1,6 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -15,34 +14,28 @@ public class BookingValidator {
 	@Inject
 	Validator validator;
 
-	@Inject
-	BookingRepository bookingRepository;
-
 	/**
 	 * Validates the given Booking object and throws validation exceptions based on
 	 * the type of error. If the error is standard bean validation errors then it
 	 * will throw a ConstraintValidationException with the set of the constraints
 	 * violated.
 	 * 
-	 * If the error is caused by an existing Booking with the same email is
-	 * registered it throws a regular validation exception so that it can be
-	 * interpreted separately.
+	 * A Booking of the same flight on the same date is rejected by the
+	 * uk_booking_flight_date constraint when the Booking is written.
 	 * 
 	 * NOTE: When a database unicity constraint is set on a JPA Entity, we usually
 	 * got two options :
 	 * 
 	 * Catch the PersistenceException and the nested JPA provider exception (for
-	 * Hibernate : ConstraintViolationException). It is very hard to create a
-	 * generic handler for this exception (extract column name from the exception,
-	 * recreate the form context, …)
+	 * Hibernate : ConstraintViolationException) and translate it back into a
+	 * UniqueFlightWithDateException using the name of the violated constraint.
 	 * 
 	 * Query the database before the persist/merge operation, in order to check if
-	 * the unique value is already inserted in the database. this POC uses this
-	 * option.
+	 * the unique value is already inserted in the database.
 	 * 
-	 * If we don't use UniqueEmailException to isolation the validate flow, then it
-	 * will directly go to create a new booking entity even with same email address
-	 * which will raise a sql exception almost unreadable.
+	 * The second option costs an extra round trip per write and still races with
+	 * concurrent inserts, so only bean validation is done here and BookingService
+	 * does the translation after the statement is flushed.
 	 *
 	 */
 	void validate(BookingEntity booking) {
@@ -52,12 +45,20 @@ public class BookingValidator {
 		if (!violations.isEmpty()) {
 			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
 		}
+	}
 
-		List<BookingEntity> bookings = bookingRepository.findByDate(booking.getDate());
-
-		for (BookingEntity b : bookings)
-			if (b.getFlight().getNumber().equals(booking.getFlight().getNumber()))
-				throw new UniqueFlightWithDateException("this booking is already exist");
+	/**
+	 * Validates only the given properties of a Booking, for a partial update whose
+	 * other properties were already valid when they were written.
+	 */
+	void validate(BookingEntity booking, Set<String> properties) {
+		Set<ConstraintViolation<BookingEntity>> violations = new HashSet<>();
+		for (String property : properties) {
+			violations.addAll(validator.validateProperty(booking, property));
+		}
 
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+		}
 	}
 }
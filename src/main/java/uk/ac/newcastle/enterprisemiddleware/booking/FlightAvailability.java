@@ -0,0 +1,262 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.narayana.jta.RunOptions;
+import io.quarkus.runtime.StartupEvent;
+import uk.ac.newcastle.enterprisemiddleware.util.AfterCompletion;
+import uk.ac.newcastle.enterprisemiddleware.util.DayBitmap;
+
+/**
+ * The days on which each flight is booked, kept in memory as one DayBitmap per
+ * flight so that availability is answered without a query.
+ *
+ * A flight can only be booked once per date, and bookings are dated at
+ * midnight UTC, so a flight is booked on a UTC day when one of its bookings
+ * falls on it. The bitmaps are loaded at startup and follow every write that
+ * adds, moves or removes a booking once it is committed.
+ *
+ * The days a transaction touches are gathered and, once it has committed, read
+ * again from the table in one query and applied. Commit callbacks of concurrent
+ * transactions run in no particular order, so the refreshes are queued on a
+ * single thread, which keeps the reads and the changes of the bitmaps in the
+ * same order: whichever runs last read the table after every commit before it.
+ * The committing thread doesn't wait for its refresh. Until it is applied the
+ * flight is answered from the table, as is a flight whose refresh failed, which
+ * is then rebuilt as a whole.
+ */
+@ApplicationScoped
+public class FlightAvailability {
+
+	// the widest range a client may ask for at once
+	public static final int MAX_DAYS = 732;
+
+	// the days touched by the current transaction, by flight
+	private static final Object TOUCHED = new Object();
+
+	@Inject
+	Logger log;
+
+	@Inject
+	BookingRepository bookingRepository;
+
+	@Inject
+	AfterCompletion afterCompletion;
+
+	private final ConcurrentMap<Integer, DayBitmap> booked = new ConcurrentHashMap<>();
+
+	// flights with committed changes not yet applied, and how many
+	private final ConcurrentMap<Integer, Integer> pending = new ConcurrentHashMap<>();
+
+	// flights whose bitmap missed a change and must be rebuilt
+	private final Set<Integer> invalid = ConcurrentHashMap.newKeySet();
+
+	private final Set<Integer> rebuilding = ConcurrentHashMap.newKeySet();
+
+	private ExecutorService refresher;
+
+	@PostConstruct
+	void init() {
+		refresher = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "flight-availability");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	void shutdown() {
+		refresher.shutdownNow();
+	}
+
+	void onStart(@Observes StartupEvent event) {
+		reload();
+	}
+
+	// replaces every bitmap with the bookings currently in the table
+	synchronized void reload() {
+		Map<Integer, TreeSet<Long>> days = days(bookingRepository.findFlightDates());
+		booked.clear();
+		days.forEach((flightId, flightDays) -> booked.put(flightId,
+				DayBitmap.of(flightDays.stream().mapToLong(Long::longValue).toArray())));
+		log.info("FlightAvailability.reload() - Loaded the booked days of " + booked.size() + " Flights");
+	}
+
+	/**
+	 * Returns the booked dates of a flight between two dates.
+	 *
+	 * @param flightId The flight
+	 * @param from     The first date
+	 * @param to       The last date, inclusive
+	 * @return The availability of the flight
+	 * @throws IllegalArgumentException If the range is empty or longer than
+	 *                                  MAX_DAYS
+	 */
+	public Availability find(Integer flightId, LocalDate from, LocalDate to) {
+		long first = from.toEpochDay();
+		long last = to.toEpochDay();
+		if (last < first)
+			throw new IllegalArgumentException("to must not be before from");
+		if (last - first + 1 > MAX_DAYS)
+			throw new IllegalArgumentException("At most " + MAX_DAYS + " days may be asked for at once");
+		List<LocalDate> dates = new ArrayList<>();
+		if (invalid.contains(flightId)) {
+			rebuild(flightId);
+		}
+		if (pending.containsKey(flightId) || invalid.contains(flightId)) {
+			// the bitmap may be behind the table, a writer must see its own change
+			List<Object[]> rows = bookingRepository.findFlightDates(List.of(Long.valueOf(flightId)),
+					DayBitmap.startOf(first), DayBitmap.startOf(last + 1));
+			days(rows).getOrDefault(flightId, new TreeSet<>())
+					.forEach(day -> dates.add(LocalDate.ofEpochDay(day)));
+		} else {
+			booked.getOrDefault(flightId, DayBitmap.EMPTY).forEach(first, last,
+					day -> dates.add(LocalDate.ofEpochDay(day)));
+		}
+		return new Availability(flightId, from, to, dates);
+	}
+
+	/**
+	 * Refreshes the day of a booking the current transaction added, removed or
+	 * moved, once it commits. A moved booking refreshes both its old and its new
+	 * day. All the days of a transaction are refreshed together.
+	 *
+	 * @param flightId The flight of the booking
+	 * @param date     The date of the booking
+	 */
+	public void changed(Long flightId, Date date) {
+		Integer id = flightId.intValue();
+		long day = DayBitmap.epochDay(date);
+		afterCompletion.<Map<Integer, TreeSet<Long>>>collect(TOUCHED, HashMap::new,
+				touched -> touched.computeIfAbsent(id, key -> new TreeSet<>()).add(day), this::committed);
+	}
+
+	/**
+	 * Forgets a flight the current transaction deleted, with all its bookings.
+	 */
+	public void dropped(Integer flightId) {
+		afterCompletion.onCommit(() -> submit(Set.of(), () -> {
+			booked.remove(flightId);
+			invalid.remove(flightId);
+		}));
+	}
+
+	private void committed(Map<Integer, TreeSet<Long>> touched) {
+		touched.keySet().forEach(id -> pending.merge(id, 1, Integer::sum));
+		submit(touched.keySet(), () -> refresh(touched));
+	}
+
+	// reads the touched days of every flight of a transaction in one query, then
+	// sets or clears each of them
+	private void refresh(Map<Integer, TreeSet<Long>> touched) {
+		long first = touched.values().stream().mapToLong(TreeSet::first).min().getAsLong();
+		long last = touched.values().stream().mapToLong(TreeSet::last).max().getAsLong();
+		Map<Integer, TreeSet<Long>> found = days(inTransaction(() -> bookingRepository
+				.findFlightDates(ids(touched.keySet()), DayBitmap.startOf(first), DayBitmap.startOf(last + 1))));
+		touched.forEach((id, days) -> booked.compute(id, (key, current) -> {
+			Set<Long> bookedDays = found.getOrDefault(id, new TreeSet<>());
+			DayBitmap changed = current == null ? DayBitmap.EMPTY : current;
+			for (long day : days) {
+				changed = bookedDays.contains(day) ? changed.with(day) : changed.without(day);
+			}
+			return changed.isEmpty() ? null : changed;
+		}));
+	}
+
+	// queued behind the refreshes, so none applied after it is missing
+	private void rebuild(Integer flightId) {
+		if (!rebuilding.add(flightId))
+			return;
+		submit(Set.of(), () -> {
+			try {
+				TreeSet<Long> days = days(inTransaction(
+						() -> bookingRepository.findFlightDates(List.of(Long.valueOf(flightId)))))
+						.getOrDefault(flightId, new TreeSet<>());
+				if (days.isEmpty()) {
+					booked.remove(flightId);
+				} else {
+					booked.put(flightId, DayBitmap.of(days.stream().mapToLong(Long::longValue).toArray()));
+				}
+				invalid.remove(flightId);
+			} finally {
+				rebuilding.remove(flightId);
+			}
+		});
+	}
+
+	// runs the task on the refresher thread. Commit callbacks must not throw, a
+	// task that fails marks its flights to be rebuilt on their next read
+	private void submit(Set<Integer> flights, Runnable task) {
+		try {
+			refresher.execute(() -> {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					invalid.addAll(flights);
+					log.severe("FlightAvailability.submit() - Could not refresh the booked days of " + flights + ": " + e);
+				} finally {
+					flights.forEach(this::settled);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			flights.forEach(this::settled);
+		}
+	}
+
+	private void settled(Integer flightId) {
+		pending.computeIfPresent(flightId, (id, count) -> count == 1 ? null : count - 1);
+	}
+
+	// on the refresher thread, in a request context and transaction of its own as
+	// the committing one is over
+	private <T> T inTransaction(Callable<T> work) {
+		ManagedContext requestContext = Arc.container().requestContext();
+		requestContext.activate();
+		try {
+			return QuarkusTransaction.call(
+					QuarkusTransaction.runOptions().semantic(RunOptions.Semantic.REQUIRE_NEW), work);
+		} finally {
+			requestContext.terminate();
+		}
+	}
+
+	private static List<Long> ids(Collection<Integer> flightIds) {
+		return flightIds.stream().map(Long::valueOf).collect(Collectors.toList());
+	}
+
+	// the days of (flight, date) rows, by flight
+	private static Map<Integer, TreeSet<Long>> days(List<Object[]> rows) {
+		Map<Integer, TreeSet<Long>> days = new HashMap<>();
+		for (Object[] row : rows) {
+			days.computeIfAbsent(((Long) row[0]).intValue(), id -> new TreeSet<>())
+					.add(DayBitmap.epochDay((Date) row[1]));
+		}
+		return days;
+	}
+}
@@ -1,5 +1,9 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.DynamicUpdate;
+import uk.ac.newcastle.enterprisemiddleware.util.TableVersions;
+
 import javax.persistence.*;
 import javax.validation.constraints.*;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -22,16 +26,27 @@ import java.util.Objects;
  */
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC"),
+        @NamedQuery(name = Contact.FIND_ALL, query = "SELECT c FROM Contact c ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Contact.FIND_ALL_AFTER, query = "SELECT c FROM Contact c WHERE c.lastName > :lastName" +
+                " OR (c.lastName = :lastName AND c.firstName > :firstName)" +
+                " OR (c.lastName = :lastName AND c.firstName = :firstName AND c.id > :id)" +
+                " ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Contact.COUNT, query = "SELECT COUNT(c) FROM Contact c"),
         @NamedQuery(name = Contact.FIND_BY_EMAIL, query = "SELECT c FROM Contact c WHERE c.email = :email")
 })
 @XmlRootElement
-@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+// a PATCH only writes the columns it changed
+@DynamicUpdate
+@EntityListeners(TableVersions.Listener.class)
+@Table(name = "contact", uniqueConstraints = @UniqueConstraint(columnNames = "email"),
+        indexes = @Index(name = "idx_contact_name", columnList = "last_name, first_name, id"))
 public class Contact implements Serializable {
     /** Default value included to remove warning. Remove or modify at will. **/
     private static final long serialVersionUID = 1L;
 
     public static final String FIND_ALL = "Contact.findAll";
+    public static final String FIND_ALL_AFTER = "Contact.findAllAfter";
+    public static final String COUNT = "Contact.count";
     public static final String FIND_BY_EMAIL = "Contact.findByEmail";
 
     @Id
@@ -69,6 +84,15 @@ public class Contact implements Serializable {
     @Column(name = "state")
     private String state;
 
+    /**
+     * <p>Incremented on every update. It is not part of the JSON representation, the ETag header is built from it
+     * instead.</p>
+     */
+    @Version
+    @Column(name = "version")
+    @JsonIgnore
+    private Long version;
+
     public Long getId() {
         return id;
     }
@@ -125,6 +149,14 @@ public class Contact implements Serializable {
         return this.state;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
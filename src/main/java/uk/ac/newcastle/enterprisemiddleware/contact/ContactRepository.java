@@ -1,5 +1,8 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -24,6 +27,7 @@ import java.util.logging.Logger;
  * @see javax.persistence.EntityManager
  */
 @RequestScoped
+@Measured
 public class ContactRepository {
 
     @Inject
@@ -43,6 +47,33 @@ public class ContactRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Contact} objects, sorted alphabetically by last name, first name and
+     * id.</p>
+     *
+     * @param after The sort keys of the last Contact of the previous page, or null for the first page
+     * @param limit The maximum number of Contacts to return
+     * @return List of Contact objects
+     */
+    List<Contact> findPageOrderedByName(Cursor after, int limit) {
+        TypedQuery<Contact> query = after == null
+                ? em.createNamedQuery(Contact.FIND_ALL, Contact.class)
+                : em.createNamedQuery(Contact.FIND_ALL_AFTER, Contact.class)
+                        .setParameter("lastName", after.getString(0))
+                        .setParameter("firstName", after.getString(1))
+                        .setParameter("id", after.getLong(2));
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns the number of persisted {@link Contact} objects.</p>
+     *
+     * @return The number of Contacts
+     */
+    long count() {
+        return em.createNamedQuery(Contact.COUNT, Long.class).getSingleResult();
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -141,6 +172,21 @@ public class ContactRepository {
         return contact;
     }
 
+    /**
+     * <p>Writes the changes made to a managed Contact object to the application database.</p>
+     *
+     * <p>Contact is mapped with @DynamicUpdate, so the UPDATE only sets the columns that changed and the version.</p>
+     *
+     * @param contact The managed Contact object that has been changed
+     * @return The Contact that has been written
+     */
+    Contact flush(Contact contact) {
+        log.info("ContactRepository.flush() - Updating " + contact.getFirstName() + " " + contact.getLastName());
+
+        em.flush();
+        return contact;
+    }
+
     /**
      * <p>Deletes the provided Contact object from the application database if found there</p>
      *
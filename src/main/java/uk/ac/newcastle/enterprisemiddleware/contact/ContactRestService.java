@@ -6,18 +6,28 @@ import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
+import com.fasterxml.jackson.databind.JsonNode;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,16 +69,37 @@ public class ContactRestService {
      *
      * <p>Examples: <pre>GET api/contacts?firstname=John</pre>, <pre>GET api/contacts?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>Without a name filter the Contacts are returned one page at a time. The next page is linked in the
+     * <code>Link</code> header and is fetched with <pre>GET api/contacts?after=...&limit=...</pre></p>
+     *
+     * <p>Every listing carries the version of the Contact table as its ETag. A request whose
+     * <code>If-None-Match</code> still matches is answered with a 304 before any Contact is read.</p>
+     *
      * @return A Response containing a list of Contacts
      */
     @GET
-    @Operation(summary = "Fetch all Contacts", description = "Returns a JSON array of all stored Contact objects.")
-    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
+    @Operation(summary = "Fetch all Contacts", description = "Returns a JSON array of stored Contact objects.")
+    public Response retrieveAllContacts(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+                                        @QueryParam("after") String after, @QueryParam("limit") Integer limit,
+                                        @QueryParam("count") boolean count, @Context UriInfo uriInfo,
+                                        @Context Request request) {
+        EntityTag tag = service.tag();
+        Response notModified = ETags.notModified(request, tag);
+        if (notModified != null) {
+            return notModified;
+        }
+
         //Create an empty collection to contain the intersection of Contacts to be returned
         List<Contact> contacts;
 
         if(firstname == null && lastname == null) {
-            contacts = service.findAllOrderedByName();
+            Page<Contact> page;
+            try {
+                page = service.findPageOrderedByName(after, Page.limit(limit));
+            } catch (IllegalArgumentException e) {
+                throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+            }
+            return page.toResponse(uriInfo, count ? service.count() : null).tag(tag).build();
         } else if(lastname == null) {
             contacts = service.findAllByFirstName(firstname);
         } else if(firstname == null) {
@@ -78,7 +109,7 @@ public class ContactRestService {
             contacts.retainAll(service.findAllByLastName(lastname));
         }
 
-        return Response.ok(contacts).build();
+        return Response.ok(contacts).tag(tag).build();
     }
 
     /**
@@ -100,12 +131,14 @@ public class ContactRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description ="Contact found"),
+            @APIResponse(responseCode = "304", description = "Contact has not changed since the ETag given in If-None-Match"),
             @APIResponse(responseCode = "404", description = "Contact with email not found")
     })
     public Response retrieveContactsByEmail(
             @Parameter(description = "Email of Contact to be fetched", required = true)
             @PathParam("email")
-            String email) {
+            String email,
+            @Context Request request) {
 
         Contact contact;
         try {
@@ -114,7 +147,7 @@ public class ContactRestService {
             // Verify that the contact exists. Return 404, if not present.
             throw new RestServiceException("No Contact with the email " + email + " was found!", Response.Status.NOT_FOUND);
         }
-        return Response.ok(contact).build();
+        return ETags.ok(request, ETags.of(contact.getId(), contact.getVersion()), contact).build();
     }
 
     /**
@@ -132,13 +165,15 @@ public class ContactRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description ="Contact found"),
+            @APIResponse(responseCode = "304", description = "Contact has not changed since the ETag given in If-None-Match"),
             @APIResponse(responseCode = "404", description = "Contact with id not found")
     })
     public Response retrieveContactById(
             @Parameter(description = "Id of Contact to be fetched")
             @Schema(minimum = "0", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @Context Request request) {
 
         Contact contact = service.findById(id);
         if (contact == null) {
@@ -147,7 +182,7 @@ public class ContactRestService {
         }
         log.info("findById " + id + ": found Contact = " + contact);
 
-        return Response.ok(contact).build();
+        return ETags.ok(request, ETags.of(contact.getId(), contact.getVersion()), contact).build();
     }
 
     /**
@@ -298,6 +333,80 @@ public class ContactRestService {
         return builder.build();
     }
 
+    /**
+     * <p>Changes some fields of a Contact, given as a JSON Merge Patch. Fields missing from the patch are left as they
+     * are and a field set to null is cleared.</p>
+     *
+     * <p>If an If-Match header is sent the Contact is only changed if it is still at that version.</p>
+     *
+     * @param id The Long parameter value provided as the id of the Contact to be patched
+     * @param patch The JSON Merge Patch holding the fields to change
+     * @return A Response containing the patched Contact, or an error if the patch was not applied
+     */
+    @PATCH
+    @Path("/{id:[0-9]+}")
+    @Consumes(MergePatch.MEDIA_TYPE)
+    @Operation(description = "Change some fields of a Contact, given as a JSON Merge Patch")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Contact updated successfully"),
+            @APIResponse(responseCode = "400", description = "Invalid patch supplied in request body"),
+            @APIResponse(responseCode = "404", description = "Contact with id not found"),
+            @APIResponse(responseCode = "409", description = "Contact details supplied in request body conflict with another existing Contact, or the Contact was changed concurrently"),
+            @APIResponse(responseCode = "412", description = "Contact has changed since the version given in If-Match"),
+            @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+    })
+    @Transactional
+    public Response patchContact(
+            @Parameter(description=  "Id of Contact to be updated", required = true)
+            @Schema(minimum = "0")
+            @PathParam("id")
+            long id,
+            @Parameter(description = "JSON Merge Patch holding the fields to change", required = true)
+            JsonNode patch,
+            @Context HttpHeaders headers) {
+
+        Long version = ETags.ifMatch(headers, id);
+        Contact contact;
+
+        try {
+            contact = service.patch(id, MergePatch.of(patch), version);
+        } catch (ConstraintViolationException ce) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (UniqueEmailException e) {
+            // Handle the unique constraint violation
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("email", "That email is already used, please use a unique email");
+            throw new RestServiceException("Contact details supplied in request body conflict with another Contact",
+                    responseObj, Response.Status.CONFLICT, e);
+        } catch (InvalidAreaCodeException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (IllegalArgumentException e) {
+            throw new RestServiceException(e.getMessage(), Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            throw new RestServiceException("Contact has been changed by another request",
+                    version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
+        } catch (Exception e) {
+            // Handle generic exceptions
+            throw new RestServiceException(e);
+        }
+
+        if (contact == null) {
+            // Verify that the contact exists. Return 404, if not present.
+            throw new RestServiceException("No Contact with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+
+        log.info("patchContact completed. Contact = " + contact);
+        return Response.ok(contact).tag(ETags.of(contact.getId(), contact.getVersion())).build();
+    }
+
     /**
      * <p>Deletes a contact using the ID provided. If the ID is not present then nothing can be deleted.</p>
      *
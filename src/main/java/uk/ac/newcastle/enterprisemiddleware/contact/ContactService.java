@@ -1,17 +1,20 @@
 package uk.ac.newcastle.enterprisemiddleware.contact;
 
 
-import org.eclipse.microprofile.rest.client.inject.RestClient;
 import uk.ac.newcastle.enterprisemiddleware.area.Area;
-import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
-import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.area.AreaCodeTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.TableVersions;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.OptimisticLockException;
 import javax.validation.ConstraintViolationException;
-import javax.ws.rs.ClientErrorException;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.EntityTag;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -42,9 +45,14 @@ public class ContactService {
     @Inject
     ContactRepository crud;
 
-    //Removed temporarily due to non-existing AreaService
-    @RestClient
-    AreaService areaService;
+    @Inject
+    AreaCodeTable areaCodes;
+
+    @Inject
+    TableVersions tableVersions;
+
+    @Inject
+    ObjectMapper mapper;
 
     /**
      * <p>Returns a List of all persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
@@ -55,6 +63,38 @@ public class ContactService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Contact} objects, sorted alphabetically by last name.<p/>
+     *
+     * @param after The opaque cursor returned with the previous page, or null for the first page
+     * @param limit The maximum number of Contacts to return
+     * @return A Page of Contact objects
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    Page<Contact> findPageOrderedByName(String after, int limit) {
+        Cursor cursor = Cursor.decode(after, 3);
+        return Page.of(crud.findPageOrderedByName(cursor, limit + 1), limit,
+                c -> Cursor.of(c.getLastName(), c.getFirstName(), c.getId()), contacts -> contacts);
+    }
+
+    /**
+     * <p>Returns the number of persisted {@link Contact} objects.<p/>
+     *
+     * @return The number of Contacts
+     */
+    long count() {
+        return crud.count();
+    }
+
+    /**
+     * <p>Returns the ETag of the Contact listings, it changes whenever a Contact is written.<p/>
+     *
+     * @return The current ETag of the Contact table
+     */
+    EntityTag tag() {
+        return tableVersions.tag(Contact.class);
+    }
+
     /**
      * <p>Returns a single Contact object, specified by a Long id.<p/>
      *
@@ -112,20 +152,9 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-
-
-        //Create client service instance to make REST requests to upstream service
-        try {
-            //Removed temporarily due to non-existing AreaService
-             Area area = areaService.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-             contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
-        }
+        // Look the area code up in the local table, this throws InvalidAreaCodeException if it does not exist.
+        Area area = areaCodes.getArea(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
+        contact.setState(area.getState());
 
         // Write the contact to the database.
         return crud.create(contact);
@@ -146,22 +175,65 @@ public class ContactService {
         // Check to make sure the data fits with the parameters in the Contact model and passes validation.
         validator.validateContact(contact);
 
-        try {
-            //Removed temporarily due to non-existing AreaService
-            Area area = areaService.getAreaById(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
-            contact.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
+        // Look the area code up in the local table, this throws InvalidAreaCodeException if it does not exist.
+        Area area = areaCodes.getArea(Integer.parseInt(contact.getPhoneNumber().substring(1, 4)));
+        contact.setState(area.getState());
+
+        // The version is not part of the JSON representation, apply the update on top of the current row.
+        Contact existing = crud.findById(contact.getId());
+        if (existing != null) {
+            contact.setVersion(existing.getVersion());
         }
 
         // Either update the contact or add it if it can't be found.
         return crud.update(contact);
     }
 
+    /**
+     * <p>Applies a JSON Merge Patch to an existing Contact in the application database.<p/>
+     *
+     * <p>Only the fields changed by the patch are validated, and the area code is only looked up again if the phone
+     * number changed. The changes are copied onto the managed Contact, so the UPDATE only sets their columns.<p/>
+     *
+     * @param id The id of the Contact to be patched
+     * @param patch The fields to change
+     * @param version The version the Contact must still be at, or null to patch whatever version is current
+     * @return The patched Contact, or null if there is no Contact with this id
+     * @throws ConstraintViolationException, ValidationException, OptimisticLockException, Exception
+     */
+    Contact patch(Long id, MergePatch patch, Long version) throws Exception {
+        log.info("ContactService.patch() - Patching " + id);
+
+        Contact contact = crud.findById(id);
+        if (contact == null) {
+            return null;
+        }
+        if (version != null && !version.equals(contact.getVersion())) {
+            throw new OptimisticLockException("Contact " + id + " is no longer at version " + version);
+        }
+        MergePatch.Patched<Contact> patched = patch.apply(mapper, contact);
+        Contact changes = patched.getValue();
+        if (!id.equals(changes.getId())) {
+            throw new IllegalArgumentException("The id of a Contact can not be changed");
+        }
+
+        // Check the changed fields only, the email is only looked up if it is one of them.
+        validator.validateContact(changes, patched.getChanged());
+
+        // The state follows the phone number and can not be patched on its own.
+        if (patched.changed("phoneNumber")) {
+            Area area = areaCodes.getArea(Integer.parseInt(changes.getPhoneNumber().substring(1, 4)));
+            contact.setState(area.getState());
+        }
+        contact.setFirstName(changes.getFirstName());
+        contact.setLastName(changes.getLastName());
+        contact.setEmail(changes.getEmail());
+        contact.setPhoneNumber(changes.getPhoneNumber());
+        contact.setBirthDate(changes.getBirthDate());
+
+        return crud.flush(contact);
+    }
+
     /**
      * <p>Deletes the provided Contact object from the application database if found there.<p/>
      *
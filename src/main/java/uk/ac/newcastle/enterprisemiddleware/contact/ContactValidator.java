@@ -53,6 +53,31 @@ public class ContactValidator {
         }
     }
 
+    /**
+     * <p>Validates only the given properties of a Contact, for a partial update whose other properties were already
+     * valid when they were written. The email is only checked for uniqueness if it is one of them.</p>
+     *
+     * @param contact The Contact object to be validated
+     * @param properties The names of the properties that changed
+     * @throws ConstraintViolationException If Bean Validation errors exist
+     * @throws ValidationException If contact with the same email already exists
+     */
+    void validateContact(Contact contact, Set<String> properties) throws ConstraintViolationException,
+            ValidationException {
+        Set<ConstraintViolation<Contact>> violations = new HashSet<>();
+        for (String property : properties) {
+            violations.addAll(validator.validateProperty(contact, property));
+        }
+
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+        }
+
+        if (properties.contains("email") && emailAlreadyExists(contact.getEmail(), contact.getId())) {
+            throw new UniqueEmailException("Unique Email Violation");
+        }
+    }
+
     /**
      * <p>Checks if a contact with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Contact class.</p>
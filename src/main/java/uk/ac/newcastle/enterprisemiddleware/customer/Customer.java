@@ -3,6 +3,8 @@ package uk.ac.newcastle.enterprisemiddleware.customer;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class Customer {
 
 	@NotNull
@@ -17,6 +19,10 @@ public class Customer {
 	@NotBlank
 	private String email;
 
+	// not part of the JSON representation, it is sent in the ETag header instead
+	@JsonIgnore
+	private Long version;
+
 	public Integer getId() {
 		return id;
 	}
@@ -48,6 +54,14 @@ public class Customer {
 	public void setEmail(String email) {
 		this.email = email;
 	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
 	
 	@Override
 	public boolean equals(Object o) {
@@ -4,36 +4,61 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.QueryHint;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.jpa.QueryHints;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
 import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TABookingEntity;
+import uk.ac.newcastle.enterprisemiddleware.util.TableVersions;
 
 @Entity
+@Cacheable
 @ApplicationScoped
-@Table(name = "customer")
-@NamedQueries({ @NamedQuery(name = "Customer.findAll", query = "SELECT c FROM CustomerEntity c ORDER BY c.name ASC"),
-		@NamedQuery(name = "Customer.findByEmail", query = "SELECT c FROM CustomerEntity c WHERE c.email = :email") })
+// a PATCH only writes the columns it changed
+@DynamicUpdate
+@EntityListeners(TableVersions.Listener.class)
+@Table(name = "customer", uniqueConstraints = @UniqueConstraint(name = CustomerEntity.UNIQUE_EMAIL, columnNames = "email"), indexes = @Index(name = "idx_customer_name", columnList = "name, id"))
+@NamedQueries({
+		@NamedQuery(name = "Customer.findAll", query = "SELECT c FROM CustomerEntity c ORDER BY c.name ASC, c.id ASC", hints = @QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true")),
+		@NamedQuery(name = "Customer.findAllAfter", query = "SELECT c FROM CustomerEntity c WHERE c.name > :name OR (c.name = :name AND c.id > :id) ORDER BY c.name ASC, c.id ASC"),
+		@NamedQuery(name = "Customer.count", query = "SELECT COUNT(c) FROM CustomerEntity c"),
+		@NamedQuery(name = "Customer.findByEmail", query = "SELECT c FROM CustomerEntity c WHERE c.email = :email"),
+		@NamedQuery(name = "Customer.update", query = "UPDATE CustomerEntity c SET c.name = :name, c.phonenumber = :phonenumber, c.email = :email, c.version = c.version + 1 WHERE c.id = :id AND c.version = :version") })
 public class CustomerEntity {
 
+	public static final String UNIQUE_EMAIL = "uk_customer_email";
+	// second-level cache regions of the booking collections
+	public static final String BOOKINGS = CustomerEntity.class.getName() + ".bookings";
+	public static final String TABOOKINGS = CustomerEntity.class.getName() + ".tabookings";
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customerId_seq")
-	@SequenceGenerator(name = "customerId_seq", initialValue = 1, allocationSize = 1)
+	@SequenceGenerator(name = "customerId_seq", initialValue = 1, allocationSize = 50)
 	private Long id;
 
 	@NotBlank
@@ -49,12 +74,21 @@ public class CustomerEntity {
 
 	@NotBlank
 	@Email(message = "The email address must be in the format of name@domain.com")
-	@Column(unique = true)
+	@Column(name = "email")
 	private String email;
 
+	// incremented on every update, the ETag of the representation is built from it
+	@Version
+	@Column(name = "version")
+	private Long version;
+
+	// inverse sides, the booking repositories evict these collection caches when
+	// they add or remove a booking, see CollectionCacheEvictor
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	@OneToMany(mappedBy = "customer", cascade = CascadeType.ALL, orphanRemoval = true)
 	private List<BookingEntity> bookings = new ArrayList<>();
 
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	@OneToMany(mappedBy = "customer", cascade = CascadeType.ALL, orphanRemoval = true)
 	private List<TABookingEntity> tabookings = new ArrayList<>();
 	
@@ -90,6 +124,14 @@ public class CustomerEntity {
 		this.email = email;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public List<BookingEntity> getBooking() {
 		return bookings;
 	}
@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.mapstruct.InheritInverseConfiguration;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import org.mapstruct.MappingTarget;
 
 @Mapper(componentModel = "cdi")
@@ -16,8 +17,13 @@ public interface CustomerMapper {
 	@InheritInverseConfiguration(name = "toDomain")
 	CustomerEntity toEntity(Customer domain);
 
+	// the version of a managed entity is Hibernate's to change, and a patched domain
+	// object doesn't carry one
+	@Mapping(target = "version", ignore = true)
 	void updateEntityFromDomain(Customer domain, @MappingTarget CustomerEntity entity);
 
 	void updateDomainFromEntity(CustomerEntity entity, @MappingTarget Customer domain);
 
+	Customer copy(Customer domain);
+
 }
\ No newline at end of file
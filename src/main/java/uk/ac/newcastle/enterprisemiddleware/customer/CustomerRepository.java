@@ -1,20 +1,28 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 
+import org.hibernate.Session;
+
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
+
 /**
  * There are no access modifiers on the methods making them 'package' scope.
  * They should only be accessed by a service object.
  */
 
 @ApplicationScoped
+@Measured
 public class CustomerRepository {
 
 	@Inject
@@ -28,10 +36,31 @@ public class CustomerRepository {
 		return query.getResultList();
 	}
 
+	List<CustomerEntity> findPage(Cursor after, int limit) {
+		TypedQuery<CustomerEntity> query = after == null
+				? em.createNamedQuery("Customer.findAll", CustomerEntity.class)
+				: em.createNamedQuery("Customer.findAllAfter", CustomerEntity.class)
+						.setParameter("name", after.getString(0))
+						.setParameter("id", after.getLong(1));
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	long count() {
+		return em.createNamedQuery("Customer.count", Long.class).getSingleResult();
+	}
+
 	Optional<CustomerEntity> findById(Integer id) {
 		return Optional.ofNullable(em.find(CustomerEntity.class, Long.valueOf(id)));
 	}
 
+	// loaded with a single IN query rather than one select per id, ids not found
+	// are left out
+	List<CustomerEntity> findAllById(List<Integer> ids) {
+		List<Long> keys = ids.stream().map(Long::valueOf).collect(Collectors.toList());
+		return em.unwrap(Session.class).byMultipleIds(CustomerEntity.class).withBatchSize(keys.size())
+				.multiLoad(keys).stream().filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
 	Optional<CustomerEntity> findByEmail(String email) {
 		TypedQuery<CustomerEntity> query = em.createNamedQuery("Customer.findByEmail", CustomerEntity.class)
 				.setParameter("email", email);
@@ -42,13 +71,42 @@ public class CustomerRepository {
 		log.info("CustomerRepository.create() - Creating " + Customer.getEmail());
 
 		em.persist(Customer);
+		// flush so a unique constraint violation is raised here rather than at commit
+		em.flush();
 		return Customer;
 	}
 
-	CustomerEntity update(CustomerEntity Customer) {
-		log.info("CustomerRepository.update() - Updating " + Customer.getEmail());
+	// the inserts of a bulk import chunk are flushed together so Hibernate can send
+	// them in JDBC batches, clearing keeps the persistence context from growing
+	void createAll(List<CustomerEntity> customers) {
+		log.info("CustomerRepository.createAll() - Creating " + customers.size() + " Customers");
+
+		customers.forEach(em::persist);
+		em.flush();
+		em.clear();
+	}
+
+	// a single UPDATE applied only on top of the given version, 0 if the row has
+	// moved on or is gone. Being a bulk statement it bypasses the persistence
+	// context and the entity listeners
+	int update(CustomerEntity Customer, long version) {
+		log.info("CustomerRepository.update() - Updating " + Customer.getEmail() + " at version " + version);
+
+		return em.createNamedQuery("Customer.update")
+				.setParameter("name", Customer.getName())
+				.setParameter("phonenumber", Customer.getPhonenumber())
+				.setParameter("email", Customer.getEmail())
+				.setParameter("id", Customer.getId())
+				.setParameter("version", version)
+				.executeUpdate();
+	}
+
+	// writes the changes made to a managed Customer, with @DynamicUpdate the
+	// UPDATE only sets the columns that changed and the version
+	CustomerEntity flush(CustomerEntity Customer) {
+		log.info("CustomerRepository.flush() - Updating " + Customer.getEmail());
 
-		em.merge(Customer);
+		em.flush();
 		return Customer;
 	}
 
@@ -1,24 +1,33 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -27,6 +36,14 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.hibernate.service.spi.ServiceException;
 import org.jboss.resteasy.reactive.Cache;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
+import uk.ac.newcastle.enterprisemiddleware.util.BulkImporter;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 @Path("/customers")
@@ -41,11 +58,38 @@ public class CustomerRestService {
 	@Inject
 	CustomerService customerService;
 
+	@Inject
+	BulkImporter bulkImporter;
+
+	@Inject
+	ResponseCache responseCache;
+
 	@GET
-	@Operation(summary = "Fetch all Customers", description = "Returns a JSON array of all stored Customer objects.")
+	@Operation(summary = "Fetch all Customers", description = "Returns a JSON array of one page of stored Customer objects. The next page, if any, is linked in the Link header. Given ids, returns the Customers with those ids instead.")
 	@APIResponse(responseCode = "200", description = "Customers would be return")
-	public Response getAll() {
-		return Response.ok(customerService.findAll()).build();
+	@APIResponse(responseCode = "304", description = "Customers have not changed since the ETag given in If-None-Match")
+	@APIResponse(responseCode = "400", description = "Invalid cursor, limit or ids supplied")
+	public Response getAll(
+			@Parameter(description = "Cursor of the page to fetch, as returned in the Link header of the previous page") @QueryParam("after") String after,
+			@Parameter(description = "Maximum number of Customers to return") @Schema(minimum = "1", maximum = "1000", defaultValue = "100") @QueryParam("limit") Integer limit,
+			@Parameter(description = "Return the total number of Customers in the X-Total-Count header") @QueryParam("count") boolean count,
+			@Parameter(description = "Comma separated ids of the Customers to fetch instead of a page, ids not found are listed in the X-Missing-Ids header") @QueryParam("ids") String ids,
+			@Context UriInfo uriInfo, @Context Request request) {
+
+		EntityTag tag = customerService.tag();
+		Response notModified = ETags.notModified(request, tag);
+		if (notModified != null)
+			return notModified;
+
+		Page<Customer> page;
+		try {
+			if (ids != null)
+				return customerService.findAllById(MultiGet.ids(ids)).toResponse().tag(tag).build();
+			page = customerService.findPage(after, Page.limit(limit));
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+		}
+		return page.toResponse(uriInfo, count ? customerService.count() : null).tag(tag).build();
 	}
 
 	@GET
@@ -53,10 +97,13 @@ public class CustomerRestService {
 	@Path("/id/{id:[0-9]+}")
 	@Operation(summary = "Fetch a Customer by id", description = "Returns a JSON representation of the Customer object with the provided id.")
 	@APIResponse(responseCode = "200", description = "Customer found")
+	@APIResponse(responseCode = "304", description = "Customer has not changed since the ETag given in If-None-Match")
 	@APIResponse(responseCode = "404", description = "Customer with id not found")
 	public Response getById(
-			@Parameter(description = "Id of Customer to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id) {
-		return customerService.findById(id).map(customer -> Response.ok(customer).build())
+			@Parameter(description = "Id of Customer to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id,
+			@Context Request request) {
+		return customerService.findById(id)
+				.map(customer -> ETags.ok(request, ETags.of(customer.getId(), customer.getVersion()), customer).build())
 				.orElse(Response.status(Response.Status.NOT_FOUND).build());
 	}
 
@@ -65,11 +112,15 @@ public class CustomerRestService {
 	@Path("/email/{email:.+}")
 	@Operation(summary = "Fetch a Customer by Email", description = "Returns a JSON representation of the Customer object with the provided email.")
 	@APIResponse(responseCode = "200", description = "Customer found")
+	@APIResponse(responseCode = "304", description = "Customer has not changed since the ETag given in If-None-Match")
 	@APIResponse(responseCode = "404", description = "Customer with email not found")
 	public Response getByEmail(
-			@Parameter(description = "Email of Customer to be fetched", required = true) @PathParam("email") String email) {
-		return customerService.findByEmail(email).map(customer -> Response.ok(customer).build())
-				.orElse(Response.status(Response.Status.NOT_FOUND).build());
+			@Parameter(description = "Email of Customer to be fetched", required = true) @PathParam("email") String email,
+			@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
+		return responseCache.get(ResponseCache.resource(uriInfo), customerService.tag(), uriInfo, request, headers,
+				() -> customerService.findByEmail(email)
+						.map(customer -> Response.ok(customer).tag(ETags.of(customer.getId(), customer.getVersion())).build())
+						.orElse(Response.status(Response.Status.NOT_FOUND).build()));
 	}
 
 	@GET
@@ -121,7 +172,18 @@ public class CustomerRestService {
 					responseObj, Response.Status.CONFLICT, e);
 		}
 
-		return Response.ok(customer).status(Response.Status.CREATED).build();
+		return Response.ok(customer).status(Response.Status.CREATED).tag(ETags.of(customer.getId(), customer.getVersion())).build();
+	}
+
+	@POST
+	@Path("/import")
+	@Consumes(BulkImporter.NDJSON)
+	@Produces(BulkImporter.NDJSON)
+	@Operation(summary = "Import Customers in bulk", description = "Adds one Customer per line of a newline delimited JSON body. Every line is answered with one line holding its line number, the status the single Customer endpoint would have returned and either the new id or the error.")
+	@APIResponse(responseCode = "200", description = "Results of the import, one per line of the request body")
+	public Response importCustomers(
+			@Parameter(description = "Newline delimited JSON representations of Customer objects", required = true) InputStream body) {
+		return Response.ok(bulkImporter.importLines(body, Customer.class, customerService)).build();
 	}
 
 	@PUT
@@ -130,18 +192,24 @@ public class CustomerRestService {
 	@APIResponse(responseCode = "200", description = "Customer updated successfully")
 	@APIResponse(responseCode = "400", description = "Invalid Customer supplied in request body")
 	@APIResponse(responseCode = "404", description = "Customer with id not found")
-	@APIResponse(responseCode = "409", description = "Customer details supplied in request body conflict with another existing Customer")
+	@APIResponse(responseCode = "409", description = "Customer details supplied in request body conflict with another existing Customer, or the Customer was changed concurrently")
+	@APIResponse(responseCode = "412", description = "Customer has changed since the version given in If-Match")
 	@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
 	public Response updateCustomer(
 			@Parameter(description = "Id of customer to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
-			@Parameter(description = "JSON representation of Customer object to be added to the database", required = true) Customer customer) {
+			@Parameter(description = "JSON representation of Customer object to be added to the database", required = true) Customer customer,
+			@Context HttpHeaders headers) {
 
         if (customer == null) {
             throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
         }
         
-        if (customer.getId() != id) {
-        	throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
+        // the path names the customer, a body without an id is taken to mean the same
+        if (customer.getId() == null) {
+        	customer.setId(id);
+        }
+        if (!id.equals(customer.getId())) {
+        	throw new RestServiceException("The id in the body doesn't match the path", Response.Status.BAD_REQUEST);
         }
 		
 		try {
@@ -157,13 +225,12 @@ public class CustomerRestService {
 			}
 			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
 			
-		} catch (UniqueEmailException e) {
-			// we are updating an existence flight, so ignore this as expected
 		}
 
+		Long version = ETags.ifMatch(headers, id);
 		try {
 			
-			customerService.update(id, customer);
+			customerService.update(id, customer, version);
 			
 		} catch (ServiceException e) {
 			
@@ -171,9 +238,67 @@ public class CustomerRestService {
 			responseObj.put("id", "please ensure the id is associated with this number");
 			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
 			
+		} catch (UniqueEmailException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("email", "please use a unique email");
+			throw new RestServiceException("email details supplied in request body conflict with another Customer",
+					responseObj, Response.Status.CONFLICT, e);
+		} catch (OptimisticLockException e) {
+			// without If-Match another writer got in between the read and the write
+			throw new RestServiceException("Customer has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
 		}
 
-		return Response.ok(customer).build();
+		return Response.ok(customer).tag(ETags.of(customer.getId(), customer.getVersion())).build();
+	}
+
+	@PATCH
+	@Path("/id/{id:[0-9]+}")
+	@Consumes(MergePatch.MEDIA_TYPE)
+	@Operation(description = "Change some fields of a Customer, given as a JSON Merge Patch")
+	@APIResponse(responseCode = "200", description = "Customer updated successfully")
+	@APIResponse(responseCode = "400", description = "Invalid patch supplied in request body")
+	@APIResponse(responseCode = "404", description = "Customer with id not found")
+	@APIResponse(responseCode = "409", description = "Customer details supplied in request body conflict with another existing Customer, or the Customer was changed concurrently")
+	@APIResponse(responseCode = "412", description = "Customer has changed since the version given in If-Match")
+	@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+	public Response patchCustomer(
+			@Parameter(description = "Id of customer to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
+			@Parameter(description = "JSON Merge Patch holding the fields to change", required = true) JsonNode patch,
+			@Context HttpHeaders headers) {
+
+		Long version = ETags.ifMatch(headers, id);
+		Customer customer;
+		try {
+
+			customer = customerService.patch(id, MergePatch.of(patch), version);
+
+		} catch (ServiceException e) {
+
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("id", "please ensure the id is associated with this number");
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
+
+		} catch (ConstraintViolationException ce) {
+			Map<String, String> responseObj = new HashMap<>();
+
+			for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+				responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+			}
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException(e.getMessage(), Response.Status.BAD_REQUEST, e);
+		} catch (UniqueEmailException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("email", "please use a unique email");
+			throw new RestServiceException("email details supplied in request body conflict with another Customer",
+					responseObj, Response.Status.CONFLICT, e);
+		} catch (OptimisticLockException e) {
+			throw new RestServiceException("Customer has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
+		}
+
+		return Response.ok(customer).tag(ETags.of(customer.getId(), customer.getVersion())).build();
 	}
 
 	@DELETE
@@ -1,20 +1,57 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 import javax.transaction.Transactional;
+import javax.ws.rs.core.EntityTag;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.hibernate.service.spi.ServiceException;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.narayana.jta.RunOptions;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
-import uk.ac.newcastle.enterprisemiddleware.booking.BookingMapper;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.booking.FlightAvailability;
 import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TABooking;
-import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TABookingMapper;
+import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TABookingService;
+import uk.ac.newcastle.enterprisemiddleware.util.AfterCompletion;
+import uk.ac.newcastle.enterprisemiddleware.util.BulkWriter;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MicroBatcher;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.PersistenceExceptions;
+import uk.ac.newcastle.enterprisemiddleware.util.SingleFlight;
+import uk.ac.newcastle.enterprisemiddleware.util.TableVersions;
 
 /**
  * This Service assumes the Control responsibility in the ECB pattern.
@@ -27,7 +64,10 @@ import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TABookingMapper;
  * methods.
  */
 @ApplicationScoped
-public class CustomerService {
+public class CustomerService implements BulkWriter<Customer> {
+
+	static final String BY_ID = "customer-by-id";
+	static final String BY_EMAIL = "customer-by-email";
 
 	@Inject
 	Logger log;
@@ -39,14 +79,75 @@ public class CustomerService {
 	CustomerMapper customerMapper;
 	
 	@Inject
-	BookingMapper bookingMapper;
+	BookingService bookingService;
+
+	@Inject
+	FlightAvailability flightAvailability;
 	
 	@Inject
-	TABookingMapper tabookingMapper;
+	TABookingService tabookingService;
 
 	@Inject
 	CustomerRepository customerRepository;
 
+	// lookups by id and by email are cached, absent customers included. Every write
+	// evicts the keys it touches once its transaction is over, so a reader racing the
+	// write cannot put the old row back in the cache
+	@Inject
+	@CacheName(BY_ID)
+	Cache byId;
+
+	@Inject
+	@CacheName(BY_EMAIL)
+	Cache byEmail;
+
+	@Inject
+	AfterCompletion afterCompletion;
+
+	@Inject
+	TableVersions tableVersions;
+
+	@Inject
+	ObjectMapper objectMapper;
+
+	@ConfigProperty(name = "app.customer.batch-window", defaultValue = "PT0.001S")
+	Duration batchWindow;
+
+	@ConfigProperty(name = "app.customer.batch-size", defaultValue = "64")
+	int batchSize;
+
+	// cache misses of concurrent requests are loaded together by one IN query, the
+	// request that opened the batch runs it and the others wait for its result
+	private MicroBatcher<Integer, Customer> lookups;
+
+	// the batch query runs on a thread of its own, so the rows all the waiting
+	// requests get, and the cache keeps, are not read inside the transaction or
+	// persistence context of whichever request happened to open the batch
+	private ExecutorService batchLoader;
+
+	@Inject
+	MeterRegistry registry;
+
+	// concurrent reads of the bookings of one customer share a single query
+	private SingleFlight<Integer, List<Booking>> bookingLoads;
+
+	@PostConstruct
+	void init() {
+		AtomicInteger count = new AtomicInteger();
+		batchLoader = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "customer-batch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		lookups = new MicroBatcher<>(this::loadAll, batchWindow, batchSize);
+		bookingLoads = new SingleFlight<>("customer-bookings", registry);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		batchLoader.shutdownNow();
+	}
+
 	// wrapper to demonstrate how validator works, it's really as same as @valid.
 	// Keep in mind we do not want to expose internal service error state to REST
 	// API, especially not the validated value contained in the violation object.
@@ -59,38 +160,189 @@ public class CustomerService {
 		return customerMapper.toDomainList(customerRepository.findAll());
 	}
 
+	// keyset pagination on (name, id), the cursor holds the sort keys of the last
+	// customer of the previous page
+	public Page<Customer> findPage(String after, int limit) {
+		Cursor cursor = Cursor.decode(after, 2);
+		return Page.of(customerRepository.findPage(cursor, limit + 1), limit,
+				c -> Cursor.of(c.getName(), c.getId()), customerMapper::toDomainList);
+	}
+
+	public long count() {
+		return customerRepository.count();
+	}
+
+	// ETag of the customer listings, it changes whenever a customer is written
+	public EntityTag tag() {
+		return tableVersions.tag(CustomerEntity.class);
+	}
+
+	// callers get their own copy, the cached Customer is shared
 	public Optional<Customer> findById(Integer id) {
-		return customerRepository.findById(id).map(customerMapper::toDomain);
+		Optional<Customer> customer = byId.<Integer, Optional<Customer>>get(id,
+				key -> Optional.ofNullable(lookups.load(key))).await().indefinitely();
+		return customer.map(customerMapper::copy);
+	}
+
+	// read in a request context and transaction of their own and mapped before
+	// they are shared
+	private Map<Integer, Customer> loadAll(List<Integer> ids) {
+		Future<Map<Integer, Customer>> loaded = batchLoader.submit(() -> {
+			ManagedContext requestContext = Arc.container().requestContext();
+			requestContext.activate();
+			try {
+				return QuarkusTransaction.call(QuarkusTransaction.runOptions().semantic(RunOptions.Semantic.REQUIRE_NEW),
+						() -> customerRepository.findAllById(ids).stream().map(customerMapper::toDomain)
+								.collect(Collectors.toMap(Customer::getId, Function.identity())));
+			} finally {
+				requestContext.terminate();
+			}
+		});
+		try {
+			return loaded.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			loaded.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading customers " + ids, e);
+		}
+	}
+
+	// read from the database in one statement rather than through the cache one
+	// id at a time
+	public MultiGet<Customer> findAllById(List<Integer> ids) {
+		return MultiGet.of(ids, customerMapper.toDomainList(customerRepository.findAllById(ids)), Customer::getId);
 	}
 
 	public Optional<Customer> findByEmail(String email) {
-		return customerRepository.findByEmail(email).map(customerMapper::toDomain);
+		Optional<Customer> customer = byEmail.<String, Optional<Customer>>get(email,
+				key -> customerRepository.findByEmail(key).map(customerMapper::toDomain)).await().indefinitely();
+		return customer.map(customerMapper::copy);
 	}
 
+	// queried rather than read from the bookings collection so that the flight of
+	// every booking is fetched in the same statement, empty if customer not found.
+	// The list may be shared with concurrent callers and must not be modified
 	public List<Booking> getBooking(Integer id) {
-		return bookingMapper.toDomainList(customerRepository.findById(id).map(CustomerEntity::getBooking).orElse(List.of()));
+		return bookingLoads.get(id, bookingService::findByCustomer);
 	}
 	
 	public List<TABooking> getTABooking(Integer id) {
-		return tabookingMapper.toDomainList(customerRepository.findById(id).map(CustomerEntity::getTravelAgentBooking).orElse(List.of()));
+		return tabookingService.findByCustomer(id);
 	}
 
+	@Override
 	@Transactional
 	public void create(Customer customer) {
 		log.info("CustomerService.create() - Creating: {} " + customer);
 
 		CustomerEntity entity = customerMapper.toEntity(customer);
-		customerRepository.create(entity);
+		try {
+			customerRepository.create(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
 		customerMapper.updateDomainFromEntity(entity, customer);
+		evict(customer.getId(), customer.getEmail());
 	}
 
+	@Override
+	public void prepareImport(Customer customer) {
+		customer.setId(null);
+		validateCustomer(customer);
+	}
+
+	// writes one chunk of a bulk import in a single transaction, BulkImporter
+	// falls back to create() row by row if the chunk is rejected
+	@Override
 	@Transactional
-	public void update(Integer id, Customer customer) {
+	public void createAll(List<Customer> customers) {
+		log.info("CustomerService.createAll() - Creating " + customers.size() + " Customers");
+
+		List<CustomerEntity> entities = new ArrayList<>(customers.size());
+		for (Customer customer : customers) {
+			entities.add(customerMapper.toEntity(customer));
+		}
+		try {
+			customerRepository.createAll(entities);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		for (int i = 0; i < entities.size(); i++) {
+			customerMapper.updateDomainFromEntity(entities.get(i), customers.get(i));
+			evict(customers.get(i).getId(), customers.get(i).getEmail());
+		}
+	}
+
+	@Override
+	public Integer idOf(Customer customer) {
+		return customer.getId();
+	}
+
+	@Override
+	public boolean isConflict(RuntimeException e) {
+		return e instanceof UniqueEmailException;
+	}
+
+	// a single UPDATE that only applies on top of the expected version, which is
+	// the one sent in If-Match or else the one last read. The read normally comes
+	// from the cache and is needed anyway for the old email
+	@Transactional
+	public void update(Integer id, Customer customer, Long version) {
 		log.info("CustomerService.update() - Updating " + id);
 
-		customerRepository.findById(id)
+		Customer previous = findById(id)
+				.orElseThrow(() -> new ServiceException("No Customer found for customerId[%s]" + id));
+		long expected = version != null ? version : previous.getVersion();
+		CustomerEntity entity = customerMapper.toEntity(customer);
+		// the row read above is the one updated, whatever id the payload holds
+		entity.setId(Long.valueOf(id));
+		int updated;
+		try {
+			updated = customerRepository.update(entity, expected);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		if (updated == 0)
+			throw new OptimisticLockException("Customer " + id + " is no longer at version " + expected);
+		customer.setVersion(expected + 1);
+		// bulk updates skip the entity listeners
+		tableVersions.changed(CustomerEntity.class);
+		evict(id, previous.getEmail());
+		evict(id, customer.getEmail());
+	}
+
+	// applies a merge patch to the managed entity, so only the changed fields are
+	// validated and dirty checking leaves the other columns out of the UPDATE
+	@Transactional
+	public Customer patch(Integer id, MergePatch patch, Long version) {
+		log.info("CustomerService.patch() - Patching " + id);
+
+		CustomerEntity entity = customerRepository.findById(id)
 				.orElseThrow(() -> new ServiceException("No Customer found for customerId[%s]" + id));
-		customerRepository.update(customerMapper.toEntity(customer));
+		if (version != null && !version.equals(entity.getVersion()))
+			throw new OptimisticLockException("Customer " + id + " is no longer at version " + version);
+		MergePatch.Patched<Customer> patched = patch.apply(objectMapper, customerMapper.toDomain(entity));
+		Customer customer = patched.getValue();
+		if (!id.equals(customer.getId()))
+			throw new IllegalArgumentException("The id of a Customer can not be changed");
+		String previousEmail = entity.getEmail();
+		customerMapper.updateEntityFromDomain(customer, entity);
+		customerValidator.validate(entity, patched.getChanged());
+		try {
+			customerRepository.flush(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		customerMapper.updateDomainFromEntity(entity, customer);
+		evict(id, previousEmail);
+		evict(id, customer.getEmail());
+		return customer;
 	}
 
 	@Transactional
@@ -99,6 +351,33 @@ public class CustomerService {
 
 		CustomerEntity entity = customerRepository.findById(id)
 				.orElseThrow(() -> new ServiceException("No Customer found for customerId[%s]" + id));
+		// the bookings are removed with the customer, their days become free
+		List<BookingEntity> bookings = new ArrayList<>(entity.getBooking());
 		customerRepository.delete(entity);
+		for (BookingEntity booking : bookings) {
+			flightAvailability.changed(booking.getFlight().getId(), booking.getDate());
+		}
+		evict(id, entity.getEmail());
+	}
+
+	// evicted now for reads later in the same transaction and again once it is over
+	private void evict(Integer id, String email) {
+		Runnable eviction = () -> {
+			if (id != null)
+				byId.invalidate(id).await().indefinitely();
+			if (email != null)
+				byEmail.invalidate(email).await().indefinitely();
+		};
+		eviction.run();
+		afterCompletion.always(eviction);
+	}
+
+	// the email uniqueness is enforced by the database, map its violation back to
+	// the exception the REST layer reports as 409
+	private RuntimeException translate(PersistenceException e) {
+		if (PersistenceExceptions.isConstraintViolation(e, CustomerEntity.UNIQUE_EMAIL)) {
+			return new UniqueEmailException("Unique Email Violation", e);
+		}
+		return e;
 	}
-}
\ No newline at end of file
+}
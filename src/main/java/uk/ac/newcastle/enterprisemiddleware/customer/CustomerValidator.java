@@ -14,34 +14,28 @@ public class CustomerValidator {
 	@Inject
 	Validator validator;
 
-	@Inject
-	CustomerRepository customerRepository;
-
 	/**
 	 * Validates the given Customer object and throws validation exceptions based on
 	 * the type of error. If the error is standard bean validation errors then it
 	 * will throw a ConstraintValidationException with the set of the constraints
 	 * violated.
 	 * 
-	 * If the error is caused by an existing Customer with the same email is
-	 * registered it throws a regular validation exception so that it can be
-	 * interpreted separately.
+	 * A Customer with the same email as an existing one is rejected by the
+	 * uk_customer_email constraint when the Customer is written.
 	 * 
 	 * NOTE: When a database unicity constraint is set on a JPA Entity, we usually
 	 * got two options :
 	 * 
 	 * Catch the PersistenceException and the nested JPA provider exception (for
-	 * Hibernate : ConstraintViolationException). It is very hard to create a
-	 * generic handler for this exception (extract column name from the exception,
-	 * recreate the form context, …)
+	 * Hibernate : ConstraintViolationException) and translate it back into a
+	 * UniqueEmailException using the name of the violated constraint.
 	 * 
 	 * Query the database before the persist/merge operation, in order to check if
-	 * the unique value is already inserted in the database. this POC uses this
-	 * option.
+	 * the unique value is already inserted in the database.
 	 * 
-	 * If we don't use UniqueEmailException to isolation the validate flow, then it
-	 * will directly go to create a new customer entity even with same email address
-	 * which will raise a sql exception almost unreadable.
+	 * The second option costs an extra round trip per write and still races with
+	 * concurrent inserts, so only bean validation is done here and CustomerService
+	 * does the translation after the statement is flushed.
 	 *
 	 */
 	void validate(CustomerEntity customer) {
@@ -50,9 +44,20 @@ public class CustomerValidator {
 		if (!violations.isEmpty()) {
 			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
 		}
+	}
 
-		if (customerRepository.findByEmail(customer.getEmail()).isPresent()) {
-			throw new UniqueEmailException("Unique Email Violation");
+	/**
+	 * Validates only the given properties of a Customer, for a partial update whose
+	 * other properties were already valid when they were written.
+	 */
+	void validate(CustomerEntity customer, Set<String> properties) {
+		Set<ConstraintViolation<CustomerEntity>> violations = new HashSet<>();
+		for (String property : properties) {
+			violations.addAll(validator.validateProperty(customer, property));
+		}
+
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
 		}
 	}
-}
\ No newline at end of file
+}
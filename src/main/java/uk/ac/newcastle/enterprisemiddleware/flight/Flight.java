@@ -3,6 +3,8 @@ package uk.ac.newcastle.enterprisemiddleware.flight;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 
 public class Flight {
@@ -19,6 +21,10 @@ public class Flight {
 	@NotBlank
 	private String destination;
 
+	// not part of the JSON representation, it is sent in the ETag header instead
+	@JsonIgnore
+	private Long version;
+
 	public Integer getId() {
 		return id;
 	}
@@ -50,6 +56,14 @@ public class Flight {
 	public void setDestination(String destination) {
 		this.destination = destination;
 	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
 	
 	@Override
 	public boolean equals(Object o) {
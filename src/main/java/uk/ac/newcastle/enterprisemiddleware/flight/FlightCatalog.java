@@ -0,0 +1,226 @@
+package uk.ac.newcastle.enterprisemiddleware.flight;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.EntityTag;
+
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * In-memory copy of the flight table serving every read of FlightService.
+ *
+ * Flights are small reference data that rarely change. The catalog is loaded
+ * once at startup and held in an immutable snapshot indexed by id and by
+ * number, together with the route graph of the flights. Readers only
+ * dereference the current snapshot, so lookups take no lock and allocate
+ * nothing. Writers copy the snapshot, apply their change and publish the copy
+ * in a single volatile write; FlightService only does so once the write is
+ * committed. A single flight is put in place in the copy of each sorted list,
+ * several flights at once rebuild the snapshot from scratch.
+ *
+ * The commit callbacks of concurrent writes run in no particular order, so a
+ * flight older than the version already held is ignored, as is a flight that
+ * was deleted. Ids are never reused, the deleted ones are remembered for good.
+ *
+ * Every snapshot has a generation number, which is the ETag of the flight
+ * listings. Prefixed with the startup time, a restarted instance never reuses
+ * a tag.
+ *
+ * The Flight objects are shared between all readers, FlightService hands out
+ * copies of them.
+ */
+@ApplicationScoped
+public class FlightCatalog {
+
+	private static final Comparator<Flight> BY_NUMBER = Comparator.comparing(Flight::getNumber);
+
+	@Inject
+	Logger log;
+
+	@Inject
+	FlightRepository flightRepository;
+
+	@Inject
+	FlightMapper flightMapper;
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), 0);
+
+	// guarded by this
+	private final Set<Integer> removed = new HashSet<>();
+
+	void onStart(@Observes StartupEvent event) {
+		reload();
+	}
+
+	// replaces the whole catalog with the current content of the table
+	synchronized void reload() {
+		snapshot = new Snapshot(flightMapper.toDomainList(flightRepository.findAll()), snapshot.generation + 1);
+		log.info("FlightCatalog.reload() - Loaded " + snapshot.sorted.size() + " Flights");
+	}
+
+	Optional<Flight> findById(Integer id) {
+		return Optional.ofNullable(snapshot.byId.get(id));
+	}
+
+	// the flights with the given ids that exist, all read from the same snapshot
+	List<Flight> findAllById(List<Integer> ids) {
+		Map<Integer, Flight> byId = snapshot.byId;
+		List<Flight> found = new ArrayList<>(ids.size());
+		for (Integer id : ids) {
+			Flight flight = byId.get(id);
+			if (flight != null)
+				found.add(flight);
+		}
+		return found;
+	}
+
+	Optional<Flight> findByNumber(String number) {
+		return Optional.ofNullable(snapshot.byNumber.get(number));
+	}
+
+	// all flights ordered by number, as the Flight.findAll query
+	List<Flight> findAll() {
+		return snapshot.sorted;
+	}
+
+	// up to limit flights ordered by number, starting after the given number
+	List<Flight> findAfter(String number, int limit) {
+		List<Flight> sorted = snapshot.sorted;
+		int from = 0;
+		if (number != null) {
+			Flight key = new Flight();
+			key.setNumber(number);
+			int index = Collections.binarySearch(sorted, key, BY_NUMBER);
+			from = index >= 0 ? index + 1 : -index - 1;
+		}
+		return sorted.subList(from, Math.min(sorted.size(), from + limit));
+	}
+
+	// up to limit flights on the route, see FlightGraph
+	List<Flight> findByRoute(String departure, String destination, String afterDestination, String afterNumber,
+			boolean descending, int limit) {
+		return snapshot.graph.findByRoute(departure, destination, afterDestination, afterNumber, descending, limit);
+	}
+
+	int countByRoute(String departure, String destination) {
+		return snapshot.graph.countByRoute(departure, destination);
+	}
+
+	FlightGraph graph() {
+		return snapshot.graph;
+	}
+
+	int count() {
+		return snapshot.sorted.size();
+	}
+
+	// changes with every write, read it before the flights so that a concurrent
+	// write can only make the tag older than the content
+	EntityTag tag() {
+		return new EntityTag(epoch + "." + snapshot.generation);
+	}
+
+	// adds or replaces flights, a flight whose number changed drops its old number.
+	// Flights published late, behind a newer version or a delete, are left out
+	synchronized void putAll(List<Flight> flights) {
+		List<Flight> newer = new ArrayList<>(flights.size());
+		for (Flight flight : flights) {
+			if (!removed.contains(flight.getId()) && !isOlder(flight, snapshot.byId.get(flight.getId())))
+				newer.add(flight);
+		}
+		if (newer.isEmpty())
+			return;
+		if (newer.size() == 1) {
+			Flight flight = newer.get(0);
+			snapshot = snapshot.replace(snapshot.byId.get(flight.getId()), flight);
+			return;
+		}
+		Map<Integer, Flight> byId = new HashMap<>(snapshot.byId);
+		for (Flight flight : newer) {
+			byId.put(flight.getId(), flight);
+		}
+		snapshot = new Snapshot(byId.values(), snapshot.generation + 1);
+	}
+
+	synchronized void remove(Integer id) {
+		removed.add(id);
+		Flight previous = snapshot.byId.get(id);
+		if (previous == null)
+			return;
+		snapshot = snapshot.replace(previous, null);
+	}
+
+	private static boolean isOlder(Flight flight, Flight held) {
+		return held != null && held.getVersion() != null && flight.getVersion() != null
+				&& flight.getVersion() < held.getVersion();
+	}
+
+	private static final class Snapshot {
+
+		private final Map<Integer, Flight> byId;
+		private final Map<String, Flight> byNumber;
+		private final List<Flight> sorted;
+		private final FlightGraph graph;
+		private final long generation;
+
+		private Snapshot(Iterable<Flight> flights, long generation) {
+			Map<Integer, Flight> byId = new HashMap<>();
+			Map<String, Flight> byNumber = new HashMap<>();
+			List<Flight> sorted = new ArrayList<>();
+			for (Flight flight : flights) {
+				byId.put(flight.getId(), flight);
+				byNumber.put(flight.getNumber(), flight);
+				sorted.add(flight);
+			}
+			sorted.sort(BY_NUMBER);
+			this.byId = Collections.unmodifiableMap(byId);
+			this.byNumber = Collections.unmodifiableMap(byNumber);
+			this.sorted = Collections.unmodifiableList(sorted);
+			this.graph = new FlightGraph(sorted);
+			this.generation = generation;
+		}
+
+		private Snapshot(Map<Integer, Flight> byId, Map<String, Flight> byNumber, List<Flight> sorted,
+				FlightGraph graph, long generation) {
+			this.byId = Collections.unmodifiableMap(byId);
+			this.byNumber = Collections.unmodifiableMap(byNumber);
+			this.sorted = sorted;
+			this.graph = graph;
+			this.generation = generation;
+		}
+
+		// the next snapshot with one flight added, changed or removed, without
+		// sorting anything again
+		private Snapshot replace(Flight previous, Flight flight) {
+			Map<Integer, Flight> byId = new HashMap<>(this.byId);
+			Map<String, Flight> byNumber = new HashMap<>(this.byNumber);
+			if (previous != null) {
+				byId.remove(previous.getId());
+				// the number may have been taken over by another flight since
+				Flight numbered = byNumber.get(previous.getNumber());
+				if (numbered != null && numbered.getId().equals(previous.getId()))
+					byNumber.remove(previous.getNumber());
+			}
+			if (flight != null) {
+				byId.put(flight.getId(), flight);
+				byNumber.put(flight.getNumber(), flight);
+			}
+			return new Snapshot(byId, byNumber, FlightGraph.replace(sorted, BY_NUMBER, previous, flight),
+					graph.replace(previous, flight), generation + 1);
+		}
+	}
+}
@@ -5,33 +5,51 @@ import java.util.List;
 import java.util.Objects;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Pattern;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
 
 @Entity
+// cached so that bookings read from the cache, by id or through the query
+// cache, resolve their flight without going to the database
+@Cacheable
 @ApplicationScoped
-@NamedQueries({ @NamedQuery(name = "Flight.findAll", query = "SELECT f FROM FlightEntity f ORDER BY f.number ASC"),
-		@NamedQuery(name = "Flight.findByNumber", query = "SELECT f FROM FlightEntity f WHERE f.number = :number") })
-@Table(name = "flight", uniqueConstraints = @UniqueConstraint(columnNames = "number"))
+// a PATCH only writes the columns it changed
+@DynamicUpdate
+@NamedQueries({
+		@NamedQuery(name = "Flight.findAll", query = "SELECT f FROM FlightEntity f ORDER BY f.number ASC"),
+		@NamedQuery(name = "Flight.findAllAfter", query = "SELECT f FROM FlightEntity f WHERE f.number > :number ORDER BY f.number ASC"),
+		@NamedQuery(name = "Flight.count", query = "SELECT COUNT(f) FROM FlightEntity f"),
+		@NamedQuery(name = "Flight.findByNumber", query = "SELECT f FROM FlightEntity f WHERE f.number = :number"),
+		@NamedQuery(name = "Flight.update", query = "UPDATE FlightEntity f SET f.number = :number, f.departure = :departure, f.destination = :destination, f.version = f.version + 1 WHERE f.id = :id AND f.version = :version") })
+// idx_flight_route serves route searches in route order, FlightCatalog keeps the
+// same order in memory
+@Table(name = "flight", uniqueConstraints = @UniqueConstraint(name = FlightEntity.UNIQUE_NUMBER, columnNames = "number"), indexes = @Index(name = "idx_flight_route", columnList = "departure, destination, number"))
 public class FlightEntity {
 
+	public static final String UNIQUE_NUMBER = "uk_flight_number";
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flightId_seq")
-	@SequenceGenerator(name = "flightId_seq", initialValue = 1, allocationSize = 1)
+	@SequenceGenerator(name = "flightId_seq", initialValue = 1, allocationSize = 50)
 	private Long id;
 
 	@NotBlank
@@ -51,6 +69,11 @@ public class FlightEntity {
 	@Column(name = "destination")
 	private String destination;
 
+	// incremented on every update, the ETag of the representation is built from it
+	@Version
+	@Column(name = "version")
+	private Long version;
+
 	@OneToMany(mappedBy = "flight", cascade = CascadeType.ALL, orphanRemoval = true)
 	private List<BookingEntity> bookings = new ArrayList<>();
 
@@ -86,6 +109,14 @@ public class FlightEntity {
 		this.destination = destination;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public List<BookingEntity> getBooking() {
 		return bookings;
 	}
@@ -0,0 +1,156 @@
+package uk.ac.newcastle.enterprisemiddleware.flight;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The flights of one FlightCatalog snapshot seen as a route graph: airports are
+ * the nodes and every flight is an edge from its departure to its destination.
+ *
+ * The flights are kept twice, sorted by departure and by destination, so the
+ * edges leaving or entering an airport are a contiguous range found by binary
+ * search. The graph is immutable, a search holding it sees one consistent
+ * catalog throughout. A write of a single flight derives the graph of the next
+ * snapshot from this one, finding the flight's old and new place in both lists
+ * by binary search and copying them once, so it costs O(n) rather than the
+ * O(n log n) of sorting them again. Startup and bulk writes still sort.
+ */
+public final class FlightGraph {
+
+	// the order of idx_flight_route
+	private static final Comparator<Flight> BY_ROUTE = Comparator.comparing(Flight::getDeparture)
+			.thenComparing(Flight::getDestination).thenComparing(Flight::getNumber);
+
+	private static final Comparator<Flight> BY_ARRIVAL = Comparator.comparing(Flight::getDestination)
+			.thenComparing(Flight::getDeparture).thenComparing(Flight::getNumber);
+
+	// sort below and above every airport code and flight number
+	private static final String LOWEST = "";
+	private static final String HIGHEST = "\uffff";
+
+	private final List<Flight> byRoute;
+
+	private final List<Flight> byArrival;
+
+	FlightGraph(List<Flight> flights) {
+		List<Flight> byRoute = new ArrayList<>(flights);
+		byRoute.sort(BY_ROUTE);
+		List<Flight> byArrival = new ArrayList<>(flights);
+		byArrival.sort(BY_ARRIVAL);
+		this.byRoute = Collections.unmodifiableList(byRoute);
+		this.byArrival = Collections.unmodifiableList(byArrival);
+	}
+
+	private FlightGraph(List<Flight> byRoute, List<Flight> byArrival) {
+		this.byRoute = byRoute;
+		this.byArrival = byArrival;
+	}
+
+	// the graph with one flight added, changed or removed: previous is the
+	// version of the flight in this graph, if any, and flight its new one, if any
+	FlightGraph replace(Flight previous, Flight flight) {
+		return new FlightGraph(replace(byRoute, BY_ROUTE, previous, flight),
+				replace(byArrival, BY_ARRIVAL, previous, flight));
+	}
+
+	// a copy of the sorted list without previous and with flight inserted in
+	// order. The orders are total, flight numbers being unique, so each is found
+	// by binary search. The entry found is only removed if it has the id of
+	// previous, another flight may have taken over its number since
+	static List<Flight> replace(List<Flight> sorted, Comparator<Flight> order, Flight previous, Flight flight) {
+		List<Flight> changed = new ArrayList<>(sorted.size() + 1);
+		changed.addAll(sorted);
+		if (previous != null) {
+			int at = Collections.binarySearch(changed, previous, order);
+			if (at < 0 || !changed.get(at).getId().equals(previous.getId()))
+				at = indexOf(changed, previous.getId());
+			if (at >= 0)
+				changed.remove(at);
+		}
+		if (flight != null) {
+			int at = Collections.binarySearch(changed, flight, order);
+			changed.add(at < 0 ? -at - 1 : at, flight);
+		}
+		return Collections.unmodifiableList(changed);
+	}
+
+	private static int indexOf(List<Flight> flights, Integer id) {
+		for (int i = 0; i < flights.size(); i++) {
+			if (flights.get(i).getId().equals(id))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * The flights leaving the airport, ordered by destination then number.
+	 */
+	public List<Flight> departingFrom(String airport) {
+		return byRoute.subList(bound(byRoute, BY_ROUTE, key(airport, LOWEST, LOWEST), true),
+				bound(byRoute, BY_ROUTE, key(airport, HIGHEST, HIGHEST), true));
+	}
+
+	/**
+	 * The flights arriving at the airport, ordered by departure then number.
+	 */
+	public List<Flight> arrivingAt(String airport) {
+		return byArrival.subList(bound(byArrival, BY_ARRIVAL, key(LOWEST, airport, LOWEST), true),
+				bound(byArrival, BY_ARRIVAL, key(HIGHEST, airport, HIGHEST), true));
+	}
+
+	// up to limit flights leaving departure, to destination or to anywhere if it
+	// is null, in route order (destination, then number) or its reverse. A page
+	// after the first starts after the destination and number of the last flight
+	// of the previous one
+	List<Flight> findByRoute(String departure, String destination, String afterDestination, String afterNumber,
+			boolean descending, int limit) {
+		int from = bound(byRoute, BY_ROUTE, key(departure, destination == null ? LOWEST : destination, LOWEST), true);
+		int to = bound(byRoute, BY_ROUTE, key(departure, destination == null ? HIGHEST : destination, HIGHEST), true);
+		if (afterNumber != null) {
+			if (descending) {
+				to = Math.min(to, bound(byRoute, BY_ROUTE, key(departure, afterDestination, afterNumber), true));
+			} else {
+				from = Math.max(from, bound(byRoute, BY_ROUTE, key(departure, afterDestination, afterNumber), false));
+			}
+		}
+		if (from >= to)
+			return Collections.emptyList();
+		if (!descending)
+			return byRoute.subList(from, Math.min(to, from + limit));
+		List<Flight> page = new ArrayList<>(byRoute.subList(Math.max(from, to - limit), to));
+		Collections.reverse(page);
+		return page;
+	}
+
+	int countByRoute(String departure, String destination) {
+		return bound(byRoute, BY_ROUTE, key(departure, destination == null ? HIGHEST : destination, HIGHEST), true)
+				- bound(byRoute, BY_ROUTE, key(departure, destination == null ? LOWEST : destination, LOWEST), true);
+	}
+
+	private static Flight key(String departure, String destination, String number) {
+		Flight key = new Flight();
+		key.setDeparture(departure);
+		key.setDestination(destination);
+		key.setNumber(number);
+		return key;
+	}
+
+	// index of the first flight after the key, or of the first one at or after it
+	// if inclusive
+	private static int bound(List<Flight> flights, Comparator<Flight> order, Flight key, boolean inclusive) {
+		int low = 0;
+		int high = flights.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int compared = order.compare(flights.get(middle), key);
+			if (compared < 0 || (compared == 0 && !inclusive)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
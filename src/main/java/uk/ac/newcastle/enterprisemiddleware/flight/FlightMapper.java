@@ -4,6 +4,7 @@ import java.util.List;
 
 import org.mapstruct.InheritInverseConfiguration;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import org.mapstruct.MappingTarget;
 
 @Mapper(componentModel = "cdi")
@@ -16,8 +17,15 @@ public interface FlightMapper {
 	@InheritInverseConfiguration(name = "toDomain")
 	FlightEntity toEntity(Flight domain);
 
+	// the version of a managed entity is Hibernate's to change, and a patched domain
+	// object doesn't carry one
+	@Mapping(target = "version", ignore = true)
 	void updateEntityFromDomain(Flight domain, @MappingTarget FlightEntity entity);
 
 	void updateDomainFromEntity(FlightEntity entity, @MappingTarget Flight domain);
 
+	Flight copy(Flight domain);
+
+	List<Flight> copyList(List<Flight> domains);
+
 }
\ No newline at end of file
@@ -9,12 +9,18 @@ import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 
+import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
+import uk.ac.newcastle.enterprisemiddleware.util.CollectionCacheEvictor;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
+
 /**
  * There are no access modifiers on the methods making them 'package' scope.
  * They should only be accessed by a service object.
  */
 
 @ApplicationScoped
+@Measured
 public class FlightRepository {
 
 	@Inject
@@ -23,11 +29,26 @@ public class FlightRepository {
 	@Inject
 	EntityManager em;
 
+	@Inject
+	CollectionCacheEvictor cacheEvictor;
+
 	List<FlightEntity> findAll() {
 		TypedQuery<FlightEntity> query = em.createNamedQuery("Flight.findAll", FlightEntity.class);
 		return query.getResultList();
 	}
 
+	List<FlightEntity> findPage(Cursor after, int limit) {
+		TypedQuery<FlightEntity> query = after == null
+				? em.createNamedQuery("Flight.findAll", FlightEntity.class)
+				: em.createNamedQuery("Flight.findAllAfter", FlightEntity.class)
+						.setParameter("number", after.getString(0));
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	long count() {
+		return em.createNamedQuery("Flight.count", Long.class).getSingleResult();
+	}
+
 	Optional<FlightEntity> findById(Integer id) {
 		return Optional.ofNullable(em.find(FlightEntity.class, Long.valueOf(id)));
 	}
@@ -42,13 +63,41 @@ public class FlightRepository {
 		log.info("FlightRepository.create() - Creating " + Flight.getNumber());
 
 		em.persist(Flight);
+		// flush so a unique constraint violation is raised here rather than at commit
+		em.flush();
 		return Flight;
 	}
 
-	FlightEntity update(FlightEntity Flight) {
-		log.info("FlightRepository.update() - Updating " + Flight.getNumber());
+	// the inserts of a bulk import chunk are flushed together so Hibernate can send
+	// them in JDBC batches, clearing keeps the persistence context from growing
+	void createAll(List<FlightEntity> flights) {
+		log.info("FlightRepository.createAll() - Creating " + flights.size() + " Flights");
+
+		flights.forEach(em::persist);
+		em.flush();
+		em.clear();
+	}
+
+	// a single UPDATE applied only on top of the given version, 0 if the row has
+	// moved on or is gone
+	int update(FlightEntity Flight, long version) {
+		log.info("FlightRepository.update() - Updating " + Flight.getNumber() + " at version " + version);
+
+		return em.createNamedQuery("Flight.update")
+				.setParameter("number", Flight.getNumber())
+				.setParameter("departure", Flight.getDeparture())
+				.setParameter("destination", Flight.getDestination())
+				.setParameter("id", Flight.getId())
+				.setParameter("version", version)
+				.executeUpdate();
+	}
+
+	// writes the changes made to a managed Flight, with @DynamicUpdate the UPDATE
+	// only sets the columns that changed and the version
+	FlightEntity flush(FlightEntity Flight) {
+		log.info("FlightRepository.flush() - Updating " + Flight.getNumber());
 
-		em.merge(Flight);
+		em.flush();
 		return Flight;
 	}
 
@@ -56,5 +105,8 @@ public class FlightRepository {
 		log.info("FlightRepository.delete() - Deleting " + Flight.getNumber());
 
 		em.remove(em.merge(Flight));
+		// the bookings of the flight are removed with it, and with them entries of
+		// the booking collections of their customers
+		cacheEvictor.evict(CustomerEntity.BOOKINGS, null);
 	}
 }
@@ -1,24 +1,38 @@
 package uk.ac.newcastle.enterprisemiddleware.flight;
 
+import java.io.InputStream;
+import java.net.URI;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -27,6 +41,14 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.hibernate.service.spi.ServiceException;
 import org.jboss.resteasy.reactive.Cache;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
+import uk.ac.newcastle.enterprisemiddleware.util.BulkImporter;
+import uk.ac.newcastle.enterprisemiddleware.util.ETags;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 @Path("/flights")
@@ -41,11 +63,79 @@ public class FlightRestService {
 	@Inject
 	FlightService flightService;
 
+	@Inject
+	BulkImporter bulkImporter;
+
+	@Inject
+	ResponseCache responseCache;
+
 	@GET
-	@Operation(summary = "Fetch all Flights", description = "Returns a JSON array of all stored Flight objects.")
+	@Operation(summary = "Fetch all Flights", description = "Returns a JSON array of one page of stored Flight objects. The next page, if any, is linked in the Link header. Given ids, returns the Flights with those ids instead.")
 	@APIResponse(responseCode = "200", description = "Flights would be return")
-	public Response getAll() {
-		return Response.ok(flightService.findAll()).build();
+	@APIResponse(responseCode = "304", description = "Flights have not changed since the ETag given in If-None-Match")
+	@APIResponse(responseCode = "400", description = "Invalid cursor, limit or ids supplied")
+	public Response getAll(
+			@Parameter(description = "Cursor of the page to fetch, as returned in the Link header of the previous page") @QueryParam("after") String after,
+			@Parameter(description = "Maximum number of Flights to return") @Schema(minimum = "1", maximum = "1000", defaultValue = "100") @QueryParam("limit") Integer limit,
+			@Parameter(description = "Return the total number of Flights in the X-Total-Count header") @QueryParam("count") boolean count,
+			@Parameter(description = "Comma separated ids of the Flights to fetch instead of a page, ids not found are listed in the X-Missing-Ids header") @QueryParam("ids") String ids,
+			@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
+
+		EntityTag tag = flightService.tag();
+		Response notModified = ETags.notModified(request, tag);
+		if (notModified != null)
+			return notModified;
+
+		URI resource = ResponseCache.resource(uriInfo, "after", after, "limit", limit, "count", count ? true : null,
+				"ids", ids);
+		return responseCache.get(resource, tag, uriInfo, request, headers, () -> {
+			Page<Flight> page;
+			try {
+				if (ids != null)
+					return flightService.findAllById(MultiGet.ids(ids)).toResponse().tag(tag).build();
+				page = flightService.findPage(after, Page.limit(limit));
+			} catch (IllegalArgumentException e) {
+				throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+			}
+			return page.toResponse(UriBuilder.fromUri(resource), count ? flightService.count() : null).tag(tag)
+					.build();
+		});
+	}
+
+	@GET
+	@Path("/search")
+	@Operation(summary = "Search Flights by route", description = "Returns a JSON array of one page of the Flights leaving the departure airport, to the destination airport if one is given. Flights are ordered by destination, then number, or the reverse. The next page, if any, is linked in the Link header.")
+	@APIResponse(responseCode = "200", description = "Flights on the route would be return, empty if there are none")
+	@APIResponse(responseCode = "304", description = "Flights have not changed since the ETag given in If-None-Match")
+	@APIResponse(responseCode = "400", description = "Missing departure, or invalid order, cursor or limit supplied")
+	public Response search(
+			@Parameter(description = "Departure airport code", required = true) @QueryParam("departure") String departure,
+			@Parameter(description = "Destination airport code, any destination if not given") @QueryParam("destination") String destination,
+			@Parameter(description = "Order of the Flights, by destination then number") @Schema(enumeration = { "asc", "desc" }, defaultValue = "asc") @QueryParam("order") String order,
+			@Parameter(description = "Cursor of the page to fetch, as returned in the Link header of the previous page") @QueryParam("after") String after,
+			@Parameter(description = "Maximum number of Flights to return") @Schema(minimum = "1", maximum = "1000", defaultValue = "100") @QueryParam("limit") Integer limit,
+			@Parameter(description = "Return the total number of Flights on the route in the X-Total-Count header") @QueryParam("count") boolean count,
+			@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
+
+		EntityTag tag = flightService.tag();
+		Response notModified = ETags.notModified(request, tag);
+		if (notModified != null)
+			return notModified;
+
+		URI resource = ResponseCache.resource(uriInfo, "departure", departure, "destination", destination, "order",
+				order, "after", after, "limit", limit, "count", count ? true : null);
+		return responseCache.get(resource, tag, uriInfo, request, headers, () -> {
+			Page<Flight> page;
+			try {
+				if (order != null && !order.equals("asc") && !order.equals("desc"))
+					throw new IllegalArgumentException("order must be asc or desc");
+				page = flightService.search(departure, destination, "desc".equals(order), after, Page.limit(limit));
+			} catch (IllegalArgumentException e) {
+				throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+			}
+			return page.toResponse(UriBuilder.fromUri(resource),
+					count ? flightService.countByRoute(departure, destination) : null).tag(tag).build();
+		});
 	}
 
 	@GET
@@ -53,10 +143,13 @@ public class FlightRestService {
 	@Path("/id/{id:[0-9]+}")
 	@Operation(summary = "Fetch a Flight by id", description = "Returns a JSON representation of the Flight object with the provided id.")
 	@APIResponse(responseCode = "200", description = "Flight found")
+	@APIResponse(responseCode = "304", description = "Flight has not changed since the ETag given in If-None-Match")
 	@APIResponse(responseCode = "404", description = "Flight with id not found")
 	public Response getById(
-			@Parameter(description = "Id of Flight to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id) {
-		return flightService.findById(id).map(flight -> Response.ok(flight).build())
+			@Parameter(description = "Id of Flight to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id,
+			@Context Request request) {
+		return flightService.findById(id)
+				.map(flight -> ETags.ok(request, ETags.of(flight.getId(), flight.getVersion()), flight).build())
 				.orElse(Response.status(Response.Status.NOT_FOUND).build());
 	}
 
@@ -65,11 +158,15 @@ public class FlightRestService {
 	@Path("/number/{number:.+}")
 	@Operation(summary = "Fetch a Flight by Number", description = "Returns a JSON representation of the Flight object with the provided number.")
 	@APIResponse(responseCode = "200", description = "Flight found")
+	@APIResponse(responseCode = "304", description = "Flight has not changed since the ETag given in If-None-Match")
 	@APIResponse(responseCode = "404", description = "Flight with number not found")
 	public Response getByNumber(
-			@Parameter(description = "Number of Flight to be fetched", required = true) @PathParam("number") String number) {
-		return flightService.findByNumber(number).map(flight -> Response.ok(flight).build())
-				.orElse(Response.status(Response.Status.NOT_FOUND).build());
+			@Parameter(description = "Number of Flight to be fetched", required = true) @PathParam("number") String number,
+			@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
+		return responseCache.get(ResponseCache.resource(uriInfo), flightService.tag(), uriInfo, request, headers,
+				() -> flightService.findByNumber(number)
+						.map(flight -> Response.ok(flight).tag(ETags.of(flight.getId(), flight.getVersion())).build())
+						.orElse(Response.status(Response.Status.NOT_FOUND).build()));
 	}
 
 	@GET
@@ -81,6 +178,36 @@ public class FlightRestService {
 		return Response.ok(flightService.getBooking(id)).build();
 	}
 
+	@GET
+	@Path("/id/{id:[0-9]+}/availability")
+	@Operation(summary = "Fetch the availability of a Flight", description = "Returns the dates between from and to, both included, on which the Flight is already booked and the number of dates it can still be booked on. The range defaults to a year from today.")
+	@APIResponse(responseCode = "200", description = "Availability of the Flight")
+	@APIResponse(responseCode = "400", description = "Invalid dates, or a range that is empty or too long, supplied")
+	@APIResponse(responseCode = "404", description = "Flight with id not found")
+	public Response getAvailability(
+			@Parameter(description = "Id of Flight to be fetched") @Schema(minimum = "0", required = true) @PathParam("id") Integer id,
+			@Parameter(description = "First date of the range as yyyy-MM-dd, today if not given") @QueryParam("from") String from,
+			@Parameter(description = "Last date of the range as yyyy-MM-dd, included, a year after from if not given") @QueryParam("to") String to) {
+		try {
+			// bookings are dated at midnight UTC, so days are UTC days as well
+			LocalDate first = from != null ? parseDate(from) : LocalDate.now(ZoneOffset.UTC);
+			LocalDate last = to != null ? parseDate(to) : first.plusDays(364);
+			return flightService.findAvailability(id, first, last)
+					.map(availability -> Response.ok(availability).build())
+					.orElse(Response.status(Response.Status.NOT_FOUND).build());
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+		}
+	}
+
+	private static LocalDate parseDate(String date) {
+		try {
+			return LocalDate.parse(date);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Dates must be yyyy-MM-dd", e);
+		}
+	}
+
 	@POST
 	@Operation(description = "Add a new Flight to the database")
 	@APIResponse(responseCode = "201", description = "Flight created successfully.")
@@ -128,7 +255,18 @@ public class FlightRestService {
 			
 		}
 
-		return Response.ok(flight).status(Response.Status.CREATED).build();
+		return Response.ok(flight).status(Response.Status.CREATED).tag(ETags.of(flight.getId(), flight.getVersion())).build();
+	}
+
+	@POST
+	@Path("/import")
+	@Consumes(BulkImporter.NDJSON)
+	@Produces(BulkImporter.NDJSON)
+	@Operation(summary = "Import Flights in bulk", description = "Adds one Flight per line of a newline delimited JSON body. Every line is answered with one line holding its line number, the status the single Flight endpoint would have returned and either the new id or the error.")
+	@APIResponse(responseCode = "200", description = "Results of the import, one per line of the request body")
+	public Response importFlights(
+			@Parameter(description = "Newline delimited JSON representations of Flight objects", required = true) InputStream body) {
+		return Response.ok(bulkImporter.importLines(body, Flight.class, flightService)).build();
 	}
 
 	@PUT
@@ -137,17 +275,24 @@ public class FlightRestService {
 	@APIResponse(responseCode = "200", description = "Flight updated successfully")
 	@APIResponse(responseCode = "400", description = "Invalid Flight supplied in request body")
 	@APIResponse(responseCode = "404", description = "Flight with id not found")
+	@APIResponse(responseCode = "409", description = "Flight details supplied in request body conflict with another existing Flight, or the Flight was changed concurrently")
+	@APIResponse(responseCode = "412", description = "Flight has changed since the version given in If-Match")
 	@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
 	public Response updateFlight(
 			@Parameter(description = "Id of flight to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
-			@Parameter(description = "JSON representation of Flight object to be added to the database", required = true) Flight flight) {
+			@Parameter(description = "JSON representation of Flight object to be added to the database", required = true) Flight flight,
+			@Context HttpHeaders headers) {
 		
         if (flight == null) {
             throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
         }
         
-        if (flight.getId() != id) {
-        	throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
+        // the path names the flight, a body without an id is taken to mean the same
+        if (flight.getId() == null) {
+        	flight.setId(id);
+        }
+        if (!id.equals(flight.getId())) {
+        	throw new RestServiceException("The id in the body doesn't match the path", Response.Status.BAD_REQUEST);
         }
 
 		try {
@@ -171,14 +316,12 @@ public class FlightRestService {
 			throw new RestServiceException("destination of this flight is same as its departure", responseObj,
 					Response.Status.BAD_REQUEST, e);
 			
-		} catch (UniqueNumberException e) {
-			// we are updating an existence flight, so ignore this as expected
-			
 		}
 
+		Long version = ETags.ifMatch(headers, id);
 		try {
 			
-			flightService.update(id, flight);
+			flightService.update(id, flight, version);
 			
 		} catch (ServiceException e) {
 			Map<String, String> responseObj = new HashMap<>();
@@ -186,9 +329,73 @@ public class FlightRestService {
 			
 			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
 			
+		} catch (UniqueNumberException e) {
+			
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("number", "please use a unique number");
+			
+			throw new RestServiceException("number details supplied in request body conflict with another Flight",
+					responseObj, Response.Status.CONFLICT, e);
+			
+		} catch (OptimisticLockException e) {
+			throw new RestServiceException("Flight has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
 		}
 
-		return Response.ok(flight).build();
+		return Response.ok(flight).tag(ETags.of(flight.getId(), flight.getVersion())).build();
+	}
+
+	@PATCH
+	@Path("/id/{id:[0-9]+}")
+	@Consumes(MergePatch.MEDIA_TYPE)
+	@Operation(description = "Change some fields of a Flight, given as a JSON Merge Patch")
+	@APIResponse(responseCode = "200", description = "Flight updated successfully")
+	@APIResponse(responseCode = "400", description = "Invalid patch supplied in request body")
+	@APIResponse(responseCode = "404", description = "Flight with id not found")
+	@APIResponse(responseCode = "409", description = "Flight details supplied in request body conflict with another existing Flight, or the Flight was changed concurrently")
+	@APIResponse(responseCode = "412", description = "Flight has changed since the version given in If-Match")
+	@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
+	public Response patchFlight(
+			@Parameter(description = "Id of flight to be updated", required = true) @Schema(minimum = "0") @PathParam("id") Integer id,
+			@Parameter(description = "JSON Merge Patch holding the fields to change", required = true) JsonNode patch,
+			@Context HttpHeaders headers) {
+
+		Long version = ETags.ifMatch(headers, id);
+		Flight flight;
+		try {
+
+			flight = flightService.patch(id, MergePatch.of(patch), version);
+
+		} catch (ServiceException e) {
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("id", "please ensure the id is associated with this number");
+
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.NOT_FOUND, e);
+
+		} catch (ConstraintViolationException ce) {
+			Map<String, String> responseObj = new HashMap<>();
+			for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+				responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+			}
+
+			throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException(e.getMessage(), Response.Status.BAD_REQUEST, e);
+		} catch (UniqueNumberException e) {
+
+			Map<String, String> responseObj = new HashMap<>();
+			responseObj.put("number", "please use a unique number");
+
+			throw new RestServiceException("number details supplied in request body conflict with another Flight",
+					responseObj, Response.Status.CONFLICT, e);
+
+		} catch (OptimisticLockException e) {
+			throw new RestServiceException("Flight has been changed by another request",
+					version == null ? Response.Status.CONFLICT : Response.Status.PRECONDITION_FAILED, e);
+		}
+
+		return Response.ok(flight).tag(ETags.of(flight.getId(), flight.getVersion())).build();
 	}
 
 	@DELETE
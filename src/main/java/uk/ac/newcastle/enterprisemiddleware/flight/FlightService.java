@@ -1,18 +1,37 @@
 package uk.ac.newcastle.enterprisemiddleware.flight;
 
+import java.util.ArrayList;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 import javax.transaction.Transactional;
+import javax.ws.rs.core.EntityTag;
 
 import org.hibernate.service.spi.ServiceException;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
-import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
-import uk.ac.newcastle.enterprisemiddleware.booking.BookingMapper;
+import uk.ac.newcastle.enterprisemiddleware.booking.Availability;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.booking.FlightAvailability;
+import uk.ac.newcastle.enterprisemiddleware.util.AfterCompletion;
+import uk.ac.newcastle.enterprisemiddleware.util.BulkWriter;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
+import uk.ac.newcastle.enterprisemiddleware.util.MultiGet;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+import uk.ac.newcastle.enterprisemiddleware.util.PersistenceExceptions;
+import uk.ac.newcastle.enterprisemiddleware.util.SingleFlight;
 
 /**
  * This Service assumes the Control responsibility in the ECB pattern.
@@ -25,7 +44,7 @@ import uk.ac.newcastle.enterprisemiddleware.booking.BookingMapper;
  * methods.
  */
 @ApplicationScoped
-public class FlightService {
+public class FlightService implements BulkWriter<Flight> {
 
 	@Inject
 	Logger log;
@@ -34,7 +53,7 @@ public class FlightService {
 	FlightValidator flightValidator;
 	
 	@Inject
-	BookingMapper bookingMapper;
+	BookingService bookingService;
 
 	@Inject
 	FlightMapper flightMapper;
@@ -42,6 +61,32 @@ public class FlightService {
 	@Inject
 	FlightRepository flightRepository;
 
+	// reads are served from the catalog, writes go to the database and are applied
+	// to the catalog once committed
+	@Inject
+	FlightCatalog flightCatalog;
+
+	@Inject
+	AfterCompletion afterCompletion;
+
+	@Inject
+	FlightAvailability flightAvailability;
+
+	@Inject
+	ObjectMapper objectMapper;
+
+	@Inject
+	MeterRegistry registry;
+
+	// a popular flight is asked for by many clients at once, concurrent reads of
+	// its bookings share a single query
+	private SingleFlight<Integer, List<Booking>> bookingLoads;
+
+	@PostConstruct
+	void init() {
+		bookingLoads = new SingleFlight<>("flight-bookings", registry);
+	}
+
 	// wrapper to demonstrate how validator works, it's really as same as @valid.
 	// Keep in mind we do not want to expose internal service error state to REST
 	// API, especially not the validated value contained in the violation object.
@@ -50,38 +95,182 @@ public class FlightService {
 		flightValidator.validate(flightMapper.toEntity(flight));
 	}
 
+	// callers get their own copies, the Flights of the catalog are shared
 	public List<Flight> findAll() {
-		return flightMapper.toDomainList(flightRepository.findAll());
+		return flightMapper.copyList(flightCatalog.findAll());
+	}
+
+	// keyset pagination on the unique flight number, the cursor holds the number of
+	// the last flight of the previous page
+	public Page<Flight> findPage(String after, int limit) {
+		Cursor cursor = Cursor.decode(after, 1);
+		return Page.of(flightCatalog.findAfter(cursor == null ? null : cursor.getString(0), limit + 1), limit,
+				f -> Cursor.of(f.getNumber()), flightMapper::copyList);
+	}
+
+	// keyset pagination in route order, the cursor holds the destination and number
+	// of the last flight of the previous page
+	public Page<Flight> search(String departure, String destination, boolean descending, String after, int limit) {
+		if (departure == null || departure.isEmpty())
+			throw new IllegalArgumentException("departure is required");
+		Cursor cursor = Cursor.decode(after, 2);
+		return Page.of(flightCatalog.findByRoute(departure, destination, cursor == null ? null : cursor.getString(0),
+				cursor == null ? null : cursor.getString(1), descending, limit + 1), limit,
+				f -> Cursor.of(f.getDestination(), f.getNumber()), flightMapper::copyList);
+	}
+
+	public long countByRoute(String departure, String destination) {
+		return flightCatalog.countByRoute(departure, destination);
+	}
+
+	// the route graph of the current flights, it is immutable and is replaced
+	// rather than changed when a flight is written. Its Flights are the shared ones
+	// of the catalog, copy them before handing them out
+	public FlightGraph graph() {
+		return flightCatalog.graph();
+	}
+
+	public long count() {
+		return flightCatalog.count();
+	}
+
+	// ETag of the flight listings, it changes whenever a flight is written
+	public EntityTag tag() {
+		return flightCatalog.tag();
 	}
 
 	public Optional<Flight> findById(Integer id) {
-		return flightRepository.findById(id).map(flightMapper::toDomain);
+		return flightCatalog.findById(id).map(flightMapper::copy);
+	}
+
+	public MultiGet<Flight> findAllById(List<Integer> ids) {
+		return MultiGet.of(ids, flightMapper.copyList(flightCatalog.findAllById(ids)), Flight::getId);
 	}
 
 	public Optional<Flight> findByNumber(String number) {
-		return flightRepository.findByNumber(number).map(flightMapper::toDomain);
+		return flightCatalog.findByNumber(number).map(flightMapper::copy);
 	}
 
+	// queried rather than read from the bookings collection so that the customer
+	// of every booking is fetched in the same statement, empty if flight not found.
+	// The list may be shared with concurrent callers and must not be modified
 	public List<Booking> getBooking(Integer id) {
-		return bookingMapper.toDomainList(flightRepository.findById(id).map(FlightEntity::getBooking).orElse(List.of()));
+		return bookingLoads.get(id, bookingService::findByFlight);
 	}
 
+	// answered from the booked days kept in memory, empty if flight not found
+	public Optional<Availability> findAvailability(Integer id, LocalDate from, LocalDate to) {
+		if (flightCatalog.findById(id).isEmpty())
+			return Optional.empty();
+		return Optional.of(flightAvailability.find(id, from, to));
+	}
+
+	@Override
 	@Transactional
 	public void create(Flight flight) {
 		log.info("FlightService.create() - Creating: {} " + flight);
 
 		FlightEntity entity = flightMapper.toEntity(flight);
-		flightRepository.create(entity);
+		try {
+			flightRepository.create(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
 		flightMapper.updateDomainFromEntity(entity, flight);
+		Flight committed = flightMapper.toDomain(entity);
+		afterCompletion.onCommit(() -> flightCatalog.putAll(List.of(committed)));
+	}
+
+	@Override
+	public void prepareImport(Flight flight) {
+		flight.setId(null);
+		validateFlight(flight);
+	}
+
+	// writes one chunk of a bulk import in a single transaction, BulkImporter
+	// falls back to create() row by row if the chunk is rejected
+	@Override
+	@Transactional
+	public void createAll(List<Flight> flights) {
+		log.info("FlightService.createAll() - Creating " + flights.size() + " Flights");
+
+		List<FlightEntity> entities = new ArrayList<>(flights.size());
+		for (Flight flight : flights) {
+			entities.add(flightMapper.toEntity(flight));
+		}
+		try {
+			flightRepository.createAll(entities);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		for (int i = 0; i < entities.size(); i++) {
+			flightMapper.updateDomainFromEntity(entities.get(i), flights.get(i));
+		}
+		List<Flight> committed = flightMapper.toDomainList(entities);
+		afterCompletion.onCommit(() -> flightCatalog.putAll(committed));
+	}
+
+	@Override
+	public Integer idOf(Flight flight) {
+		return flight.getId();
 	}
 
+	@Override
+	public boolean isConflict(RuntimeException e) {
+		return e instanceof UniqueNumberException;
+	}
+
+	// a single UPDATE that only applies on top of the expected version, which is
+	// the one sent in If-Match or else the one in the catalog
 	@Transactional
-	public void update(Integer id, Flight flight) {
+	public void update(Integer id, Flight flight, Long version) {
 		log.info("FlightService.update() - Updating " + id);
 
-		flightRepository.findById(id)
+		Flight previous = flightCatalog.findById(id)
 				.orElseThrow(() -> new ServiceException("No Flight found for flightId[%s]" + id));
-		flightRepository.update(flightMapper.toEntity(flight));
+		long expected = version != null ? version : previous.getVersion();
+		FlightEntity entity = flightMapper.toEntity(flight);
+		// the row read above is the one updated, whatever id the payload holds
+		entity.setId(Long.valueOf(id));
+		int updated;
+		try {
+			updated = flightRepository.update(entity, expected);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		if (updated == 0)
+			throw new OptimisticLockException("Flight " + id + " is no longer at version " + expected);
+		entity.setVersion(expected + 1);
+		flightMapper.updateDomainFromEntity(entity, flight);
+		Flight committed = flightMapper.toDomain(entity);
+		afterCompletion.onCommit(() -> flightCatalog.putAll(List.of(committed)));
+	}
+
+	// applies a merge patch to the managed entity, so only the changed fields are
+	// validated and dirty checking leaves the other columns out of the UPDATE
+	@Transactional
+	public Flight patch(Integer id, MergePatch patch, Long version) {
+		log.info("FlightService.patch() - Patching " + id);
+
+		FlightEntity entity = flightRepository.findById(id)
+				.orElseThrow(() -> new ServiceException("No Flight found for flightId[%s]" + id));
+		if (version != null && !version.equals(entity.getVersion()))
+			throw new OptimisticLockException("Flight " + id + " is no longer at version " + version);
+		MergePatch.Patched<Flight> patched = patch.apply(objectMapper, flightMapper.toDomain(entity));
+		Flight flight = patched.getValue();
+		if (!id.equals(flight.getId()))
+			throw new IllegalArgumentException("The id of a Flight can not be changed");
+		flightMapper.updateEntityFromDomain(flight, entity);
+		flightValidator.validate(entity, patched.getChanged());
+		try {
+			flightRepository.flush(entity);
+		} catch (PersistenceException e) {
+			throw translate(e);
+		}
+		flightMapper.updateDomainFromEntity(entity, flight);
+		Flight committed = flightMapper.toDomain(entity);
+		afterCompletion.onCommit(() -> flightCatalog.putAll(List.of(committed)));
+		return flight;
 	}
 
 	@Transactional
@@ -91,5 +280,17 @@ public class FlightService {
 		FlightEntity entity = flightRepository.findById(id)
 				.orElseThrow(() -> new ServiceException("No Flight found for flightId[%s]" + id));
 		flightRepository.delete(entity);
+		afterCompletion.onCommit(() -> flightCatalog.remove(id));
+		// its bookings went with it
+		flightAvailability.dropped(id);
+	}
+
+	// the number uniqueness is enforced by the database, map its violation back to
+	// the exception the REST layer reports as 409
+	private RuntimeException translate(PersistenceException e) {
+		if (PersistenceExceptions.isConstraintViolation(e, FlightEntity.UNIQUE_NUMBER)) {
+			return new UniqueNumberException("Unique Number Violation", e);
+		}
+		return e;
 	}
 }
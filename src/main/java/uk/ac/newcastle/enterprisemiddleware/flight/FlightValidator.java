@@ -17,7 +17,6 @@ import javax.validation.Validator;
  *
  * @author Joshua Wilson
  * @see FlightEntity
- * @see FlightRepository
  * @see javax.validation.Validator
  */
 @ApplicationScoped
@@ -25,34 +24,28 @@ public class FlightValidator {
 	@Inject
 	Validator validator;
 
-	@Inject
-	FlightRepository flightRepository;
-
 	/**
 	 * Validates the given Flight object and throws validation exceptions based on
 	 * the type of error. If the error is standard bean validation errors then it
 	 * will throw a ConstraintValidationException with the set of the constraints
 	 * violated.
 	 * 
-	 * If the error is caused by an existing Flight with the same email is
-	 * registered it throws a regular validation exception so that it can be
-	 * interpreted separately.
+	 * A Flight with the same number as an existing one is rejected by the
+	 * uk_flight_number constraint when the Flight is written.
 	 * 
 	 * NOTE: When a database unicity constraint is set on a JPA Entity, we usually
 	 * got two options :
 	 * 
 	 * Catch the PersistenceException and the nested JPA provider exception (for
-	 * Hibernate : ConstraintViolationException). It is very hard to create a
-	 * generic handler for this exception (extract column name from the exception,
-	 * recreate the form context, …)
+	 * Hibernate : ConstraintViolationException) and translate it back into a
+	 * UniqueNumberException using the name of the violated constraint.
 	 * 
 	 * Query the database before the persist/merge operation, in order to check if
-	 * the unique value is already inserted in the database. this POC uses this
-	 * option.
+	 * the unique value is already inserted in the database.
 	 * 
-	 * If we don't use UniqueEmailException to isolation the validate flow, then it
-	 * will directly go to create a new flight entity even with same email address
-	 * which will raise a sql exception almost unreadable.
+	 * The second option costs an extra round trip per write and still races with
+	 * concurrent inserts, so only bean validation is done here and FlightService
+	 * does the translation after the statement is flushed.
 	 *
 	 */
 	void validate(FlightEntity flight) {
@@ -62,11 +55,27 @@ public class FlightValidator {
 			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
 		}
 
-		if (flightRepository.findByNumber(flight.getNumber()).isPresent()) {
-			throw new UniqueNumberException("Unique Number Violation");
+		if (flight.getDeparture().equals(flight.getDestination())) {
+			throw new IllegalArgumentException("Destination must not be same as departure");
 		}
+	}
 
-		if (flight.getDeparture().equals(flight.getDestination())) {
+	/**
+	 * Validates only the given properties of a Flight, for a partial update whose
+	 * other properties were already valid when they were written.
+	 */
+	void validate(FlightEntity flight, Set<String> properties) {
+		Set<ConstraintViolation<FlightEntity>> violations = new HashSet<>();
+		for (String property : properties) {
+			violations.addAll(validator.validateProperty(flight, property));
+		}
+
+		if (!violations.isEmpty()) {
+			throw new ConstraintViolationException(new HashSet<ConstraintViolation<?>>(violations));
+		}
+
+		if ((properties.contains("departure") || properties.contains("destination"))
+				&& flight.getDeparture().equals(flight.getDestination())) {
 			throw new IllegalArgumentException("Destination must not be same as departure");
 		}
 	}
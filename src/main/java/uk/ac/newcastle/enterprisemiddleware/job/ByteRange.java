@@ -0,0 +1,86 @@
+package uk.ac.newcastle.enterprisemiddleware.job;
+
+/**
+ * A single byte range of a Range header, as in RFC 7233, resolved against the
+ * size of the file it is read from.
+ */
+class ByteRange {
+
+	private final long first;
+
+	private final long last;
+
+	private ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	static ByteRange all(long size) {
+		return new ByteRange(0, size - 1);
+	}
+
+	/**
+	 * Parses a Range header.
+	 *
+	 * @param header The header, or null
+	 * @param size   The size of the file
+	 * @return The range, or null if the whole file is to be sent: there is no
+	 *         header, or it is not a single valid byte range, which the server
+	 *         may ignore
+	 * @throws IllegalArgumentException If the range starts past the end of the
+	 *                                  file
+	 */
+	static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		long first;
+		long last;
+		try {
+			if (dash == 0) {
+				// the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				if (suffix == 0) {
+					throw new IllegalArgumentException("Empty suffix range");
+				}
+				first = Math.max(0, size - suffix);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(spec.substring(0, dash));
+				if (dash == spec.length() - 1) {
+					last = size - 1;
+				} else {
+					last = Long.parseLong(spec.substring(dash + 1));
+					if (last < first) {
+						// not a valid range at all rather than one outside the file
+						return null;
+					}
+					last = Math.min(size - 1, last);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (first >= size) {
+			throw new IllegalArgumentException("Range " + spec + " is outside the " + size + " bytes of the result");
+		}
+		return new ByteRange(first, last);
+	}
+
+	long getFirst() {
+		return first;
+	}
+
+	long getLength() {
+		return last - first + 1;
+	}
+
+	String contentRange(long size) {
+		return "bytes " + first + "-" + last + "/" + size;
+	}
+}
@@ -0,0 +1,139 @@
+package uk.ac.newcastle.enterprisemiddleware.job;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A long running report or export, run in the background and spooled to a
+ * file that can be downloaded once it is done.
+ *
+ * The job is written by the thread running it and read by the requests
+ * polling it, so every field that changes is volatile.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Job {
+
+	public enum Status {
+		QUEUED, RUNNING, DONE, FAILED
+	}
+
+	private final String id;
+
+	private final String type;
+
+	private final String mediaType;
+
+	private final Date submitted = new Date();
+
+	private volatile Status status = Status.QUEUED;
+
+	private volatile Date started;
+
+	private volatile Date finished;
+
+	private volatile long progress;
+
+	private volatile Long total;
+
+	private volatile Long size;
+
+	private volatile String error;
+
+	Job(String id, String type, String mediaType) {
+		this.id = id;
+		this.type = type;
+		this.mediaType = mediaType;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * The media type of the result.
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Date getSubmitted() {
+		return new Date(submitted.getTime());
+	}
+
+	public Date getStarted() {
+		return started == null ? null : new Date(started.getTime());
+	}
+
+	public Date getFinished() {
+		return finished == null ? null : new Date(finished.getTime());
+	}
+
+	/**
+	 * The number of items written so far, out of the total if the job knows it.
+	 */
+	public long getProgress() {
+		return progress;
+	}
+
+	public Long getTotal() {
+		return total;
+	}
+
+	/**
+	 * The size of the result in bytes, once the job is done.
+	 */
+	public Long getSize() {
+		return size;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@JsonIgnore
+	public boolean isFinished() {
+		return status == Status.DONE || status == Status.FAILED;
+	}
+
+	/**
+	 * Sets the number of items the job is going to write, called by the task
+	 * before it starts writing.
+	 */
+	public void total(long total) {
+		this.total = total;
+	}
+
+	/**
+	 * Records that the task has written this many items so far.
+	 */
+	public void progress(long progress) {
+		this.progress = progress;
+	}
+
+	void started() {
+		started = new Date();
+		status = Status.RUNNING;
+	}
+
+	void done(long size) {
+		this.size = size;
+		finished = new Date();
+		status = Status.DONE;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		finished = new Date();
+		status = Status.FAILED;
+	}
+}
@@ -0,0 +1,223 @@
+package uk.ac.newcastle.enterprisemiddleware.job;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingExporter;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.util.BulkImporter;
+import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+
+/**
+ * Runs reports and exports that take too long to answer within one request.
+ *
+ * A job is submitted with a POST and accepted straight away with 202 and the
+ * location of the job, which is polled for its status and progress. Once it is
+ * done its result can be downloaded, whole or in byte ranges, until the job is
+ * deleted or expires.
+ */
+@Path("/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+@ApplicationScoped
+public class JobRestService {
+
+	private static final String ID = "{id:[0-9a-f-]{36}}";
+
+	@Inject
+	Logger log;
+
+	@Inject
+	JobService jobService;
+
+	@Inject
+	BookingService bookingService;
+
+	@Inject
+	BookingExporter bookingExporter;
+
+	@POST
+	@Path("/bookings-export")
+	@Consumes(MediaType.WILDCARD)
+	@Operation(summary = "Export all Bookings in the background", description = "Queues a job writing every Booking as newline delimited JSON or CSV, like GET /bookings/export. The job is polled at the URI in the Location header.")
+	@APIResponse(responseCode = "202", description = "Job queued")
+	@APIResponse(responseCode = "400", description = "Unknown format supplied")
+	@APIResponse(responseCode = "503", description = "Too many jobs are queued already")
+	public Response exportBookings(
+			@Parameter(description = "Format of the export") @Schema(enumeration = { "ndjson", "csv" }) @DefaultValue("ndjson") @QueryParam("format") String format,
+			@Context UriInfo uriInfo) {
+		boolean csv = isCsv(format);
+		JobTask task = (output, job) -> {
+			job.total(bookingService.count());
+			if (csv) {
+				bookingExporter.csv(output, job::progress);
+			} else {
+				bookingExporter.ndjson(output, job::progress);
+			}
+		};
+		return accepted(submit("bookings-export", csv ? BookingExporter.CSV : BulkImporter.NDJSON, task), uriInfo);
+	}
+
+	@POST
+	@Path("/bookings")
+	@Consumes(MediaType.WILDCARD)
+	@Operation(summary = "Report the Bookings of a range of Flights in the background", description = "Queues a job writing the Bookings of every Flight whose number is between flightFrom and flightTo, both included, ordered by flight number then date, as newline delimited JSON or CSV. The job is polled at the URI in the Location header.")
+	@APIResponse(responseCode = "202", description = "Job queued")
+	@APIResponse(responseCode = "400", description = "Missing or inverted flight range, or unknown format supplied")
+	@APIResponse(responseCode = "503", description = "Too many jobs are queued already")
+	public Response reportBookings(
+			@Parameter(description = "First flight number of the range", required = true) @QueryParam("flightFrom") String flightFrom,
+			@Parameter(description = "Last flight number of the range, included", required = true) @QueryParam("flightTo") String flightTo,
+			@Parameter(description = "Format of the report") @Schema(enumeration = { "ndjson", "csv" }) @DefaultValue("ndjson") @QueryParam("format") String format,
+			@Context UriInfo uriInfo) {
+		if (flightFrom == null || flightTo == null)
+			throw new RestServiceException("flightFrom and flightTo are required", Response.Status.BAD_REQUEST);
+		if (flightFrom.compareTo(flightTo) > 0)
+			throw new RestServiceException("flightTo must not be before flightFrom", Response.Status.BAD_REQUEST);
+		boolean csv = isCsv(format);
+		JobTask task = (output, job) -> {
+			job.total(bookingService.countByFlightNumbers(flightFrom, flightTo));
+			if (csv) {
+				bookingExporter.csv(output, flightFrom, flightTo, job::progress);
+			} else {
+				bookingExporter.ndjson(output, flightFrom, flightTo, job::progress);
+			}
+		};
+		return accepted(submit("bookings-report", csv ? BookingExporter.CSV : BulkImporter.NDJSON, task), uriInfo);
+	}
+
+	@GET
+	@Path("/" + ID)
+	@Operation(summary = "Fetch a job", description = "Returns the status and progress of the job. Once it is DONE its result is at the result link.")
+	@APIResponse(responseCode = "200", description = "Job found")
+	@APIResponse(responseCode = "404", description = "Job with id not found or expired")
+	public Response getById(@Parameter(description = "Id of the job") @PathParam("id") String id,
+			@Context UriInfo uriInfo) {
+		Job job = jobService.findById(id)
+				.orElseThrow(() -> new RestServiceException("No job with this id", Response.Status.NOT_FOUND));
+		Response.ResponseBuilder builder = Response.ok(job);
+		if (job.getStatus() == Job.Status.DONE) {
+			builder.link(uriInfo.getAbsolutePathBuilder().path("result").build(), "result");
+		}
+		return builder.build();
+	}
+
+	@GET
+	@Path("/" + ID + "/result")
+	@Produces(MediaType.WILDCARD)
+	@Operation(summary = "Download the result of a job", description = "Streams the result of a job that is DONE. A single byte range may be asked for in the Range header to resume an interrupted download.")
+	@APIResponse(responseCode = "200", description = "The whole result")
+	@APIResponse(responseCode = "206", description = "The requested range of the result")
+	@APIResponse(responseCode = "404", description = "Job with id not found or expired")
+	@APIResponse(responseCode = "409", description = "The job is not done")
+	@APIResponse(responseCode = "416", description = "The range is outside the result")
+	public Response getResult(@Parameter(description = "Id of the job") @PathParam("id") String id,
+			@Parameter(description = "A single byte range, such as bytes=1000-") @HeaderParam("Range") String range) {
+		Job job = jobService.findById(id)
+				.orElseThrow(() -> new RestServiceException("No job with this id", Response.Status.NOT_FOUND));
+		java.nio.file.Path file = jobService.findResult(id).orElseThrow(
+				() -> new RestServiceException("The job is " + job.getStatus(), Response.Status.CONFLICT));
+		long size = job.getSize();
+
+		ByteRange bytes;
+		try {
+			bytes = ByteRange.parse(range, size);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header("Content-Range", "bytes */" + size).build();
+		}
+		Response.ResponseBuilder builder;
+		if (bytes == null) {
+			bytes = ByteRange.all(size);
+			builder = Response.ok();
+		} else {
+			builder = Response.status(Response.Status.PARTIAL_CONTENT).header("Content-Range",
+					bytes.contentRange(size));
+		}
+		return builder.entity(transfer(file, bytes.getFirst(), bytes.getLength())).type(job.getMediaType())
+				.header("Accept-Ranges", "bytes").header(HttpHeaders.CONTENT_LENGTH, bytes.getLength()).build();
+	}
+
+	@DELETE
+	@Path("/" + ID)
+	@Operation(summary = "Delete a job", description = "Cancels the job if it has not finished and deletes its result.")
+	@APIResponse(responseCode = "204", description = "Job deleted")
+	@APIResponse(responseCode = "404", description = "Job with id not found or expired")
+	public Response delete(@Parameter(description = "Id of the job") @PathParam("id") String id) {
+		if (!jobService.delete(id)) {
+			throw new RestServiceException("No job with this id", Response.Status.NOT_FOUND);
+		}
+		return Response.noContent().build();
+	}
+
+	private static boolean isCsv(String format) {
+		if (format.equals("csv"))
+			return true;
+		if (format.equals("ndjson"))
+			return false;
+		throw new RestServiceException("format must be ndjson or csv", Response.Status.BAD_REQUEST);
+	}
+
+	private Job submit(String type, String mediaType, JobTask task) {
+		try {
+			return jobService.submit(type, mediaType, task);
+		} catch (RejectedExecutionException e) {
+			log.warning("JobRestService.submit() - Refused a " + type + " job, the queue is full");
+			throw new RestServiceException("Too many jobs are queued, try again later",
+					Response.Status.SERVICE_UNAVAILABLE, e);
+		}
+	}
+
+	private static Response accepted(Job job, UriInfo uriInfo) {
+		return Response.accepted(job)
+				.location(uriInfo.getBaseUriBuilder().path(JobRestService.class).path(job.getId()).build()).build();
+	}
+
+	// the file is handed to the response with transferTo, which the JDK turns into
+	// a plain copy loop since the target is a stream rather than a socket
+	private static StreamingOutput transfer(java.nio.file.Path file, long first, long length) {
+		return output -> {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				WritableByteChannel target = Channels.newChannel(output);
+				long position = first;
+				long remaining = length;
+				while (remaining > 0) {
+					long sent = channel.transferTo(position, remaining, target);
+					if (sent <= 0) {
+						throw new IOException("Result of " + file.getFileName() + " ended early");
+					}
+					position += sent;
+					remaining -= sent;
+				}
+			}
+		};
+	}
+}
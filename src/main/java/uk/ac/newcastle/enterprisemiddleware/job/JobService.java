@@ -0,0 +1,217 @@
+package uk.ac.newcastle.enterprisemiddleware.job;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.scheduler.Scheduled;
+
+/**
+ * Runs Jobs on a small pool of its own threads and keeps their results in
+ * spool files until they have been kept for the retention period.
+ *
+ * Both the pool and its queue are bounded, a job submitted while they are full
+ * is rejected rather than queued without limit. Jobs live in memory only, they
+ * and their files are gone after a restart. Unless app.job.directory is set the
+ * files are spooled to a temporary directory, deleted on shutdown.
+ */
+@ApplicationScoped
+public class JobService {
+
+	@Inject
+	Logger log;
+
+	@ConfigProperty(name = "app.job.threads", defaultValue = "2")
+	int threads;
+
+	@ConfigProperty(name = "app.job.queue-size", defaultValue = "16")
+	int queueSize;
+
+	@ConfigProperty(name = "app.job.directory")
+	Optional<String> directory;
+
+	@ConfigProperty(name = "app.job.retention", defaultValue = "PT1H")
+	Duration retention;
+
+	private final Map<String, Entry> jobs = new ConcurrentHashMap<>();
+
+	private ThreadPoolExecutor executor;
+
+	private Path spool;
+
+	@PostConstruct
+	void init() {
+		try {
+			spool = directory.isPresent() ? Files.createDirectories(Path.of(directory.get()))
+					: Files.createTempDirectory("jobs");
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not create the job spool directory", e);
+		}
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), task -> {
+					Thread thread = new Thread(task, "job-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+		jobs.keySet().forEach(this::delete);
+		if (directory.isEmpty()) {
+			// the temporary directory is ours alone, a configured one may be shared
+			deleteSpool();
+		}
+	}
+
+	/**
+	 * Queues a job.
+	 *
+	 * @param type      Names the kind of job
+	 * @param mediaType The media type of the result
+	 * @param task      Writes the result
+	 * @return The queued job
+	 * @throws RejectedExecutionException If the queue is full
+	 */
+	public Job submit(String type, String mediaType, JobTask task) {
+		Job job = new Job(UUID.randomUUID().toString(), type, mediaType);
+		Entry entry = new Entry(job, spool.resolve(job.getId()));
+		jobs.put(job.getId(), entry);
+		try {
+			entry.future = executor.submit(() -> run(entry, task));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			throw e;
+		}
+		log.info("JobService.submit() - Job " + job.getId() + " (" + type + ") queued");
+		return job;
+	}
+
+	public Optional<Job> findById(String id) {
+		return Optional.ofNullable(jobs.get(id)).map(entry -> entry.job);
+	}
+
+	/**
+	 * Returns the spool file of a job that is done.
+	 */
+	public Optional<Path> findResult(String id) {
+		Entry entry = jobs.get(id);
+		if (entry == null || entry.job.getStatus() != Job.Status.DONE) {
+			return Optional.empty();
+		}
+		return Optional.of(entry.file);
+	}
+
+	/**
+	 * Cancels a job that has not finished yet and deletes its result.
+	 *
+	 * @return false if there was no such job
+	 */
+	public boolean delete(String id) {
+		Entry entry = jobs.remove(id);
+		if (entry == null) {
+			return false;
+		}
+		if (entry.future != null) {
+			entry.future.cancel(true);
+		}
+		deleteFile(entry.file);
+		return true;
+	}
+
+	@Scheduled(every = "${app.job.cleanup-interval:60s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+	void purge() {
+		long oldest = System.currentTimeMillis() - retention.toMillis();
+		jobs.forEach((id, entry) -> {
+			if (entry.job.isFinished() && entry.job.getFinished().getTime() < oldest) {
+				log.info("JobService.purge() - Job " + id + " expired");
+				delete(id);
+			}
+		});
+	}
+
+	// the task runs outside any request, so it gets a request context of its own
+	// for the request scoped beans it uses, such as the EntityManager
+	private void run(Entry entry, JobTask task) {
+		Job job = entry.job;
+		job.started();
+		ManagedContext requestContext = Arc.container().requestContext();
+		requestContext.activate();
+		try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(entry.file))) {
+			task.run(output, job);
+			output.flush();
+			job.done(Files.size(entry.file));
+			log.info("JobService.run() - Job " + job.getId() + " done");
+		} catch (Exception e) {
+			log.log(Level.WARNING, "JobService.run() - Job " + job.getId() + " failed", e);
+			job.failed(e.toString());
+			deleteFile(entry.file);
+		} finally {
+			requestContext.terminate();
+			if (jobs.get(job.getId()) != entry) {
+				// deleted while it ran, nobody is going to fetch or purge the result
+				deleteFile(entry.file);
+			}
+		}
+	}
+
+	private void deleteFile(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warning("JobService - Could not delete " + file + ": " + e);
+		}
+	}
+
+	// a job interrupted by the shutdown may still be writing its file, so
+	// whatever is left is deleted before the directory itself
+	private void deleteSpool() {
+		try (Stream<Path> files = Files.walk(spool)) {
+			files.sorted(Comparator.reverseOrder()).forEach(this::deleteFile);
+		} catch (IOException e) {
+			log.warning("JobService - Could not delete " + spool + ": " + e);
+		}
+	}
+
+	private static final class Entry {
+
+		private final Job job;
+
+		private final Path file;
+
+		private volatile Future<?> future;
+
+		private Entry(Job job, Path file) {
+			this.job = job;
+			this.file = file;
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package uk.ac.newcastle.enterprisemiddleware.job;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The work of a Job: writes its result to the spool file and reports its
+ * progress on the job as it goes.
+ */
+@FunctionalInterface
+public interface JobTask {
+
+	void run(OutputStream output, Job job) throws IOException;
+}
@@ -0,0 +1,35 @@
+package uk.ac.newcastle.enterprisemiddleware.route;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+
+/**
+ * A way from one airport to another: one flight, or several connecting ones
+ * where each leg departs from the destination of the previous one.
+ */
+public class Itinerary {
+
+	private final List<Flight> legs;
+
+	Itinerary(List<Flight> legs) {
+		this.legs = Collections.unmodifiableList(new ArrayList<>(legs));
+	}
+
+	public List<Flight> getLegs() {
+		return legs;
+	}
+
+	/**
+	 * The airports where the itinerary changes flight.
+	 */
+	public List<String> getConnections() {
+		List<String> connections = new ArrayList<>(legs.size() - 1);
+		for (int i = 1; i < legs.size(); i++) {
+			connections.add(legs.get(i).getDeparture());
+		}
+		return connections;
+	}
+}
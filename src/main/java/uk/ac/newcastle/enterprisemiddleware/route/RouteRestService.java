@@ -0,0 +1,68 @@
+package uk.ac.newcastle.enterprisemiddleware.route;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+
+import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+
+@Path("/routes")
+@Produces(MediaType.APPLICATION_JSON)
+@ApplicationScoped
+public class RouteRestService {
+
+	@Inject
+	RouteService routeService;
+
+	@GET
+	@Operation(summary = "Find connections between two airports", description = "Returns a JSON array of itineraries from one airport to another, each a list of connecting flights. Itineraries with fewer legs come first. Given a date, only flights that can still be booked on that date are taken.")
+	@APIResponse(responseCode = "200", description = "Itineraries would be return, empty if there is no connection")
+	@APIResponse(responseCode = "400", description = "Missing or equal airports, or invalid maxLegs, date or limit supplied")
+	public Response find(
+			@Parameter(description = "Airport to leave from", required = true) @QueryParam("from") String from,
+			@Parameter(description = "Airport to arrive at", required = true) @QueryParam("to") String to,
+			@Parameter(description = "Most flights an itinerary may take") @Schema(minimum = "1", maximum = "" + RouteService.MAX_LEGS, defaultValue = "3") @DefaultValue("3") @QueryParam("maxLegs") int maxLegs,
+			@Parameter(description = "Date of travel as yyyy-MM-dd, flights already booked on it are left out") @QueryParam("date") String date,
+			@Parameter(description = "Maximum number of itineraries to return") @Schema(minimum = "1", maximum = "" + RouteService.MAX_LIMIT, defaultValue = "" + RouteService.DEFAULT_LIMIT) @QueryParam("limit") Integer limit) {
+		try {
+			return Response.ok(routeService.find(from, to, maxLegs, parseDate(date), limit(limit))).build();
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+		}
+	}
+
+	// bookings are dated at midnight UTC, the time a date is read as from JSON
+	private static Date parseDate(String date) {
+		if (date == null)
+			return null;
+		try {
+			return Date.from(LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant());
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("date must be yyyy-MM-dd", e);
+		}
+	}
+
+	private static int limit(Integer requested) {
+		if (requested == null)
+			return RouteService.DEFAULT_LIMIT;
+		if (requested < 1)
+			throw new IllegalArgumentException("limit must be positive");
+		return Math.min(requested, RouteService.MAX_LIMIT);
+	}
+}
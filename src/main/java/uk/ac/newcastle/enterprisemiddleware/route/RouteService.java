@@ -0,0 +1,140 @@
+package uk.ac.newcastle.enterprisemiddleware.route;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightGraph;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightMapper;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
+
+/**
+ * Finds connections between airports over the route graph of the flights.
+ *
+ * The graph is the one FlightService keeps in memory and replaces whenever a
+ * flight is written, so a search never reads the flight table. It first walks
+ * the graph backwards from the destination, breadth first, to learn how many
+ * legs each airport is from it. The itineraries are then enumerated forwards
+ * from the origin, fewest legs first, following only flights to airports from
+ * which the destination can still be reached within the legs left, so the
+ * search stays close to the itineraries it returns rather than the whole
+ * graph.
+ */
+@ApplicationScoped
+public class RouteService {
+
+	public static final int MAX_LEGS = 4;
+
+	public static final int DEFAULT_LIMIT = 20;
+
+	public static final int MAX_LIMIT = 100;
+
+	@Inject
+	FlightService flightService;
+
+	@Inject
+	FlightMapper flightMapper;
+
+	@Inject
+	BookingService bookingService;
+
+	/**
+	 * Finds itineraries that never pass the same airport twice, ordered by number
+	 * of legs, then by the destination and number of each leg.
+	 *
+	 * @param from    The airport to leave from
+	 * @param to      The airport to arrive at
+	 * @param maxLegs The most flights an itinerary may take
+	 * @param date    If given, only flights that are not booked yet on this date
+	 *                are taken
+	 * @param limit   The most itineraries to return
+	 * @return The itineraries, empty if there is no connection
+	 * @throws IllegalArgumentException If the airports are missing or equal, or
+	 *                                  maxLegs is out of range
+	 */
+	public List<Itinerary> find(String from, String to, int maxLegs, Date date, int limit) {
+		if (from == null || from.isEmpty() || to == null || to.isEmpty())
+			throw new IllegalArgumentException("from and to are required");
+		if (from.equals(to))
+			throw new IllegalArgumentException("from and to must be different airports");
+		if (maxLegs < 1 || maxLegs > MAX_LEGS)
+			throw new IllegalArgumentException("maxLegs must be between 1 and " + MAX_LEGS);
+
+		FlightGraph graph = flightService.graph();
+		Set<Integer> booked = date == null ? Collections.emptySet() : bookingService.findFlightIdsBookedOn(date);
+		Map<String, Integer> legsTo = legsTo(graph, to, maxLegs, booked);
+		Integer fewest = legsTo.get(from);
+		List<Itinerary> itineraries = new ArrayList<>();
+		if (fewest == null)
+			return itineraries;
+
+		Set<String> visited = new HashSet<>();
+		visited.add(from);
+		for (int legs = fewest; legs <= maxLegs && itineraries.size() < limit; legs++) {
+			collect(graph, from, to, legs, booked, legsTo, visited, new ArrayList<>(legs), itineraries, limit);
+		}
+		return itineraries;
+	}
+
+	// breadth first from the destination against the direction of the flights:
+	// the fewest legs from each airport to it, for the airports within maxLegs
+	private static Map<String, Integer> legsTo(FlightGraph graph, String to, int maxLegs, Set<Integer> booked) {
+		Map<String, Integer> legsTo = new HashMap<>();
+		Queue<String> queue = new ArrayDeque<>();
+		legsTo.put(to, 0);
+		queue.add(to);
+		while (!queue.isEmpty()) {
+			String airport = queue.remove();
+			int legs = legsTo.get(airport) + 1;
+			for (Flight flight : graph.arrivingAt(airport)) {
+				if (!booked.contains(flight.getId()) && legsTo.putIfAbsent(flight.getDeparture(), legs) == null
+						&& legs < maxLegs) {
+					queue.add(flight.getDeparture());
+				}
+			}
+		}
+		return legsTo;
+	}
+
+	// every itinerary of exactly legsLeft more legs from the airport, in the order
+	// of the graph. The legs are copied, the Flights of the graph are shared
+	private void collect(FlightGraph graph, String airport, String to, int legsLeft, Set<Integer> booked,
+			Map<String, Integer> legsTo, Set<String> visited, List<Flight> path, List<Itinerary> itineraries,
+			int limit) {
+		for (Flight flight : graph.departingFrom(airport)) {
+			if (itineraries.size() >= limit)
+				return;
+			if (booked.contains(flight.getId()))
+				continue;
+			String next = flight.getDestination();
+			if (legsLeft == 1) {
+				if (next.equals(to)) {
+					path.add(flight);
+					itineraries.add(new Itinerary(flightMapper.copyList(path)));
+					path.remove(path.size() - 1);
+				}
+				continue;
+			}
+			// arriving early was found with fewer legs, and each airport is passed once
+			Integer legs = legsTo.get(next);
+			if (next.equals(to) || legs == null || legs > legsLeft - 1 || !visited.add(next))
+				continue;
+			path.add(flight);
+			collect(graph, next, to, legsLeft - 1, booked, legsTo, visited, path, itineraries, limit);
+			path.remove(path.size() - 1);
+			visited.remove(next);
+		}
+	}
+}
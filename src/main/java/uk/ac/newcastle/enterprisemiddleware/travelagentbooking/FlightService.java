@@ -11,11 +11,15 @@ import javax.ws.rs.core.MediaType;
 
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import io.smallrye.mutiny.Uni;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
 
 @RegisterRestClient(configKey = "flightservice-api")
+@Measured(Measured.Kind.UPSTREAM)
 public interface FlightService {
 
 	@GET
@@ -53,4 +57,21 @@ public interface FlightService {
 	@Produces({ MediaType.APPLICATION_JSON })
 	Booking deleteBooking(@PathParam("id") Integer id);
 
+	// non-blocking variants, used to call the upstream services concurrently
+
+	@GET
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> getBookingByIdAsync(@PathParam("id") Integer id);
+
+	@POST
+	@Path("/bookings")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> createBookingAsync(Booking booking);
+
+	@DELETE
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> deleteBookingAsync(@PathParam("id") Integer id);
+
 }
@@ -11,12 +11,16 @@ import javax.ws.rs.core.MediaType;
 
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import io.smallrye.mutiny.Uni;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
 
 //duplicate with local flight service
 @RegisterRestClient(configKey = "hotelservice-api")
+@Measured(Measured.Kind.UPSTREAM)
 public interface HotelService {
 
 	@GET
@@ -54,4 +58,21 @@ public interface HotelService {
 	@Produces({ MediaType.APPLICATION_JSON })
 	Booking deleteBooking(@PathParam("id") Integer id);
 
+	// non-blocking variants, used to call the upstream services concurrently
+
+	@GET
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> getBookingByIdAsync(@PathParam("id") Integer id);
+
+	@POST
+	@Path("/bookings")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> createBookingAsync(Booking booking);
+
+	@DELETE
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> deleteBookingAsync(@PathParam("id") Integer id);
+
 }
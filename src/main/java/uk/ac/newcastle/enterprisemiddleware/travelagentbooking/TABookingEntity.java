@@ -3,6 +3,7 @@ package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
 import java.util.Objects;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -10,6 +11,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.SequenceGenerator;
@@ -19,9 +21,17 @@ import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
 
 @Entity
+// cached so that the tabookings collection cache of CustomerEntity can be
+// assembled without a SELECT per element
+@Cacheable
 @ApplicationScoped
 @Table(name = "TABooking")
-@NamedQuery(name = "TABooking.findAll", query = "SELECT t FROM TABookingEntity t ORDER BY t.id ASC")
+// the EAGER associations would otherwise be loaded by one extra SELECT per row,
+// and the customer and flight of the flight booking by one more each
+@NamedQueries({ @NamedQuery(name = "TABooking.findAll", query = "SELECT t FROM TABookingEntity t JOIN FETCH t.customer JOIN FETCH t.flightbooking b JOIN FETCH b.customer JOIN FETCH b.flight ORDER BY t.id ASC"),
+		@NamedQuery(name = "TABooking.findAllAfter", query = "SELECT t FROM TABookingEntity t JOIN FETCH t.customer JOIN FETCH t.flightbooking b JOIN FETCH b.customer JOIN FETCH b.flight WHERE t.id > :id ORDER BY t.id ASC"),
+		@NamedQuery(name = "TABooking.findByCustomer", query = "SELECT t FROM TABookingEntity t JOIN FETCH t.customer c JOIN FETCH t.flightbooking b JOIN FETCH b.customer JOIN FETCH b.flight WHERE c.id = :id ORDER BY t.id ASC"),
+		@NamedQuery(name = "TABooking.count", query = "SELECT COUNT(t) FROM TABookingEntity t") })
 public class TABookingEntity {
 
 	@Id
@@ -9,12 +9,19 @@ import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEntity;
+import uk.ac.newcastle.enterprisemiddleware.customer.CustomerEntity;
+import uk.ac.newcastle.enterprisemiddleware.util.CollectionCacheEvictor;
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
+
 /**
  * There are no access modifiers on the methods making them 'package' scope.
  * They should only be accessed by a service object.
  */
 
 @ApplicationScoped
+@Measured
 public class TABookingRepository {
 
 	@Inject
@@ -23,11 +30,32 @@ public class TABookingRepository {
 	@Inject
 	EntityManager em;
 
+	@Inject
+	CollectionCacheEvictor cacheEvictor;
+
 	List<TABookingEntity> findAll() {
 		TypedQuery<TABookingEntity> query = em.createNamedQuery("TABooking.findAll", TABookingEntity.class);
 		return query.getResultList();
 	}
 
+	List<TABookingEntity> findPage(Cursor after, int limit) {
+		TypedQuery<TABookingEntity> query = after == null
+				? em.createNamedQuery("TABooking.findAll", TABookingEntity.class)
+				: em.createNamedQuery("TABooking.findAllAfter", TABookingEntity.class)
+						.setParameter("id", after.getLong(0));
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	long count() {
+		return em.createNamedQuery("TABooking.count", Long.class).getSingleResult();
+	}
+
+	List<TABookingEntity> findByCustomer(Integer customerId) {
+		TypedQuery<TABookingEntity> query = em.createNamedQuery("TABooking.findByCustomer", TABookingEntity.class)
+				.setParameter("id", Long.valueOf(customerId));
+		return query.getResultList();
+	}
+
 	Optional<TABookingEntity> findById(Integer id) {
 		return Optional.ofNullable(em.find(TABookingEntity.class, Long.valueOf(id)));
 	}
@@ -35,7 +63,12 @@ public class TABookingRepository {
 	TABookingEntity create(TABookingEntity booking) {
 		log.info("TravleAgentRepository.create() - Creating " + booking.getId());
 
+		// the customer and flight booking are mapped from the payload without their
+		// versions, only their ids are needed
+		booking.setCustomer(em.getReference(CustomerEntity.class, booking.getCustomer().getId()));
+		booking.setFlightbooking(em.getReference(BookingEntity.class, booking.getFlightbooking().getId()));
 		em.persist(booking);
+		cacheEvictor.evict(CustomerEntity.TABOOKINGS, booking.getCustomer().getId());
 		return booking;
 	}
 
@@ -43,6 +76,8 @@ public class TABookingRepository {
 		log.info("TravleAgentRepository.update() - Updating " + booking.getId());
 
 		em.merge(booking);
+		// the booking may have moved from another customer
+		cacheEvictor.evict(CustomerEntity.TABOOKINGS, null);
 		return booking;
 	}
 
@@ -50,6 +85,7 @@ public class TABookingRepository {
 		log.info("TravleAgentRepository.delete() - Deleting " + booking.getId());
 
 		em.remove(em.merge(booking));
+		cacheEvictor.evict(CustomerEntity.TABOOKINGS, booking.getCustomer().getId());
 		return booking;
 	}
 }
@@ -5,7 +5,6 @@ import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.transaction.Transactional;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -13,8 +12,11 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -24,8 +26,13 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 import org.jboss.resteasy.reactive.ClientWebApplicationException;
 
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.smallrye.mutiny.tuples.Tuple3;
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
 
 @Path("/tabookings")
@@ -44,6 +51,12 @@ public class TABookingRestService {
 	@Inject
 	TABookingService tabookingService;
 
+	@Inject
+	TASagaService sagaService;
+
+	@Inject
+	TASagaCompensator sagaCompensator;
+
 	@Inject
 	@RestClient
 	FlightService flightService;
@@ -59,10 +72,22 @@ public class TABookingRestService {
 	private static Customer travelagent = new Customer();
 
 	@GET
-	@Operation(summary = "Fetch all Travel Agent booking", description = "Returns a JSON array of all stored Travel Agent tabooking.")
+	@Operation(summary = "Fetch all Travel Agent booking", description = "Returns a JSON array of one page of stored TABooking objects. The next page, if any, is linked in the Link header.")
 	@APIResponse(responseCode = "200", description = "TravelAgents would be return")
-	public Response getAll() {
-		return Response.ok(tabookingService.findAll()).build();
+	@APIResponse(responseCode = "400", description = "Invalid cursor or limit supplied")
+	public Response getAll(
+			@Parameter(description = "Cursor of the page to fetch, as returned in the Link header of the previous page") @QueryParam("after") String after,
+			@Parameter(description = "Maximum number of Travel Agent bookings to return") @Schema(minimum = "1", maximum = "1000", defaultValue = "100") @QueryParam("limit") Integer limit,
+			@Parameter(description = "Return the total number of Travel Agent bookings in the X-Total-Count header") @QueryParam("count") boolean count,
+			@Context UriInfo uriInfo) {
+
+		Page<TABooking> page;
+		try {
+			page = tabookingService.findPage(after, Page.limit(limit));
+		} catch (IllegalArgumentException e) {
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+		}
+		return page.toResponse(uriInfo, count ? tabookingService.count() : null).build();
 	}
 
 	@GET
@@ -78,9 +103,14 @@ public class TABookingRestService {
 		Booking result[] = new Booking[3];
 
 		// we don't need exception here since the database should be consistent
+		// the taxi and hotel bookings are fetched concurrently
+		Tuple2<Booking, Booking> upstream = Uni.combine().all()
+				.unis(taxiService.getBookingByIdAsync(tabooking.getTaxibookingId()),
+						hotelService.getBookingByIdAsync(tabooking.getHotelbookingId()))
+				.asTuple().await().indefinitely();
 		result[0] = tabooking.getFlightbooking();
-		result[1] = taxiService.getBookingById(tabooking.getTaxibookingId());
-		result[2] = hotelService.getBookingById(tabooking.getHotelbookingId());
+		result[1] = upstream.getItem1();
+		result[2] = upstream.getItem2();
 
 		return Response.ok(result).build();
 	}
@@ -103,69 +133,54 @@ public class TABookingRestService {
 		travelagent.setName("TravelAgent");
 		travelagent.setPhonenumber("01234567890");
 
-		try {
-			taxiService.getByEmail("TravelAgent@email.com");
-		} catch (ClientWebApplicationException e) {
-			// if we not found, create a new one
-			// NOTE: to keep simplify, this can not and should not fail
-			taxiService.createCustomer(travelagent);
+		// the saga is recorded before any upstream call and each booking id as soon
+		// as it is known, so nothing is orphaned if this request or the process dies
+		Long sagaId = sagaService.start();
+
+		// the three bookings don't depend on each other, so they are made
+		// concurrently and the latency is the slowest call rather than the sum.
+		// The taxi service needs our travel agent customer before the booking.
+		// NOTE: to keep simplify, creating the customer can not and should not fail
+		Uni<Booking> flight = record(sagaId, TASagaEntity.Step.FLIGHT,
+				flightService.createBookingAsync(tabooking.getFlightbooking()));
+
+		// As we are duplicating the same service, reset time to avoid violate unique of
+		// flight with date, each copy gets its own time as they may reach the same service
+		long now = System.currentTimeMillis();
+		Booking taxiBooking = copyOf(tabooking.getFlightbooking(), new Date(now));
+		Uni<Booking> taxi = taxiService.getByEmailAsync(travelagent.getEmail()).replaceWithVoid()
+				.onFailure(ClientWebApplicationException.class)
+				.recoverWithUni(() -> taxiService.createCustomerAsync(travelagent).replaceWithVoid())
+				.chain(() -> record(sagaId, TASagaEntity.Step.TAXI, taxiService.createBookingAsync(taxiBooking)));
+
+		Booking hotelBooking = copyOf(tabooking.getFlightbooking(), new Date(now + 1));
+		Uni<Booking> hotel = record(sagaId, TASagaEntity.Step.HOTEL, hotelService.createBookingAsync(hotelBooking));
+
+		Tuple3<Settled<Booking>, Settled<Booking>, Settled<Booking>> results = Uni.combine().all()
+				.unis(Settled.of(flight), Settled.of(taxi), Settled.of(hotel)).asTuple().await().indefinitely();
+
+		Settled<Booking> failed = results.getItem1().failure != null ? results.getItem1()
+				: results.getItem2().failure != null ? results.getItem2() : results.getItem3();
+		if (failed.failure != null) {
+			// the bookings that were made are deleted in the background by
+			// TASagaCompensator, we don't wait for it
+			sagaService.compensate(sagaId, failed.failure.toString());
+			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, failed.exception());
 		}
 
-		try {
-			hotelService.getByEmail("TravelAgent@email.com");
-		} catch (ClientWebApplicationException e) {
-			// As we are duplicating the same service, let's disable this temporarily as
-			// creating with same email is forbidden
-
-			// hotelService.createCustomer(new Customer("TravelAgent@email.com"));
-		}
-
-		// booking for ourself
-		try {
-			Booking booking = flightService.createBooking(tabooking.getFlightbooking());
-			tabooking.setFlightbooking(booking);
-		} catch (Exception e) {
-			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
-		}
+		tabooking.setFlightbooking(results.getItem1().item);
+		tabooking.setTaxibookingId(results.getItem2().item.getId());
+		tabooking.setHotelbookingId(results.getItem3().item.getId());
 
+		// stores the travel agent booking and closes the saga together, this only
+		// fails if the saga timed out and is already being compensated
 		try {
-			// As we are duplicating the same service, reset time to avoid violate unique of
-			// flight with date
-			Booking temp = tabooking.getFlightbooking();
-			temp.setDate(new Date());
-			temp = taxiService.createBooking(temp);
-
-			tabooking.setTaxibookingId(temp.getId());
-		} catch (Exception e) {
-			// now we have to manually delete flight record
-			// technically this method it-self could fail, but for simplify we ignore that
-			// possibility
-			e.printStackTrace();
-			flightService.deleteBooking(tabooking.getFlightbooking().getId());
-			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
-		}
-
-		try {
-			// same as taxi
-			Booking temp = tabooking.getFlightbooking();
-			temp.setDate(new Date());
-			temp = hotelService.createBooking(temp);
-
-			tabooking.setHotelbookingId(temp.getId());
-		} catch (Exception e) {
-
-			// now we have to manually delete both flight and taxi record
-			// technically these methods it-self could fail, but for simplify we ignore that
-			// possibility
-			flightService.deleteBooking(tabooking.getFlightbooking().getId());
-			taxiService.deleteBooking(tabooking.getTaxibookingId());
-			throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST, e);
+			sagaService.complete(sagaId, tabooking);
+		} catch (IllegalStateException e) {
+			throw new RestServiceException("The upstream bookings took too long and have been cancelled",
+					Response.Status.INTERNAL_SERVER_ERROR, e);
 		}
 
-		// we assume this could not fail and it should not fail since we can
-		// successfully create resources of it.
-		tabookingService.create(tabooking);
-
 		return Response.ok(tabooking).status(Response.Status.CREATED).build();
 	}
 
@@ -177,31 +192,62 @@ public class TABookingRestService {
 			@APIResponse(responseCode = "400", description = "Invalid TravelAgent id supplied"),
 			@APIResponse(responseCode = "404", description = "TravelAgent with id not found"),
 			@APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request") })
-	@Transactional
 	public Response deleteTravelAgent(
 			@Parameter(description = "Id of TravelAgent to be deleted", required = true) @Schema(minimum = "0") @PathParam("id") Integer id) {
 
-		TABooking tabooking = tabookingService.findById(id)
+		// the booking is removed here and its upstream bookings are deleted in the
+		// background by TASagaCompensator, which retries until every one is gone
+		TABooking tabooking = sagaService.cancel(id)
 				.orElseThrow(() -> new RestServiceException("Bad Request", Response.Status.NOT_FOUND));
 
-		try {
-			// deal with remote application firstly
+		return Response.ok(tabooking).build();
+	}
 
-			taxiService.deleteBooking(tabooking.getTaxibookingId());
+	private static Booking copyOf(Booking booking, Date date) {
+		Booking copy = new Booking();
+		copy.setCustomer(booking.getCustomer());
+		copy.setFlight(booking.getFlight());
+		copy.setDate(date);
+		return copy;
+	}
 
-			hotelService.deleteBooking(tabooking.getHotelbookingId());
+	// records the upstream booking in the saga as soon as it is made, on a worker
+	// thread as the saga log is written with a blocking transaction. If it can't be
+	// recorded nothing would ever compensate it, so it is deleted straight away
+	private Uni<Booking> record(Long sagaId, TASagaEntity.Step step, Uni<Booking> call) {
+		return call.emitOn(Infrastructure.getDefaultWorkerPool()).invoke(booking -> {
+			try {
+				sagaService.recordBooking(sagaId, step, booking.getId());
+			} catch (RuntimeException e) {
+				try {
+					sagaCompensator.delete(step, booking.getId());
+				} catch (RuntimeException undo) {
+					log.severe("TABookingRestService.record() - " + step + " booking " + booking.getId()
+							+ " of saga " + sagaId + " could not be recorded nor deleted: " + undo);
+					e.addSuppressed(undo);
+				}
+				throw e;
+			}
+		});
+	}
 
-			// locally delete flight record
+	// the outcome of an upstream call, a failure is held rather than propagated so
+	// that the calls which did succeed can still be compensated
+	private static final class Settled<T> {
+		final T item;
+		final Throwable failure;
 
-			flightService.deleteBooking(tabooking.getFlightbooking().getId());
-		} catch (Exception e) {
-			// instead of manually recover the data for each application, we just throw an
-			// exception to log this failure for simplify
+		private Settled(T item, Throwable failure) {
+			this.item = item;
+			this.failure = failure;
+		}
 
-			throw new RestServiceException("We failed to do delete opration, database is inconsistent now",
-					Response.Status.INTERNAL_SERVER_ERROR, e);
+		static <T> Uni<Settled<T>> of(Uni<T> call) {
+			return call.onItemOrFailure().transform(Settled::new);
 		}
 
-		return Response.ok(tabooking).build();
+		Exception exception() {
+			return failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+		}
 	}
 }
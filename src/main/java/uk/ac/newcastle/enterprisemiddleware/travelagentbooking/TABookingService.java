@@ -10,6 +10,9 @@ import javax.transaction.Transactional;
 
 import org.hibernate.service.spi.ServiceException;
 
+import uk.ac.newcastle.enterprisemiddleware.util.Cursor;
+import uk.ac.newcastle.enterprisemiddleware.util.Page;
+
 /**
  * This Service assumes the Control responsibility in the ECB pattern.
  *
@@ -42,6 +45,22 @@ public class TABookingService {
 		return tabookingMapper.toDomainList(tabookingRepository.findAll());
 	}
 
+	// keyset pagination on the id, the cursor holds the id of the last travel agent
+	// booking of the previous page
+	public Page<TABooking> findPage(String after, int limit) {
+		Cursor cursor = Cursor.decode(after, 1);
+		return Page.of(tabookingRepository.findPage(cursor, limit + 1), limit,
+				t -> Cursor.of(t.getId()), tabookingMapper::toDomainList);
+	}
+
+	public long count() {
+		return tabookingRepository.count();
+	}
+
+	public List<TABooking> findByCustomer(Integer customerId) {
+		return tabookingMapper.toDomainList(tabookingRepository.findByCustomer(customerId));
+	}
+
 	public Optional<TABooking> findById(Integer id) {
 		return tabookingRepository.findById(id).map(tabookingMapper::toDomain);
 	}
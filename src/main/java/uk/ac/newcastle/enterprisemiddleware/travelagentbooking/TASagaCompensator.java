@@ -0,0 +1,88 @@
+package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
+
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import io.quarkus.scheduler.Scheduled;
+import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TASagaEntity.Step;
+
+/**
+ * Deletes the upstream bookings of failed or cancelled travel agent bookings.
+ * 
+ * Runs in the background so the request thread returns as soon as the saga is
+ * recorded. Each deleted booking is recorded straight away, a saga that fails is
+ * retried after a growing delay, including after a restart, until
+ * TASagaService gives it up.
+ */
+@ApplicationScoped
+public class TASagaCompensator {
+
+	private static final int BATCH = 50;
+
+	@Inject
+	Logger log;
+
+	@Inject
+	TASagaService sagaService;
+
+	@Inject
+	@RestClient
+	FlightService flightService;
+
+	@Inject
+	@RestClient
+	TaxiService taxiService;
+
+	@Inject
+	@RestClient
+	HotelService hotelService;
+
+	@Scheduled(every = "${app.saga.compensation-interval:10s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+	void compensate() {
+		for (TASagaEntity saga : sagaService.findToCompensate(BATCH)) {
+			try {
+				undo(saga, Step.FLIGHT);
+				undo(saga, Step.TAXI);
+				undo(saga, Step.HOTEL);
+			} catch (RuntimeException e) {
+				log.warning("TASagaCompensator.compensate() - Saga " + saga.getId() + " attempt "
+						+ (saga.getAttempts() + 1) + " failed, will retry: " + e);
+				sagaService.recordFailure(saga.getId(), e.toString());
+			}
+		}
+	}
+
+	private void undo(TASagaEntity saga, Step step) {
+		Integer bookingId = saga.getBookingId(step);
+		if (bookingId == null)
+			return;
+		delete(step, bookingId);
+		sagaService.undone(saga.getId(), step);
+	}
+
+	/**
+	 * Deletes one upstream booking. A booking that is already gone, e.g. deleted by
+	 * an earlier run that failed to record it, counts as deleted.
+	 *
+	 * @param step      The service the booking was made with
+	 * @param bookingId The upstream id of the booking
+	 * @throws RuntimeException If the booking could not be deleted
+	 */
+	void delete(Step step, Integer bookingId) {
+		Consumer<Integer> delete = step == Step.FLIGHT ? flightService::deleteBooking
+				: step == Step.TAXI ? taxiService::deleteBooking : hotelService::deleteBooking;
+		try {
+			delete.accept(bookingId);
+		} catch (WebApplicationException e) {
+			// the rest client reports a 404 as a plain WebApplicationException
+			if (e.getResponse() == null || e.getResponse().getStatus() != 404)
+				throw e;
+		}
+	}
+}
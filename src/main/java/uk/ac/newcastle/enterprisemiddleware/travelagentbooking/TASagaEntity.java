@@ -0,0 +1,158 @@
+package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Version;
+
+/**
+ * Durable state of one travel agent booking saga.
+ * 
+ * A saga is recorded before the first upstream call and every upstream booking
+ * id is written as soon as it is known, so if the request fails or the process
+ * dies the bookings to undo can still be found. Compensation is done by
+ * TASagaCompensator in the background, a saga whose compensation keeps failing
+ * is retried with a growing delay and finally parked as FAILED.
+ */
+@Entity
+@Table(name = "tasaga", indexes = @Index(name = "idx_tasaga_status", columnList = "status, updated"))
+@NamedQueries({
+		@NamedQuery(name = "TASaga.findByStatus", query = "SELECT s FROM TASagaEntity s WHERE s.status = :status ORDER BY s.id ASC"),
+		@NamedQuery(name = "TASaga.findDue", query = "SELECT s FROM TASagaEntity s WHERE s.status = :status AND (s.retryat IS NULL OR s.retryat <= :now) ORDER BY s.id ASC"),
+		@NamedQuery(name = "TASaga.findStale", query = "SELECT s FROM TASagaEntity s WHERE s.status = :status AND s.updated < :before ORDER BY s.id ASC") })
+public class TASagaEntity {
+
+	public enum Status {
+		// upstream bookings are being made
+		STARTED,
+		// the travel agent booking has been stored, nothing left to do
+		COMPLETED,
+		// the recorded upstream bookings must be deleted
+		COMPENSATING,
+		// every recorded upstream booking has been deleted
+		COMPENSATED,
+		// compensation gave up after too many attempts, the bookings left must be
+		// deleted by hand
+		FAILED
+	}
+
+	public enum Step {
+		FLIGHT, TAXI, HOTEL
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "TASagaId_seq")
+	@SequenceGenerator(name = "TASagaId_seq", initialValue = 1, allocationSize = 1)
+	private Long id;
+
+	// the compensator works on copies read in an earlier transaction
+	@Version
+	private int version;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "status", nullable = false)
+	private Status status;
+
+	private Integer flightbookingid;
+
+	private Integer taxibookingid;
+
+	private Integer hotelbookingid;
+
+	private int attempts;
+
+	@Column(length = 1000)
+	private String lasterror;
+
+	// a failed compensation is not retried before this time
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date retryat;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "updated", nullable = false)
+	private Date updated;
+
+	public Long getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+		this.updated = new Date();
+	}
+
+	public Integer getBookingId(Step step) {
+		switch (step) {
+		case FLIGHT:
+			return flightbookingid;
+		case TAXI:
+			return taxibookingid;
+		default:
+			return hotelbookingid;
+		}
+	}
+
+	public void setBookingId(Step step, Integer bookingId) {
+		switch (step) {
+		case FLIGHT:
+			flightbookingid = bookingId;
+			break;
+		case TAXI:
+			taxibookingid = bookingId;
+			break;
+		default:
+			hotelbookingid = bookingId;
+		}
+		this.updated = new Date();
+	}
+
+	public boolean hasBookings() {
+		return flightbookingid != null || taxibookingid != null || hotelbookingid != null;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public String getLastError() {
+		return lasterror;
+	}
+
+	public Date getRetryAt() {
+		return retryat;
+	}
+
+	// why the saga has to be compensated, not counted as an attempt
+	public void recordError(String error) {
+		this.lasterror = error == null || error.length() <= 1000 ? error : error.substring(0, 1000);
+		this.updated = new Date();
+	}
+
+	// a compensation attempt that failed, not retried before retryAt
+	public void recordFailure(String error, Date retryAt) {
+		this.attempts++;
+		this.retryat = retryAt;
+		recordError(error);
+	}
+
+	public Date getUpdated() {
+		return updated;
+	}
+}
@@ -0,0 +1,62 @@
+package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
+
+/**
+ * There are no access modifiers on the methods making them 'package' scope.
+ * They should only be accessed by a service object.
+ */
+
+@ApplicationScoped
+@Measured
+public class TASagaRepository {
+
+	@Inject
+	Logger log;
+
+	@Inject
+	EntityManager em;
+
+	// the steps of a saga complete concurrently, the row is locked so that they
+	// update it one after another
+	Optional<TASagaEntity> findByIdForUpdate(Long id) {
+		return Optional.ofNullable(em.find(TASagaEntity.class, id, LockModeType.PESSIMISTIC_WRITE));
+	}
+
+	List<TASagaEntity> findByStatus(TASagaEntity.Status status, int limit) {
+		TypedQuery<TASagaEntity> query = em.createNamedQuery("TASaga.findByStatus", TASagaEntity.class)
+				.setParameter("status", status);
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	List<TASagaEntity> findDue(TASagaEntity.Status status, Date now, int limit) {
+		TypedQuery<TASagaEntity> query = em.createNamedQuery("TASaga.findDue", TASagaEntity.class)
+				.setParameter("status", status)
+				.setParameter("now", now);
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	List<TASagaEntity> findStale(TASagaEntity.Status status, Date before, int limit) {
+		TypedQuery<TASagaEntity> query = em.createNamedQuery("TASaga.findStale", TASagaEntity.class)
+				.setParameter("status", status)
+				.setParameter("before", before);
+		return query.setMaxResults(limit).getResultList();
+	}
+
+	TASagaEntity create(TASagaEntity saga) {
+		log.info("TASagaRepository.create() - Creating saga in status " + saga.getStatus());
+
+		em.persist(saga);
+		return saga;
+	}
+}
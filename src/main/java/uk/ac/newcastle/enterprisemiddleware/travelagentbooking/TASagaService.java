@@ -0,0 +1,152 @@
+package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.service.spi.ServiceException;
+
+import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TASagaEntity.Status;
+import uk.ac.newcastle.enterprisemiddleware.travelagentbooking.TASagaEntity.Step;
+
+/**
+ * Records the progress of travel agent booking sagas.
+ * 
+ * Every method runs in its own transaction so that each step is durable as soon
+ * as it returns. The request thread only records what happened and hands any
+ * clean up over to TASagaCompensator.
+ * 
+ * There are no access modifiers on the methods, making them 'package' scope.
+ * They should only be accessed by the travel agent Boundary and the
+ * compensator.
+ */
+@ApplicationScoped
+public class TASagaService {
+
+	@Inject
+	Logger log;
+
+	@Inject
+	TASagaRepository sagaRepository;
+
+	@Inject
+	TABookingService tabookingService;
+
+	// a saga still STARTED after this long is assumed to belong to a request that
+	// died, its recorded bookings are then compensated
+	@ConfigProperty(name = "app.saga.timeout", defaultValue = "PT5M")
+	Duration timeout;
+
+	// a failed compensation is retried after backoff, doubled after every further
+	// failure up to max-backoff, and given up after max-attempts
+	@ConfigProperty(name = "app.saga.backoff", defaultValue = "PT10S")
+	Duration backoff;
+
+	@ConfigProperty(name = "app.saga.max-backoff", defaultValue = "PT1H")
+	Duration maxBackoff;
+
+	@ConfigProperty(name = "app.saga.max-attempts", defaultValue = "10")
+	int maxAttempts;
+
+	@Transactional
+	Long start() {
+		TASagaEntity saga = new TASagaEntity();
+		saga.setStatus(Status.STARTED);
+		return sagaRepository.create(saga).getId();
+	}
+
+	@Transactional
+	void recordBooking(Long sagaId, Step step, Integer bookingId) {
+		TASagaEntity saga = find(sagaId);
+		saga.setBookingId(step, bookingId);
+		// a booking that arrives after its saga was compensated must be undone too
+		if (saga.getStatus() == Status.COMPENSATED)
+			saga.setStatus(Status.COMPENSATING);
+	}
+
+	// stores the travel agent booking and closes the saga in one transaction, fails
+	// if the compensator already took the saga over
+	@Transactional
+	void complete(Long sagaId, TABooking tabooking) {
+		TASagaEntity saga = find(sagaId);
+		if (saga.getStatus() != Status.STARTED)
+			throw new IllegalStateException("Saga " + sagaId + " timed out and is " + saga.getStatus());
+		tabookingService.create(tabooking);
+		saga.setStatus(Status.COMPLETED);
+	}
+
+	@Transactional
+	void compensate(Long sagaId, String reason) {
+		log.info("TASagaService.compensate() - Compensating saga " + sagaId + ": " + reason);
+
+		TASagaEntity saga = find(sagaId);
+		saga.recordError(reason);
+		saga.setStatus(saga.hasBookings() ? Status.COMPENSATING : Status.COMPENSATED);
+	}
+
+	// removes a travel agent booking and records a saga that deletes its upstream
+	// bookings, so a failing upstream no longer leaves the booking half deleted
+	@Transactional
+	Optional<TABooking> cancel(Integer tabookingId) {
+		Optional<TABooking> tabooking = tabookingService.findById(tabookingId);
+		tabooking.ifPresent(t -> {
+			tabookingService.delete(tabookingId);
+
+			TASagaEntity saga = new TASagaEntity();
+			saga.setBookingId(Step.FLIGHT, t.getFlightbooking().getId());
+			saga.setBookingId(Step.TAXI, t.getTaxibookingId());
+			saga.setBookingId(Step.HOTEL, t.getHotelbookingId());
+			saga.setStatus(Status.COMPENSATING);
+			sagaRepository.create(saga);
+		});
+		return tabooking;
+	}
+
+	// the sagas the compensator should work on now, stale STARTED sagas are taken
+	// over and sagas waiting for their retry are left out
+	@Transactional
+	List<TASagaEntity> findToCompensate(int limit) {
+		long now = System.currentTimeMillis();
+		for (TASagaEntity stale : sagaRepository.findStale(Status.STARTED, new Date(now - timeout.toMillis()), limit)) {
+			log.warning("TASagaService.findToCompensate() - Saga " + stale.getId() + " timed out");
+			stale.setStatus(stale.hasBookings() ? Status.COMPENSATING : Status.COMPENSATED);
+		}
+		return new ArrayList<>(sagaRepository.findDue(Status.COMPENSATING, new Date(now), limit));
+	}
+
+	@Transactional
+	void undone(Long sagaId, Step step) {
+		TASagaEntity saga = find(sagaId);
+		saga.setBookingId(step, null);
+		if (!saga.hasBookings())
+			saga.setStatus(Status.COMPENSATED);
+	}
+
+	// schedules the next attempt of a failed compensation, or parks the saga as
+	// FAILED once it ran out of attempts
+	@Transactional
+	void recordFailure(Long sagaId, String error) {
+		TASagaEntity saga = find(sagaId);
+		int attempts = saga.getAttempts() + 1;
+		long delay = backoff.toMillis() << Math.min(attempts - 1, 30);
+		saga.recordFailure(error, new Date(System.currentTimeMillis() + Math.min(delay, maxBackoff.toMillis())));
+		if (attempts >= maxAttempts) {
+			log.severe("TASagaService.recordFailure() - Saga " + sagaId + " failed " + attempts
+					+ " times and is given up, its upstream bookings must be deleted by hand: " + error);
+			saga.setStatus(Status.FAILED);
+		}
+	}
+
+	private TASagaEntity find(Long sagaId) {
+		return sagaRepository.findByIdForUpdate(sagaId)
+				.orElseThrow(() -> new ServiceException("No saga found for sagaId[%s]" + sagaId));
+	}
+}
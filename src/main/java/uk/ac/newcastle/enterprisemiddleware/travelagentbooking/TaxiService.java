@@ -12,11 +12,15 @@ import javax.ws.rs.core.Response;
 
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
+import io.smallrye.mutiny.Uni;
+
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.util.Measured;
 
 //duplicate with local flight service
 @RegisterRestClient(configKey = "taxiservice-api")
+@Measured(Measured.Kind.UPSTREAM)
 public interface TaxiService {
 
 	@GET
@@ -29,6 +33,16 @@ public interface TaxiService {
 	@Produces({ MediaType.APPLICATION_JSON })
 	Response createCustomer(Customer customer);
 
+	@GET
+	@Path("/customers/email/{email:.+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Response> getByEmailAsync(@PathParam("email") String email);
+
+	@POST
+	@Path("/customers")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Response> createCustomerAsync(Customer customer);
+
 	@GET
 	@Path("/flights")
 	@Produces({ MediaType.APPLICATION_JSON })
@@ -54,4 +68,21 @@ public interface TaxiService {
 	@Produces({ MediaType.APPLICATION_JSON })
 	Booking deleteBooking(@PathParam("id") Integer id);
 
+	// non-blocking variants, used to call the upstream services concurrently
+
+	@GET
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> getBookingByIdAsync(@PathParam("id") Integer id);
+
+	@POST
+	@Path("/bookings")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> createBookingAsync(Booking booking);
+
+	@DELETE
+	@Path("/bookings/{id:[0-9]+}")
+	@Produces({ MediaType.APPLICATION_JSON })
+	Uni<Booking> deleteBookingAsync(@PathParam("id") Integer id);
+
 }
@@ -0,0 +1,91 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Defers work on in-memory state until the current transaction has finished.</p>
+ *
+ * <p>Caches and snapshots of database rows must not change before the rows themselves are committed, otherwise a
+ * concurrent reader could load and keep the old value in between, or see a change that is then rolled back. Without
+ * an active transaction the action is run straight away.</p>
+ */
+@ApplicationScoped
+public class AfterCompletion {
+
+    @Inject
+    TransactionSynchronizationRegistry registry;
+
+    /**
+     * <p>Runs the action once the current transaction has committed. It is dropped if the transaction rolls
+     * back.</p>
+     *
+     * @param action The work to run, it must not throw
+     */
+    public void onCommit(Runnable action) {
+        register(action, true);
+    }
+
+    /**
+     * <p>Runs the action once the current transaction has finished, whether it committed or rolled back.</p>
+     *
+     * @param action The work to run, it must not throw
+     */
+    public void always(Runnable action) {
+        register(action, false);
+    }
+
+    /**
+     * <p>Gathers work into one value per transaction, which is handed to the action once the transaction has
+     * committed. The first call of a transaction creates the value and registers the action, later calls with the
+     * same key only add to it. Without an active transaction the value holds a single addition and is acted on
+     * straight away.</p>
+     *
+     * @param key Tells apart the values of different users in the same transaction
+     * @param create Creates the value, the first time in a transaction
+     * @param add Adds to the value
+     * @param action The work to run with the value, it must not throw
+     */
+    public <T> void collect(Object key, Supplier<T> create, Consumer<T> add, Consumer<T> action) {
+        if (registry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            T value = create.get();
+            add.accept(value);
+            action.accept(value);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) registry.getResource(key);
+        if (value == null) {
+            T created = create.get();
+            registry.putResource(key, created);
+            register(() -> action.accept(created), true);
+            value = created;
+        }
+        add.accept(value);
+    }
+
+    private void register(Runnable action, boolean commitOnly) {
+        if (registry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            action.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (!commitOnly || status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+}
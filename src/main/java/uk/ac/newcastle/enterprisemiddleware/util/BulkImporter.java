@@ -0,0 +1,146 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.ValidationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Imports a stream of newline delimited JSON objects, one resource per line.</p>
+ *
+ * <p>The upload is read line by line and written in chunks, each chunk in its own transaction, so neither the
+ * request nor the persistence context grows with the size of the upload. Together with the pooled id sequences and
+ * <code>quarkus.hibernate-orm.jdbc.statement-batch-size</code> this turns a chunk into a handful of batched INSERT
+ * statements instead of one round trip per row.</p>
+ *
+ * <p>A chunk the database rejects is rolled back and replayed row by row, so one bad row costs its chunk the batching
+ * but never fails the rows around it. The outcome of every line is streamed back as one {@link BulkResult} per
+ * line.</p>
+ */
+@ApplicationScoped
+public class BulkImporter {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    @Inject
+    Logger log;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "app.bulk-import.chunk-size", defaultValue = "500")
+    int chunkSize;
+
+    /**
+     * <p>Creates the body of an import response. Nothing is read until the response is written.</p>
+     *
+     * @param body The NDJSON upload
+     * @param type The domain type of each line
+     * @param writer The Service writing the rows
+     * @return The streamed NDJSON results
+     */
+    public <T> StreamingOutput importLines(InputStream body, Class<T> type, BulkWriter<T> writer) {
+        return output -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            List<T> items = new ArrayList<>(chunkSize);
+            List<Integer> lines = new ArrayList<>(chunkSize);
+            String text;
+            int line = 0;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                T item;
+                try {
+                    item = objectMapper.readValue(text, type);
+                    if (item == null) {
+                        throw new IllegalArgumentException("Empty line");
+                    }
+                    writer.prepareImport(item);
+                } catch (JsonProcessingException e) {
+                    write(output, BulkResult.failed(line, Response.Status.BAD_REQUEST, "Malformed JSON", null));
+                    continue;
+                } catch (RuntimeException e) {
+                    write(output, failure(line, e, writer));
+                    continue;
+                }
+                items.add(item);
+                lines.add(line);
+                if (items.size() == chunkSize) {
+                    writeChunk(items, lines, writer, output);
+                    items.clear();
+                    lines.clear();
+                }
+            }
+            if (!items.isEmpty()) {
+                writeChunk(items, lines, writer, output);
+            }
+        };
+    }
+
+    private <T> void writeChunk(List<T> items, List<Integer> lines, BulkWriter<T> writer, OutputStream output)
+            throws IOException {
+        try {
+            writer.createAll(items);
+            for (int i = 0; i < items.size(); i++) {
+                write(output, BulkResult.created(lines.get(i), writer.idOf(items.get(i))));
+            }
+        } catch (RuntimeException chunkFailure) {
+            log.fine("BulkImporter - chunk of " + items.size() + " rows rejected, retrying row by row: " + chunkFailure);
+            for (int i = 0; i < items.size(); i++) {
+                T item = items.get(i);
+                try {
+                    writer.create(item);
+                    write(output, BulkResult.created(lines.get(i), writer.idOf(item)));
+                } catch (RuntimeException e) {
+                    write(output, failure(lines.get(i), e, writer));
+                }
+            }
+        }
+        output.flush();
+    }
+
+    private BulkResult failure(int line, RuntimeException e, BulkWriter<?> writer) {
+        if (e instanceof ConstraintViolationException) {
+            Map<String, String> reasons = new HashMap<>();
+            for (ConstraintViolation<?> violation : ((ConstraintViolationException) e).getConstraintViolations()) {
+                reasons.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            return BulkResult.failed(line, Response.Status.BAD_REQUEST, "Bad Request", reasons);
+        }
+        if (writer.isConflict(e)) {
+            return BulkResult.failed(line, Response.Status.CONFLICT, e.getMessage(), null);
+        }
+        if (e instanceof ValidationException || e instanceof IllegalArgumentException) {
+            return BulkResult.failed(line, Response.Status.BAD_REQUEST, e.getMessage(), null);
+        }
+        log.log(Level.WARNING, "BulkImporter - line " + line + " failed", e);
+        return BulkResult.failed(line, Response.Status.INTERNAL_SERVER_ERROR,
+                "An unexpected error occurred whilst processing the request", null);
+    }
+
+    private void write(OutputStream output, BulkResult result) throws IOException {
+        output.write(objectMapper.writeValueAsBytes(result));
+        output.write('\n');
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+/**
+ * <p>The outcome of one line of a bulk NDJSON import, written back to the client as one line of NDJSON.</p>
+ *
+ * <p>The status uses the code the single-row endpoint would have answered with, so clients can handle both the same
+ * way.</p>
+ */
+@RegisterForReflection
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkResult {
+    private final int line;
+    private final int status;
+    private final Integer id;
+    private final String error;
+    private final Map<String, String> reasons;
+
+    private BulkResult(int line, int status, Integer id, String error, Map<String, String> reasons) {
+        this.line = line;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+        this.reasons = reasons;
+    }
+
+    public static BulkResult created(int line, Integer id) {
+        return new BulkResult(line, Response.Status.CREATED.getStatusCode(), id, null, null);
+    }
+
+    public static BulkResult failed(int line, Response.Status status, String error, Map<String, String> reasons) {
+        return new BulkResult(line, status.getStatusCode(), null, error, reasons == null || reasons.isEmpty() ? null : reasons);
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Map<String, String> getReasons() {
+        return reasons;
+    }
+}
@@ -0,0 +1,50 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.util.List;
+
+/**
+ * <p>The write side of a bulk NDJSON import, implemented by the Service of each importable resource.</p>
+ *
+ * <p>{@link BulkImporter} first tries to write a whole chunk of rows with {@link #createAll(List)} in one
+ * transaction so that Hibernate can batch the INSERT statements. If the chunk is rejected, it falls back to
+ * {@link #create(Object)} row by row to find out which rows are at fault.</p>
+ *
+ * @param <T> The domain type being imported
+ */
+public interface BulkWriter<T> {
+
+    /**
+     * <p>Prepares a row read from the upload: clears the fields a client must not set, such as the id, and runs the
+     * validation that does not need the database.</p>
+     *
+     * @param item The row to prepare
+     * @throws RuntimeException If the row is invalid
+     */
+    void prepareImport(T item);
+
+    /**
+     * <p>Writes every row of a chunk in a single transaction.</p>
+     *
+     * @param items The prepared rows
+     */
+    void createAll(List<T> items);
+
+    /**
+     * <p>Writes a single row in its own transaction.</p>
+     *
+     * @param item The prepared row
+     */
+    void create(T item);
+
+    /**
+     * @param item A row that has been written
+     * @return The id it was given
+     */
+    Integer idOf(T item);
+
+    /**
+     * @param e An exception raised while writing a row
+     * @return true if the row conflicts with an existing one, reported as 409
+     */
+    boolean isConflict(RuntimeException e);
+}
@@ -0,0 +1,41 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import org.hibernate.Cache;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+
+/**
+ * <p>Evicts second-level cache entries of the inverse side of an association.</p>
+ *
+ * <p>Hibernate only keeps a collection cache entry up to date when the collection itself is changed. Adding or
+ * removing a row on the owning side, for example a booking created from a reference to its customer, leaves the
+ * cached <code>mappedBy</code> collection stale. Repositories that write the owning side call this instead.</p>
+ *
+ * <p>The entry is evicted straight away, for reads later in the same transaction, and again once the transaction is
+ * over, so that a concurrent reader cannot cache the collection as it was before the commit.</p>
+ */
+@ApplicationScoped
+public class CollectionCacheEvictor {
+
+    @Inject
+    EntityManagerFactory emf;
+
+    @Inject
+    AfterCompletion afterCompletion;
+
+    /**
+     * @param role The collection role, the owning entity class name followed by the property name
+     * @param ownerId The id of the entity owning the collection, or null to evict the collection of every owner
+     */
+    public void evict(String role, Object ownerId) {
+        Cache cache = emf.getCache().unwrap(Cache.class);
+        Runnable eviction = ownerId == null
+                ? () -> cache.evictCollectionData(role)
+                : () -> cache.evictCollectionData(role, (Serializable) ownerId);
+        eviction.run();
+        afterCompletion.always(eviction);
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * <p>An opaque keyset pagination cursor.</p>
+ *
+ * <p>A cursor holds the sort key values of the last row of a page, in the same order as the ORDER BY clause of the
+ * query that produced it. Clients only ever see the encoded form and hand it back unchanged as <code>?after=</code>,
+ * so the sort keys can change without breaking the public API.</p>
+ */
+public final class Cursor {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final String SEPARATOR = ".";
+
+    private final String[] keys;
+
+    private Cursor(String[] keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * <p>Builds a cursor from the sort key values of a row. Dates are stored as epoch milliseconds.</p>
+     *
+     * @param keys The sort key values, in ORDER BY order
+     * @return A new Cursor
+     */
+    public static Cursor of(Object... keys) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Object key = keys[i];
+            values[i] = key instanceof Date ? Long.toString(((Date) key).getTime()) : String.valueOf(key);
+        }
+        return new Cursor(values);
+    }
+
+    /**
+     * <p>Decodes a cursor previously produced by {@link #encode()}.</p>
+     *
+     * @param token The encoded cursor, may be null
+     * @param size The number of sort keys the caller expects
+     * @return The decoded Cursor, or null if no token was supplied
+     * @throws IllegalArgumentException If the token is malformed
+     */
+    public static Cursor decode(String token, int size) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        String[] parts = token.split("\\" + SEPARATOR, -1);
+        if (parts.length != size) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = new String(DECODER.decode(parts[i]), StandardCharsets.UTF_8);
+        }
+        return new Cursor(values);
+    }
+
+    public String encode() {
+        String[] parts = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            parts[i] = ENCODER.encodeToString(keys[i].getBytes(StandardCharsets.UTF_8));
+        }
+        return String.join(SEPARATOR, parts);
+    }
+
+    public String getString(int index) {
+        return keys[index];
+    }
+
+    public Long getLong(int index) {
+        try {
+            return Long.valueOf(keys[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    public Date getDate(int index) {
+        return new Date(getLong(index));
+    }
+
+    @Override
+    public String toString() {
+        return "Cursor" + Arrays.toString(keys);
+    }
+}
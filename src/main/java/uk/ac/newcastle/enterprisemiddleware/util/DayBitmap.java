@@ -0,0 +1,157 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>An immutable set of days, as epoch days counted in UTC, stored as a sparse bitmap.</p>
+ *
+ * <p>Days are grouped into words of 64 consecutive days and only the words holding at least one day are kept, sorted,
+ * next to the index of each word. A year of days therefore costs at most six words whatever the date, and looking a
+ * day up is a binary search over the words followed by a bit test.</p>
+ *
+ * <p>Changes return a new bitmap, so a bitmap can be shared with any number of readers without locking.</p>
+ */
+public final class DayBitmap {
+
+    public static final DayBitmap EMPTY = new DayBitmap(new long[0], new long[0]);
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final long[] indexes;
+    private final long[] words;
+
+    private DayBitmap(long[] indexes, long[] words) {
+        this.indexes = indexes;
+        this.words = words;
+    }
+
+    /**
+     * <p>Returns the UTC epoch day the instant falls on.</p>
+     *
+     * @param date The instant
+     * @return The number of days since 1970-01-01
+     */
+    public static long epochDay(Date date) {
+        return Math.floorDiv(date.getTime(), MILLIS_PER_DAY);
+    }
+
+    /**
+     * <p>Returns the start of a UTC epoch day.</p>
+     *
+     * @param day The number of days since 1970-01-01
+     * @return Midnight UTC of the day
+     */
+    public static Date startOf(long day) {
+        return new Date(day * MILLIS_PER_DAY);
+    }
+
+    /**
+     * <p>Builds a bitmap in one go, cheaper than adding the days one at a time.</p>
+     *
+     * @param days The days, in any order and possibly repeated
+     * @return The bitmap
+     */
+    public static DayBitmap of(long... days) {
+        long[] sorted = days.clone();
+        Arrays.sort(sorted);
+        long[] indexes = new long[sorted.length];
+        long[] words = new long[sorted.length];
+        int size = 0;
+        for (long day : sorted) {
+            long index = day >> 6;
+            if (size == 0 || indexes[size - 1] != index) {
+                indexes[size++] = index;
+            }
+            words[size - 1] |= 1L << (day & 63);
+        }
+        return new DayBitmap(Arrays.copyOf(indexes, size), Arrays.copyOf(words, size));
+    }
+
+    public boolean contains(long day) {
+        int at = Arrays.binarySearch(indexes, day >> 6);
+        return at >= 0 && (words[at] & (1L << (day & 63))) != 0;
+    }
+
+    public boolean isEmpty() {
+        return indexes.length == 0;
+    }
+
+    /**
+     * @param day The day to add
+     * @return A bitmap holding the day as well, or this one if it already does
+     */
+    public DayBitmap with(long day) {
+        long index = day >> 6;
+        long bit = 1L << (day & 63);
+        int at = Arrays.binarySearch(indexes, index);
+        if (at >= 0) {
+            if ((words[at] & bit) != 0) {
+                return this;
+            }
+            long[] changed = words.clone();
+            changed[at] |= bit;
+            return new DayBitmap(indexes, changed);
+        }
+        int insert = -at - 1;
+        return new DayBitmap(insert(indexes, insert, index), insert(words, insert, bit));
+    }
+
+    /**
+     * @param day The day to remove
+     * @return A bitmap without the day, or this one if it does not hold it
+     */
+    public DayBitmap without(long day) {
+        long bit = 1L << (day & 63);
+        int at = Arrays.binarySearch(indexes, day >> 6);
+        if (at < 0 || (words[at] & bit) == 0) {
+            return this;
+        }
+        if (words[at] == bit) {
+            return new DayBitmap(remove(indexes, at), remove(words, at));
+        }
+        long[] changed = words.clone();
+        changed[at] &= ~bit;
+        return new DayBitmap(indexes, changed);
+    }
+
+    /**
+     * <p>Hands every day of the bitmap within a range to the action, in order.</p>
+     *
+     * @param from The first day of the range
+     * @param to The last day of the range, inclusive
+     * @param action Receives the days
+     */
+    public void forEach(long from, long to, LongConsumer action) {
+        int at = Arrays.binarySearch(indexes, from >> 6);
+        for (int i = at >= 0 ? at : -at - 1; i < indexes.length && indexes[i] <= to >> 6; i++) {
+            long word = words[i];
+            while (word != 0) {
+                long day = (indexes[i] << 6) + Long.numberOfTrailingZeros(word);
+                if (day > to) {
+                    return;
+                }
+                if (day >= from) {
+                    action.accept(day);
+                }
+                word &= word - 1;
+            }
+        }
+    }
+
+    private static long[] insert(long[] array, int at, long value) {
+        long[] result = new long[array.length + 1];
+        System.arraycopy(array, 0, result, 0, at);
+        result[at] = value;
+        System.arraycopy(array, at, result, at + 1, array.length - at);
+        return result;
+    }
+
+    private static long[] remove(long[] array, int at) {
+        long[] result = new long[array.length - 1];
+        System.arraycopy(array, 0, result, 0, at);
+        System.arraycopy(array, at + 1, result, at, array.length - at - 1);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Helpers for conditional GET requests.</p>
+ *
+ * <p>A single resource is tagged with its id and the <code>@Version</code> of its entity; a collection with the
+ * version of its table, see {@link TableVersions}. When the client already holds the current representation, as
+ * told by <code>If-None-Match</code>, a 304 is returned without a body so nothing needs to be serialised.</p>
+ *
+ * <p>Writes go the other way: the version named by <code>If-Match</code> becomes the condition of the
+ * <code>UPDATE</code> itself, so checking it costs no read.</p>
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * @param id The id of the entity
+     * @param version The version of the entity
+     * @return A strong ETag for the representation of this version of the entity
+     */
+    public static EntityTag of(Object id, Long version) {
+        return new EntityTag(id + "." + version);
+    }
+
+    /**
+     * <p>Checks the preconditions of the request against the current tag of the resource.</p>
+     *
+     * <p>Call this before loading a collection so that a 304 costs no query at all.</p>
+     *
+     * @param request The current request
+     * @param tag The current ETag of the resource
+     * @return A 304 response carrying the tag, or null if the representation must be sent
+     */
+    public static Response notModified(Request request, EntityTag tag) {
+        Response.ResponseBuilder builder = request.evaluatePreconditions(tag);
+        return builder == null ? null : builder.tag(tag).build();
+    }
+
+    /**
+     * <p>Answers a GET for a single resource with either a 304 or a 200 carrying the entity, both tagged.</p>
+     *
+     * @param request The current request
+     * @param tag The current ETag of the resource
+     * @param entity The representation to send if the client's copy is stale
+     * @return A ResponseBuilder that may be further customised
+     */
+    public static Response.ResponseBuilder ok(Request request, EntityTag tag, Object entity) {
+        Response.ResponseBuilder builder = request.evaluatePreconditions(tag);
+        return (builder == null ? Response.ok(entity) : builder).tag(tag);
+    }
+
+    /**
+     * <p>Reads the version a conditional write expects from its <code>If-Match</code> header.</p>
+     *
+     * <p>Only a single strong tag as returned by {@link #of(Object, Long)} can name a version. Anything else cannot
+     * match the current representation and fails the precondition.</p>
+     *
+     * @param headers The headers of the current request
+     * @param id The id of the entity being written
+     * @return The expected version, or null if the request is unconditional or sent <code>If-Match: *</code>
+     * @throws RestServiceException With status 412 if the header names no version of this entity
+     */
+    public static Long ifMatch(HttpHeaders headers, Object id) {
+        String value = headers.getHeaderString(HttpHeaders.IF_MATCH);
+        if (value == null || value.trim().equals("*")) {
+            return null;
+        }
+        String tag = value.trim();
+        String prefix = "\"" + id + ".";
+        if (tag.startsWith(prefix) && tag.endsWith("\"") && tag.length() > prefix.length() + 1) {
+            try {
+                return Long.valueOf(tag.substring(prefix.length(), tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // not one of our tags, fails below
+            }
+        }
+        throw new RestServiceException("If-Match does not name a version of this resource",
+                Response.Status.PRECONDITION_FAILED);
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.h2.tools.Server;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * <p>Optionally exposes the in-memory H2 database over TCP so it can be inspected with a remote tool such as
+ * DBeaver.</p>
+ *
+ * <p>The application itself always uses the in-process <code>jdbc:h2:mem:</code> URL. Going through a loopback
+ * socket would serialise every statement over TCP into the same JVM, so the server is off unless
+ * <code>app.h2.tcp-server.enabled=true</code>. Once started, the database is reachable at
+ * <code>jdbc:h2:tcp://localhost:&lt;port&gt;/mem:quarkus</code>.</p>
+ */
+@ApplicationScoped
+public class H2TcpServer {
+
+    @Inject
+    Logger log;
+
+    @ConfigProperty(name = "app.h2.tcp-server.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.h2.tcp-server.port", defaultValue = "9092")
+    int port;
+
+    private Server server;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-tcpAllowOthers", "-ifNotExists").start();
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not start H2 server", e);
+        }
+        log.info("H2TcpServer - listening on " + server.getURL());
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Records the latency and outcome of every call to the annotated bean in Micrometer.</p>
+ *
+ * <p>Put it on a Repository class to time its queries and count the rows they return, or on a REST client interface
+ * to time the calls made to that upstream service and count its errors. See {@link MeasuredInterceptor} for the
+ * meters that are recorded.</p>
+ */
+@InterceptorBinding
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Measured {
+
+    @Nonbinding
+    Kind value() default Kind.REPOSITORY;
+
+    enum Kind {
+        /** A Repository, meters are named <code>repository.*</code> and tagged with the repository class. */
+        REPOSITORY,
+        /** A REST client, meters are named <code>upstream.*</code> and tagged with the client interface. */
+        UPSTREAM
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import javax.persistence.Entity;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * <p>Implements {@link Measured}.</p>
+ *
+ * <p>Every call is recorded in a timer named <code>repository.calls</code> or <code>upstream.calls</code>, tagged
+ * with the class, the method and whether it succeeded. Repository methods returning entities also record how many
+ * they returned in <code>repository.rows</code>; upstream clients count failures by exception type in <code>upstream.errors</code>.
+ * Methods returning a {@link Uni} are timed from subscription until the item or failure arrives.</p>
+ */
+@Measured
+@Interceptor
+@Priority(Interceptor.Priority.LIBRARY_BEFORE)
+public class MeasuredInterceptor {
+
+    @Inject
+    MeterRegistry registry;
+
+    @AroundInvoke
+    Object measure(InvocationContext context) throws Exception {
+        Method method = context.getMethod();
+        Measured.Kind kind = kindOf(method);
+        Object result;
+        if (Uni.class.isAssignableFrom(method.getReturnType())) {
+            Uni<?> uni = (Uni<?>) context.proceed();
+            return Uni.createFrom().deferred(() -> {
+                Timer.Sample sample = Timer.start(registry);
+                return uni.onItemOrFailure().invoke((item, failure) -> record(kind, method, sample, item, failure));
+            });
+        }
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            result = context.proceed();
+        } catch (Exception | Error e) {
+            record(kind, method, sample, null, e);
+            throw e;
+        }
+        record(kind, method, sample, result, null);
+        return result;
+    }
+
+    private void record(Measured.Kind kind, Method method, Timer.Sample sample, Object result, Throwable failure) {
+        String prefix = kind == Measured.Kind.UPSTREAM ? "upstream" : "repository";
+        String owner = ownerOf(method.getDeclaringClass()).getSimpleName();
+        sample.stop(Timer.builder(prefix + ".calls")
+                .tag(prefix, owner)
+                .tag("method", method.getName())
+                .tag("outcome", failure == null ? "success" : "failure")
+                .register(registry));
+        if (failure != null) {
+            if (kind == Measured.Kind.UPSTREAM) {
+                Counter.builder("upstream.errors")
+                        .tag("upstream", owner)
+                        .tag("method", method.getName())
+                        .tag("exception", failure.getClass().getSimpleName())
+                        .register(registry)
+                        .increment();
+            }
+            return;
+        }
+        if (kind == Measured.Kind.REPOSITORY && returnsRows(method)) {
+            DistributionSummary.builder("repository.rows")
+                    .tag("repository", owner)
+                    .tag("method", method.getName())
+                    .register(registry)
+                    .record(rows(result));
+        }
+    }
+
+    private static Measured.Kind kindOf(Method method) {
+        Measured measured = method.getAnnotation(Measured.class);
+        if (measured == null) {
+            measured = ownerOf(method.getDeclaringClass()).getAnnotation(Measured.class);
+        }
+        return measured == null ? Measured.Kind.REPOSITORY : measured.value();
+    }
+
+    /**
+     * <p>REST clients are invoked through a generated wrapper that copies the annotations of the interface, so the
+     * interface itself is looked up to name the upstream.</p>
+     */
+    private static Class<?> ownerOf(Class<?> type) {
+        for (Class<?> iface : type.getInterfaces()) {
+            if (iface.isAnnotationPresent(Measured.class)) {
+                return iface;
+            }
+        }
+        return type;
+    }
+
+    private static boolean returnsRows(Method method) {
+        Class<?> type = method.getReturnType();
+        return Collection.class.isAssignableFrom(type) || type == Optional.class || type.isAnnotationPresent(Entity.class);
+    }
+
+    private static int rows(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Optional) {
+            return ((Optional<?>) result).isPresent() ? 1 : 0;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,125 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>A JSON Merge Patch, as defined by RFC 7386.</p>
+ *
+ * <p>The patch is a JSON object holding only the fields to change: a field set to null is removed, a nested object is
+ * merged into the current one and any other value replaces the current one. It is applied to the JSON form of a
+ * resource, so the field names are those of the representation rather than of the entity behind it.</p>
+ */
+public final class MergePatch {
+
+    public static final String MEDIA_TYPE = "application/merge-patch+json";
+
+    private final ObjectNode patch;
+
+    private MergePatch(ObjectNode patch) {
+        this.patch = patch;
+    }
+
+    /**
+     * <p>Wraps the body of a PATCH request.</p>
+     *
+     * @param patch The parsed body
+     * @return The patch
+     * @throws IllegalArgumentException If the body is not a JSON object
+     */
+    public static MergePatch of(JsonNode patch) {
+        if (patch == null || !patch.isObject()) {
+            throw new IllegalArgumentException("A merge patch must be a JSON object");
+        }
+        return new MergePatch((ObjectNode) patch);
+    }
+
+    /**
+     * <p>Applies the patch to a copy of the target, which is left as it is.</p>
+     *
+     * @param mapper Converts the target to and from JSON
+     * @param target The current value
+     * @return The patched copy together with the fields it changed
+     * @throws IllegalArgumentException If the patched JSON does not make a valid value, such as a field of the wrong
+     *                                  type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Patched<T> apply(ObjectMapper mapper, T target) {
+        JsonNode before = mapper.valueToTree(target);
+        T value;
+        JsonNode after;
+        try {
+            value = (T) mapper.treeToValue(merge(before.deepCopy(), patch), target.getClass());
+            // compared once read back, so unknown fields and values equal to the current ones change nothing
+            after = mapper.valueToTree(value);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("The merge patch does not fit a " + target.getClass().getSimpleName(), e);
+        }
+        Set<String> changed = new LinkedHashSet<>();
+        for (Iterator<String> names = patch.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            if (!Objects.equals(before.get(name), after.get(name))) {
+                changed.add(name);
+            }
+        }
+        return new Patched<>(value, changed);
+    }
+
+    private static JsonNode merge(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = target != null && target.isObject()
+                ? (ObjectNode) target : JsonNodeFactory.instance.objectNode();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = patch.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                result.set(field.getKey(), merge(result.get(field.getKey()), field.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>The result of applying a patch.</p>
+     */
+    public static final class Patched<T> {
+
+        private final T value;
+        private final Set<String> changed;
+
+        private Patched(T value, Set<String> changed) {
+            this.value = value;
+            this.changed = Collections.unmodifiableSet(changed);
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * <p>Returns the top level fields whose value differs from the target, by their JSON names.</p>
+         *
+         * @return The changed fields
+         */
+        public Set<String> getChanged() {
+            return changed;
+        }
+
+        public boolean changed(String field) {
+            return changed.contains(field);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+
+/**
+ * <p>Publishes latency histograms for the endpoint, repository and upstream timers.</p>
+ *
+ * <p>Timers only export a count, a sum and a maximum by default. With histogram buckets Prometheus can compute any
+ * percentile across instances, which is what we need to spot regressions and size deployments. Row counts get a
+ * few fixed buckets instead, the default ones are meant for latencies.</p>
+ */
+@Singleton
+public class MetricsConfiguration {
+
+    /** A handful of decades is enough to tell single row lookups from page and unbounded list queries. */
+    private static final double[] ROW_BUCKETS = {1, 10, 100, 1000, 10000};
+
+    @Produces
+    @Singleton
+    public MeterFilter latencyHistograms() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                String name = id.getName();
+                if (name.equals("repository.rows")) {
+                    return DistributionStatisticConfig.builder()
+                            .serviceLevelObjectives(ROW_BUCKETS)
+                            .build()
+                            .merge(config);
+                }
+                if (name.equals("http.server.requests") || name.startsWith("repository.")
+                        || name.startsWith("upstream.")) {
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .build()
+                            .merge(config);
+                }
+                return config;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>Collects single key lookups made concurrently by different requests and resolves them together with one bulk
+ * load, in the manner of a DataLoader.</p>
+ *
+ * <p>The first lookup to arrive opens a batch and becomes its leader. Lookups arriving while the batch is open join
+ * it, and the batch closes once the window has passed or it holds the maximum number of keys. The leader then runs
+ * the bulk load and completes the lookups of every other request from the shared result. Several lookups of the same
+ * key within one batch share a single entry.</p>
+ *
+ * <p>The loader is called on the leader's thread, inside whatever transaction or request context the leader is in.
+ * The values are handed to other requests, so a loader that reads the database should run in a context of its own,
+ * and must return detached objects that are safe to share, such as domain objects rather than managed entities. A
+ * failed load fails every lookup of the batch.</p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public class MicroBatcher<K, V> {
+
+    private final Function<List<K>, Map<K, V>> loader;
+    private final long windowNanos;
+    private final int maxSize;
+
+    private final Object lock = new Object();
+    private Batch<K, V> open;
+
+    /**
+     * @param loader Loads the values of a batch of distinct keys, keys without a value may be left out
+     * @param window How long a batch stays open for more keys
+     * @param maxSize The number of keys that closes a batch before the window has passed
+     */
+    public MicroBatcher(Function<List<K>, Map<K, V>> loader, Duration window, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.loader = loader;
+        this.windowNanos = window.toNanos();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * <p>Returns the value of the key, loaded together with the keys asked for by other requests meanwhile.</p>
+     *
+     * @param key The key to look up
+     * @return The value, or null if the loader has none for the key
+     */
+    public V load(K key) {
+        Batch<K, V> batch;
+        CompletableFuture<V> value;
+        boolean leader;
+        synchronized (lock) {
+            leader = open == null;
+            if (leader) {
+                open = new Batch<>();
+            }
+            batch = open;
+            value = batch.add(key);
+            if (batch.size() >= maxSize) {
+                open = null;
+                lock.notifyAll();
+            }
+        }
+        if (leader) {
+            await(batch);
+            batch.run(loader);
+        }
+        try {
+            return value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // the leader waits until the window has passed or the batch was closed for being full
+    private void await(Batch<K, V> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        boolean interrupted = false;
+        synchronized (lock) {
+            long remaining;
+            while (open == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    // the batch is loaded straight away, the other requests are waiting for it
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (open == batch) {
+                open = null;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch<K, V> {
+
+        private final Map<K, CompletableFuture<V>> values = new LinkedHashMap<>();
+
+        private CompletableFuture<V> add(K key) {
+            return values.computeIfAbsent(key, k -> new CompletableFuture<>());
+        }
+
+        private int size() {
+            return values.size();
+        }
+
+        // only called once the batch is closed, no key is added any more
+        private void run(Function<List<K>, Map<K, V>> loader) {
+            Map<K, V> loaded;
+            try {
+                loaded = loader.apply(Collections.unmodifiableList(new ArrayList<>(values.keySet())));
+            } catch (RuntimeException | Error e) {
+                // nobody else would complete the lookups, they fail with the leader
+                values.values().forEach(value -> value.completeExceptionally(e));
+                return;
+            }
+            values.forEach((key, value) -> value.complete(loaded.get(key)));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <p>The result of fetching several resources by id in one request, such as <code>GET /flights?ids=3,1,2</code>.</p>
+ *
+ * <p>Services load all the ids in a single query rather than one round trip each. The items found are written as a
+ * plain JSON array in the order their ids were asked for, like a page of the listing. Ids that were not found do not
+ * fail the request, they are listed in the <code>X-Missing-Ids</code> header instead.</p>
+ *
+ * @param <T> The domain type of the items
+ */
+public class MultiGet<T> {
+
+    public static final int MAX_IDS = Page.MAX_LIMIT;
+    public static final String MISSING_IDS_HEADER = "X-Missing-Ids";
+
+    private final List<T> items;
+    private final List<Integer> missing;
+
+    public MultiGet(List<T> items, List<Integer> missing) {
+        this.items = items;
+        this.missing = missing;
+    }
+
+    /**
+     * <p>Parses the <code>ids</code> query parameter, a comma separated list of ids. Repeated ids are only kept
+     * once.</p>
+     *
+     * @param ids The query parameter
+     * @return The distinct ids, in the order they were given
+     * @throws IllegalArgumentException If the list is empty, too long or holds something other than an id
+     */
+    public static List<Integer> ids(String ids) {
+        Set<Integer> parsed = new LinkedHashSet<>();
+        for (String id : ids.split(",")) {
+            try {
+                parsed.add(Integer.valueOf(id.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ids must be a comma separated list of ids", e);
+            }
+        }
+        if (parsed.size() > MAX_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_IDS + " ids may be fetched at once");
+        }
+        return new ArrayList<>(parsed);
+    }
+
+    /**
+     * <p>Matches the items loaded by a service against the ids that were asked for.</p>
+     *
+     * @param ids The ids asked for
+     * @param found The items loaded, in any order
+     * @param idOf Extracts the id of an item
+     * @return The MultiGet
+     */
+    public static <T> MultiGet<T> of(List<Integer> ids, Collection<T> found, Function<T, Integer> idOf) {
+        Map<Integer, T> byId = new HashMap<>();
+        for (T item : found) {
+            byId.put(idOf.apply(item), item);
+        }
+        List<T> items = new ArrayList<>(byId.size());
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            T item = byId.get(id);
+            if (item != null) {
+                items.add(item);
+            } else {
+                missing.add(id);
+            }
+        }
+        return new MultiGet<>(items, missing);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public List<Integer> getMissing() {
+        return missing;
+    }
+
+    /**
+     * <p>Creates a 200 response carrying the items found and, if some ids were not, the missing ids header.</p>
+     *
+     * @return A ResponseBuilder that may be further customised
+     */
+    public Response.ResponseBuilder toResponse() {
+        Response.ResponseBuilder builder = Response.ok(items);
+        if (!missing.isEmpty()) {
+            builder.header(MISSING_IDS_HEADER, missing.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,109 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * <p>One page of a keyset paginated listing.</p>
+ *
+ * <p>Services ask their repository for <code>limit + 1</code> rows; the extra row only tells us whether another page
+ * exists and is never returned. The cursor of the next page is taken from the last row that is returned.</p>
+ *
+ * <p>The items are still written as a plain JSON array so existing clients keep working. The next page is advertised
+ * in a <code>Link: &lt;...&gt;; rel="next"</code> header and, when asked for, the total row count in
+ * <code>X-Total-Count</code>.</p>
+ *
+ * @param <T> The domain type of the items
+ */
+public class Page<T> {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private final List<T> items;
+    private final String next;
+
+    public Page(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    /**
+     * <p>Builds a page from up to <code>limit + 1</code> rows fetched by a repository.</p>
+     *
+     * @param rows The rows returned by the repository, at most <code>limit + 1</code>
+     * @param limit The page size requested by the client
+     * @param cursorOf Extracts the sort keys of a row
+     * @param mapper Maps the rows kept on this page to domain objects
+     * @return The Page
+     */
+    public static <E, T> Page<T> of(List<E> rows, int limit, Function<E, Cursor> cursorOf,
+                                    Function<List<E>, List<T>> mapper) {
+        if (rows.size() <= limit) {
+            return new Page<>(mapper.apply(rows), null);
+        }
+        List<E> kept = rows.subList(0, limit);
+        return new Page<>(mapper.apply(kept), cursorOf.apply(kept.get(limit - 1)).encode());
+    }
+
+    /**
+     * <p>Resolves the page size requested by a client, applying the default and the upper bound.</p>
+     *
+     * @param requested The <code>limit</code> query parameter, may be null
+     * @return The page size to use
+     * @throws IllegalArgumentException If the requested size is not positive
+     */
+    public static int limit(Integer requested) {
+        if (requested == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (requested < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(requested, MAX_LIMIT);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    /**
+     * <p>Creates a 200 response carrying the items, the next page link and optionally the total count.</p>
+     *
+     * @param uriInfo The URI of the current request, used to build the next page link
+     * @param total The total number of rows, or null if the client did not ask for it
+     * @return A ResponseBuilder that may be further customised
+     */
+    public Response.ResponseBuilder toResponse(UriInfo uriInfo, Long total) {
+        return toResponse(uriInfo.getRequestUriBuilder(), total);
+    }
+
+    /**
+     * <p>Creates a 200 response as {@link #toResponse(UriInfo, Long)} does, linking the next page from another URI,
+     * such as the resource of a cached response.</p>
+     *
+     * @param uri The URI of the current page, used to build the next page link
+     * @param total The total number of rows, or null if the client did not ask for it
+     * @return A ResponseBuilder that may be further customised
+     */
+    public Response.ResponseBuilder toResponse(UriBuilder uri, Long total) {
+        Response.ResponseBuilder builder = Response.ok(items);
+        if (next != null) {
+            builder.links(Link.fromUriBuilder(uri.replaceQueryParam("after", next))
+                    .rel("next").build());
+        }
+        if (total != null) {
+            builder.header(TOTAL_COUNT_HEADER, total);
+        }
+        return builder;
+    }
+}
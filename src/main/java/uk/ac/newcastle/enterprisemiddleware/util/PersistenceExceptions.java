@@ -0,0 +1,43 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.util.Locale;
+
+/**
+ * <p>Helpers to interpret the exceptions raised when Hibernate flushes a statement the database rejects.</p>
+ *
+ * <p>Services rely on named database constraints rather than on a SELECT before every write. This class lets them
+ * recognise which constraint was violated so they can translate it into the matching validation exception.</p>
+ */
+public final class PersistenceExceptions {
+
+    private PersistenceExceptions() {
+    }
+
+    /**
+     * <p>Checks whether the given exception, or one of its causes, was raised by a violation of the named
+     * constraint.</p>
+     *
+     * <p>Databases decorate constraint names differently (schema prefix, quoting, index suffix) so the name is
+     * matched case-insensitively as a substring.</p>
+     *
+     * @param e The exception thrown by the EntityManager
+     * @param constraintName The name given to the constraint in the entity mapping
+     * @return true if the named constraint was violated
+     */
+    public static boolean isConstraintViolation(Throwable e, String constraintName) {
+        String expected = constraintName.toLowerCase(Locale.ROOT);
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof ConstraintViolationException) {
+                ConstraintViolationException violation = (ConstraintViolationException) t;
+                String name = violation.getConstraintName();
+                if (name == null && violation.getSQLException() != null) {
+                    name = violation.getSQLException().getMessage();
+                }
+                return name != null && name.toLowerCase(Locale.ROOT).contains(expected);
+            }
+        }
+        return false;
+    }
+}
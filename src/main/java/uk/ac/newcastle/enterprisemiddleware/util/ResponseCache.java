@@ -0,0 +1,258 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>Caches the serialised JSON of hot GET responses.</p>
+ *
+ * <p>An entry is keyed by the resource, see {@link #resource}, together with a version that changes whenever the
+ * data behind the resource is written, such as the tag of {@link TableVersions}. A write therefore never has to find
+ * and evict the entries it affects: the next request asks for a newer version and misses, while the old entries age
+ * out of the cache.</p>
+ *
+ * <p>The cache is bounded by the bytes it holds rather than by its number of entries, as a page of a listing can be
+ * a thousand times the size of a single flight.</p>
+ *
+ * <p>On a miss the response is built as usual and its entity written with Jackson once. The bytes are kept both as
+ * they are and gzip compressed, along with the status and headers of the response. A hit hands the stored bytes
+ * straight to the server, which copies them to the response buffer without mapping or serialising anything.</p>
+ *
+ * <p>Conditional requests are answered here, so the responses to cache must not evaluate preconditions
+ * themselves. Links must be relative to the server, as built from the resource, since an entry is shared by requests
+ * made to any host name; they are resolved against the request URI when served.</p>
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+    public static final String NAME = "response-bytes";
+
+    private static final String GZIP = "gzip";
+
+    // roughly what an entry costs besides its bytes: the key, the headers and the objects holding them
+    private static final int ENTRY_OVERHEAD = 512;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "app.response-cache.maximum-bytes", defaultValue = "33554432")
+    long maximumBytes;
+
+    @ConfigProperty(name = "app.response-cache.expire-after-access", defaultValue = "PT10M")
+    Duration expireAfterAccess;
+
+    private Cache<List<Object>, Entry> cache;
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .<List<Object>, Entry>weigher((key, entry) -> entry.weight(key.get(0).toString()))
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, NAME);
+    }
+
+    /**
+     * <p>Names the resource of a request by its path and the query parameters the endpoint reads, in the order
+     * given. Other parameters, the host name and the order the client sent the parameters in are left out, so they
+     * do not make new entries.</p>
+     *
+     * @param uriInfo The URI of the current request
+     * @param parameters Names and values in turn, the values as parsed by the endpoint. Null values are left out
+     * @return The resource, a URI relative to the server
+     */
+    public static URI resource(UriInfo uriInfo, Object... parameters) {
+        // written out rather than with a UriBuilder, which would take braces in a value for a template
+        StringBuilder resource = new StringBuilder(uriInfo.getAbsolutePath().getRawPath());
+        char separator = '?';
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (parameters[i + 1] != null) {
+                resource.append(separator).append(parameters[i]).append('=')
+                        .append(URLEncoder.encode(parameters[i + 1].toString(), StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+        return URI.create(resource.toString());
+    }
+
+    /**
+     * <p>Returns the cached response for this version of the resource, building it with the loader on a miss.</p>
+     *
+     * @param resource Identifies the resource, everything the response depends on apart from the version
+     * @param version Changes whenever the response would change, read before the loader runs
+     * @param uriInfo The URI of the current request, to resolve the links of the response against
+     * @param request The current request, for If-None-Match
+     * @param headers The headers of the current request, for Accept-Encoding
+     * @param loader Builds the full response, without evaluating preconditions
+     * @return The response
+     */
+    public Response get(URI resource, Object version, UriInfo uriInfo, Request request, HttpHeaders headers,
+                        Supplier<Response> loader) {
+        Entry entry = cache.get(List.of(resource, version), key -> serialise(loader.get()));
+        return entry.toResponse(uriInfo.getRequestUri(), request, acceptsGzip(headers));
+    }
+
+    /**
+     * @param resource A resource, see {@link #resource}
+     * @param version A version of it
+     * @return Whether a response is held for this version of the resource
+     */
+    public boolean contains(URI resource, Object version) {
+        return cache.getIfPresent(List.of(resource, version)) != null;
+    }
+
+    /**
+     * @return The number of responses held
+     */
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    private Entry serialise(Response response) {
+        MultivaluedMap<String, Object> kept = new MultivaluedHashMap<>(response.getHeaders());
+        kept.remove(HttpHeaders.CONTENT_TYPE);
+        if (!response.hasEntity()) {
+            return new Entry(response.getStatus(), kept, response.getEntityTag(), null, null);
+        }
+        byte[] identity;
+        try {
+            identity = mapper.writeValueAsBytes(response.getEntity());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise " + response.getEntity().getClass(), e);
+        }
+        byte[] gzip = gzip(identity);
+        return new Entry(response.getStatus(), kept, response.getEntityTag(), identity,
+                gzip.length < identity.length ? gzip : null);
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // gzip may be named or covered by "*", either way it is refused with q=0
+    private static boolean acceptsGzip(HttpHeaders headers) {
+        List<String> values = headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (values == null) {
+            return false;
+        }
+        boolean any = false;
+        for (String value : values) {
+            for (String coding : value.split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim().toLowerCase(Locale.ROOT);
+                if (name.equals(GZIP)) {
+                    return !refused(parts);
+                }
+                if (name.equals("*")) {
+                    any = !refused(parts);
+                }
+            }
+        }
+        return any;
+    }
+
+    private static boolean refused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2)) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Link resolve(Object value, URI requestUri) {
+        Link link = value instanceof Link ? (Link) value : Link.valueOf(value.toString());
+        return Link.fromLink(link).uri(requestUri.resolve(link.getUri())).build();
+    }
+
+    private static final class Entry {
+
+        private final int status;
+        private final MultivaluedMap<String, Object> headers;
+        private final EntityTag tag;
+        private final byte[] identity;
+        private final byte[] gzip;
+
+        private Entry(int status, MultivaluedMap<String, Object> headers, EntityTag tag, byte[] identity,
+                      byte[] gzip) {
+            this.status = status;
+            this.headers = headers;
+            this.tag = tag;
+            this.identity = identity;
+            this.gzip = gzip;
+        }
+
+        private int weight(String resource) {
+            long bytes = ENTRY_OVERHEAD + 2L * resource.length()
+                    + (identity == null ? 0 : identity.length) + (gzip == null ? 0 : gzip.length);
+            return (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+
+        private Response toResponse(URI requestUri, Request request, boolean acceptsGzip) {
+            if (tag != null && status == Response.Status.OK.getStatusCode()) {
+                Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                if (notModified != null) {
+                    return notModified.tag(tag).build();
+                }
+            }
+            Response.ResponseBuilder builder = Response.status(status);
+            headers.forEach((name, values) -> values.forEach(value -> builder.header(name,
+                    name.equalsIgnoreCase(HttpHeaders.LINK) ? resolve(value, requestUri) : value)));
+            if (identity == null) {
+                return builder.build();
+            }
+            builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (acceptsGzip && gzip != null) {
+                return builder.entity(gzip).type(MediaType.APPLICATION_JSON_TYPE)
+                        .header(HttpHeaders.CONTENT_ENCODING, GZIP).build();
+            }
+            return builder.entity(identity).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }
+    }
+}
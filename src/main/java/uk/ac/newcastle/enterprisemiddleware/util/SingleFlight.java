@@ -0,0 +1,89 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * <p>Lets only one load per key run at a time; callers asking for a key that is already being loaded wait for that
+ * load and share its result, or its failure, instead of starting their own.</p>
+ *
+ * <p>Nothing is kept once the load is over, the next call for the key loads it again. This is the coalescing the
+ * application caches already do for their own misses, for lookups that are not cached.</p>
+ *
+ * <p>Every call is counted in <code>singleflight.calls</code>, tagged with the name of the flight and whether the call
+ * <code>loaded</code> the value or <code>shared</code> a load already running. The share of shared calls is the
+ * collapse ratio.</p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter loaded;
+    private final Counter shared;
+
+    /**
+     * @param name Names the flight in the metrics
+     * @param registry Where the calls are counted
+     */
+    public SingleFlight(String name, MeterRegistry registry) {
+        this.loaded = counter(name, "loaded", registry);
+        this.shared = counter(name, "shared", registry);
+    }
+
+    private static Counter counter(String name, String result, MeterRegistry registry) {
+        return Counter.builder("singleflight.calls")
+                .description("Lookups that loaded their value or shared a load of the same key already running")
+                .tag("flight", name)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * <p>Returns the value of the key, loading it on this thread unless a load of the key is already running.</p>
+     *
+     * @param key The key to look up
+     * @param loader Loads the value of the key
+     * @return The value
+     */
+    public V get(K key, Function<K, V> loader) {
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, load);
+        if (running != null) {
+            shared.increment();
+            return join(running);
+        }
+        loaded.increment();
+        try {
+            V value = loader.apply(key);
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, load);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * <p>Writes a {@link StreamingOutput} entity straight to the response stream.</p>
+ *
+ * <p>RESTEasy Reactive does not ship a writer for StreamingOutput, so without this one it would be handed to Jackson.
+ * Endpoints that stream their body, such as the bulk imports, return a StreamingOutput and must run on a worker
+ * thread, which is the default for endpoints that do not return a reactive type.</p>
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class StreamingOutputWriter implements MessageBodyWriter<StreamingOutput> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return StreamingOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeTo(StreamingOutput streamingOutput, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        streamingOutput.write(entityStream);
+    }
+}
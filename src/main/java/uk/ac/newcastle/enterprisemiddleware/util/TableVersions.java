@@ -0,0 +1,71 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.quarkus.arc.Arc;
+import org.hibernate.Hibernate;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.ws.rs.core.EntityTag;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keeps a version number per table, used as the ETag of collection endpoints.</p>
+ *
+ * <p>Entities annotated with <code>@EntityListeners(TableVersions.Listener.class)</code> bump the version of their
+ * table whenever a row is inserted, updated or deleted, cascades included. The version is bumped when the change is
+ * flushed and again once the transaction is over, so that a listing read in between cannot keep a tag that is
+ * already current for content that is not.</p>
+ *
+ * <p>Versions only live in memory. The tag is prefixed with the startup time so that a restarted instance never
+ * reuses a tag it handed out before.</p>
+ */
+@ApplicationScoped
+public class TableVersions {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final Map<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    @Inject
+    AfterCompletion afterCompletion;
+
+    /**
+     * @param entity The entity class mapped to the table
+     * @return A strong ETag that changes whenever a row of the table changes
+     */
+    public EntityTag tag(Class<?> entity) {
+        return new EntityTag(epoch + "." + version(entity).get());
+    }
+
+    /**
+     * <p>Records a change to the table of the given entity class.</p>
+     *
+     * @param entity The entity class mapped to the table
+     */
+    public void changed(Class<?> entity) {
+        AtomicLong version = version(entity);
+        version.incrementAndGet();
+        afterCompletion.always(version::incrementAndGet);
+    }
+
+    private AtomicLong version(Class<?> entity) {
+        return versions.computeIfAbsent(entity, e -> new AtomicLong());
+    }
+
+    /**
+     * <p>JPA entity listener bumping the table version of the entity it is attached to.</p>
+     */
+    public static class Listener {
+
+        @PostPersist
+        @PostUpdate
+        @PostRemove
+        void changed(Object entity) {
+            Arc.container().instance(TableVersions.class).get().changed(Hibernate.getClass(entity));
+        }
+    }
+}
@@ -4,6 +4,6 @@
 -- insert into myentity (id, field) values(nextval('hibernate_sequence'), 'field-2');
 -- insert into myentity (id, field) values(nextval('hibernate_sequence'), 'field-3');
 
-insert into Customer (id, name, phoneNumber, email) values(nextval('customerId_seq'), 'customer', '01234567890', 'customer@email.com');
+insert into Customer (id, name, phoneNumber, email, version) values(nextval('customerId_seq'), 'customer', '01234567890', 'customer@email.com', 0);
 
-insert into Flight (id, number, departure, destination) values(nextval('flightId_seq'), 'A1234', 'ABC', 'XYZ');
+insert into Flight (id, number, departure, destination, version) values(nextval('flightId_seq'), 'A1234', 'ABC', 'XYZ', 0);
@@ -0,0 +1,92 @@
+package uk.ac.newcastle.enterprisemiddleware.bookingtest;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.path.json.JsonPath;
+
+/**
+ * Checks both formats of GET /bookings/export.
+ *
+ * Runs in its own profile, on its own database, so the booking table starts
+ * empty. One row per fetch makes the export flush after every row.
+ */
+@QuarkusTest
+@TestProfile(BookingExportIntegrationTest.ExportProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingExportIntegrationTest {
+
+	public static class ExportProfile implements QuarkusTestProfile {
+		@Override
+		public Map<String, String> getConfigOverrides() {
+			return Map.of("app.booking-export.fetch-size", "1");
+		}
+	}
+
+	private static final String HEADER = "id,date,customer_id,customer_name,customer_email,customer_phonenumber,"
+			+ "flight_id,flight_number,flight_departure,flight_destination";
+
+	// a name the validation would refuse, written straight to the table to check
+	// the CSV quoting of a separator, a quote and a line break
+	private static final String NAME = "Smith, \"Jr\"\nthe 2nd";
+
+	@Inject
+	EntityManager em;
+
+	@Test
+	@Order(1)
+	public void EmptyTableExportsNoRows() {
+		given().accept("application/x-ndjson").when().get("/bookings/export").then().statusCode(200)
+				.contentType(startsWith("application/x-ndjson")).body(equalTo(""));
+		given().accept("text/csv").when().get("/bookings/export").then().statusCode(200)
+				.contentType(startsWith("text/csv")).body(equalTo(HEADER + "\n"));
+	}
+
+	@Test
+	@Order(2)
+	public void BookingsAreExportedAsNdjsonAndCsv() {
+		QuarkusTransaction.run(() -> {
+			em.createNativeQuery("insert into customer (id, name, phonenumber, email, version) "
+					+ "values (900, :name, '01234567890', 'export@email.com', 0)").setParameter("name", NAME)
+					.executeUpdate();
+			em.createNativeQuery("insert into booking (id, customer_id, flight_id, date, version) "
+					+ "values (901, 900, 1, timestamp '2030-01-01 00:00:00', 0), "
+					+ "(902, 1, 1, timestamp '2030-01-02 00:00:00', 0)").executeUpdate();
+		});
+
+		String ndjson = given().accept("application/x-ndjson").when().get("/bookings/export").then()
+				.statusCode(200).contentType(startsWith("application/x-ndjson")).extract().asString();
+		String[] lines = ndjson.split("\n");
+		assertEquals(2, lines.length);
+		assertEquals(901, JsonPath.from(lines[0]).getInt("id"));
+		assertEquals(NAME, JsonPath.from(lines[0]).getString("customer.name"));
+		assertEquals(902, JsonPath.from(lines[1]).getInt("id"));
+
+		String csv = given().accept("text/csv").when().get("/bookings/export").then().statusCode(200)
+				.contentType(startsWith("text/csv")).extract().asString();
+		assertEquals(HEADER + "\n"
+				+ "901,2030-01-01T00:00:00Z,900,\"Smith, \"\"Jr\"\"\nthe 2nd\",export@email.com,01234567890,1,A1234,ABC,XYZ\n"
+				+ "902,2030-01-02T00:00:00Z,1,customer,customer@email.com,01234567890,1,A1234,ABC,XYZ\n", csv);
+
+		given().accept("application/xml").when().get("/bookings/export").then().statusCode(406);
+	}
+}
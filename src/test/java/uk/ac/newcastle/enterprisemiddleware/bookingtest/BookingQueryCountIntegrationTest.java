@@ -0,0 +1,104 @@
+package uk.ac.newcastle.enterprisemiddleware.bookingtest;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+
+/**
+ * Guards the booking list endpoints against N+1 loading: the number of
+ * statements they run must not grow with the number of bookings returned.
+ * 
+ * Runs in its own profile, with Hibernate statistics enabled and on its own
+ * database, so the rows it creates don't leak into the other tests.
+ */
+@QuarkusTest
+@TestProfile(BookingQueryCountIntegrationTest.StatisticsProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingQueryCountIntegrationTest {
+
+	public static class StatisticsProfile implements QuarkusTestProfile {
+		@Override
+		public Map<String, String> getConfigOverrides() {
+			return Map.of("quarkus.hibernate-orm.statistics", "true");
+		}
+	}
+
+	@Inject
+	SessionFactory sessionFactory;
+
+	private static int customerId;
+
+	private static int[] flightIds;
+
+	private static long singleBookingStatements;
+
+	// RestAssured only points at the test port once the application is started,
+	// so the fixtures are created by the first test rather than in @BeforeAll
+	private void createCustomerAndFlights() {
+		customerId = given().contentType(ContentType.JSON)
+				.body("{\"name\":\"counted\",\"email\":\"counted@email.com\",\"phonenumber\":\"01234567890\"}")
+				.post("/customers").then().statusCode(201).extract().path("id");
+		flightIds = new int[3];
+		for (int i = 0; i < flightIds.length; i++) {
+			flightIds[i] = given().contentType(ContentType.JSON)
+					.body("{\"number\":\"CNT0" + i + "\",\"departure\":\"ABC\",\"destination\":\"XYZ\"}")
+					.post("/flights").then().statusCode(201).extract().path("id");
+		}
+	}
+
+	private void book(int flightId) {
+		given().contentType(ContentType.JSON)
+				.body("{\"customerId\":" + customerId + ",\"flightId\":" + flightId + ",\"date\":\"2030-01-01\"}")
+				.post("/bookings/ref").then().statusCode(201);
+	}
+
+	// statements run by the three list endpoints, from a cold second-level cache
+	// so that a cache hit cannot hide extra statements
+	private long listStatements() {
+		sessionFactory.getCache().evictAllRegions();
+		Statistics statistics = sessionFactory.getStatistics();
+		statistics.clear();
+		when().get("/bookings").then().statusCode(200);
+		when().get("/customers/booking/{id}", customerId).then().statusCode(200);
+		when().get("/flights/booking/{id}", flightIds[0]).then().statusCode(200);
+		return statistics.getPrepareStatementCount();
+	}
+
+	@Test
+	@Order(1)
+	public void ListSingleBooking() {
+		createCustomerAndFlights();
+		book(flightIds[0]);
+		singleBookingStatements = listStatements();
+		assertEquals(3, singleBookingStatements, "Expected one statement per list endpoint");
+	}
+
+	@Test
+	@Order(2)
+	public void ListManyBookings() {
+		book(flightIds[1]);
+		book(flightIds[2]);
+		int listed = when().get("/bookings").then().extract().path("size()");
+		assertEquals(3, listed, "Bookings not created");
+		assertEquals(singleBookingStatements, listStatements(), "Statements grow with the number of bookings");
+	}
+}
@@ -0,0 +1,111 @@
+package uk.ac.newcastle.enterprisemiddleware.bookingtest;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingRestService;
+
+/**
+ * Checks POST /bookings/ref, which takes the customer and flight of a Booking
+ * by reference rather than as full objects.
+ *
+ * Runs in its own profile, on its own database, so the bookings it creates
+ * don't leak into the other tests.
+ */
+@QuarkusTest
+@TestHTTPEndpoint(BookingRestService.class)
+@TestProfile(BookingReferenceIntegrationTest.ReferenceProfile.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingReferenceIntegrationTest {
+
+	public static class ReferenceProfile implements QuarkusTestProfile {
+	}
+
+	private static Integer bookingId;
+
+	@Test
+	@Order(1)
+	public void CreateBookingByIds() {
+		bookingId = given().contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":1,\"date\":\"2031-03-03\"}").when().post("/ref").then()
+				.statusCode(201).body("id", notNullValue()).extract().path("id");
+
+		when().get("/{id}", bookingId).then().statusCode(200).body("customer.id", equalTo(1))
+				.body("flight.number", equalTo("A1234")).body("date", startsWith("2031-03-03T00:00:00"));
+	}
+
+	@Test
+	@Order(2)
+	public void CreateBookingByEmailAndNumber() {
+		given().contentType(ContentType.JSON)
+				.body("{\"email\":\"customer@email.com\",\"flightNumber\":\"A1234\",\"date\":\"2031-03-04\"}").when()
+				.post("/ref").then().statusCode(201).body("id", notNullValue());
+	}
+
+	@Test
+	@Order(3)
+	public void UnknownCustomerOrFlightIsBadRequest() {
+		given().contentType(ContentType.JSON).body("{\"customerId\":999,\"flightId\":1,\"date\":\"2031-03-05\"}")
+				.when().post("/ref").then().statusCode(400);
+		given().contentType(ContentType.JSON).body("{\"customerId\":1,\"flightId\":999,\"date\":\"2031-03-05\"}")
+				.when().post("/ref").then().statusCode(400);
+	}
+
+	@Test
+	@Order(4)
+	public void SameFlightAndDateIsConflict() {
+		given().contentType(ContentType.JSON).body("{\"customerId\":1,\"flightId\":1,\"date\":\"2031-03-03\"}")
+				.when().post("/ref").then().statusCode(409).body("reasons.flight", notNullValue());
+
+		when().get().then().statusCode(200).body("size()", equalTo(2));
+	}
+
+	@Test
+	@Order(5)
+	@SuppressWarnings("unchecked")
+	public void UpdateTakesTheIdFromThePath() {
+		// without an id in the body the path says which booking is updated
+		Map<String, Object> booking = when().get("/{id}", bookingId).then().statusCode(200).extract().as(Map.class);
+		booking.remove("id");
+		booking.put("date", "2031-03-06");
+		given().contentType(ContentType.JSON).body(booking).when().put("/{id}", bookingId).then().statusCode(200)
+				.body("id", equalTo(bookingId)).body("date", startsWith("2031-03-06T00:00:00"));
+
+		// an id naming another booking is rejected, and neither is changed
+		Integer otherId = when().get().then().statusCode(200).extract().path(
+				"find { it.date.startsWith('2031-03-04') }.id");
+		booking.put("id", otherId);
+		booking.put("date", "2031-03-07");
+		given().contentType(ContentType.JSON).body(booking).when().put("/{id}", bookingId).then().statusCode(400);
+		when().get("/{id}", bookingId).then().statusCode(200).body("date", startsWith("2031-03-06T00:00:00"));
+		when().get("/{id}", otherId).then().statusCode(200).body("date", startsWith("2031-03-04T00:00:00"));
+	}
+
+	@Test
+	@Order(6)
+	public void DeleteBookings() {
+		List<Integer> ids = when().get().then().statusCode(200).extract().path("id");
+		for (Integer id : ids) {
+			when().delete("/{id}", id).then().statusCode(200);
+		}
+	}
+}
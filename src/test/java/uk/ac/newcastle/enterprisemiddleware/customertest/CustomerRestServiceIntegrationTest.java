@@ -3,9 +3,16 @@ package uk.ac.newcastle.enterprisemiddleware.customertest;
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
@@ -17,6 +24,8 @@ import io.quarkus.test.common.http.TestHTTPEndpoint;
 import io.quarkus.test.h2.H2DatabaseTestResource;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerRestService;
 
@@ -55,13 +64,39 @@ class CustomerRestServiceIntegrationTest {
 
 	@Test
 	@Order(3)
+	public void GetCustomerPageByPage() {
+		Response first = given().queryParam("limit", 1).queryParam("count", true).when().get()
+				.then().statusCode(200).header("X-Total-Count", "2").extract().response();
+		Customer[] page = first.body().as(Customer[].class);
+		assertEquals(1, page.length);
+
+		String next = first.header("Link");
+		assertTrue(next != null && next.contains("rel=\"next\""), "Next page link missing");
+		String after = next.replaceAll(".*[?&]after=([^&>]+).*", "$1");
+
+		Response second = given().queryParam("limit", 1).queryParam("after", after).when()
+				.get().then().statusCode(200).extract().response();
+		Customer[] rest = second.body().as(Customer[].class);
+		assertEquals(1, rest.length);
+		assertTrue(!page[0].getEmail().equals(rest[0].getEmail()), "Pages overlap");
+		assertTrue(second.header("Link") == null, "Last page must not link to a next page");
+	}
+
+	@Test
+	@Order(4)
+	public void GetWithMalformedCursor() {
+		given().queryParam("after", "not-a-cursor").when().get().then().statusCode(400);
+	}
+
+	@Test
+	@Order(5)
 	public void CreateWithDuplicateEmailCausesError() {
 		given().contentType(ContentType.JSON).body(customer).when().post().then().statusCode(409).body("reasons.email",
 				containsString("please use a unique email"));
 	}
 
 	@Test
-	@Order(4)
+	@Order(6)
 	public void UpdateCustomer() {
 		Customer[] customers = when().get().then().statusCode(200).extract().response().body().as(Customer[].class);
 		assertEquals(2, customers.length);
@@ -73,14 +108,14 @@ class CustomerRestServiceIntegrationTest {
 	}
 
 	@Test
-	@Order(5)
+	@Order(7)
 	public void UpdateCustomerWithNonexistenceId() {
 		given().contentType(ContentType.JSON).body(customer).when().put("/id/{id:.+}", 987654321).then()
 				.statusCode(404);
 	}
 
 	@Test
-	@Order(6)
+	@Order(8)
 	public void DeleteCustomer() {
 		Customer[] customers = when().get().then().statusCode(200).extract().response().body().as(Customer[].class);
 
@@ -89,27 +124,217 @@ class CustomerRestServiceIntegrationTest {
 	}
 
 	@Test
-	@Order(7)
+	@Order(9)
 	public void GetNonexistenceId() {
 		when().get("/id/{id:.+}", 987654321).then().statusCode(404);
 	}
 
 	@Test
-	@Order(8)
+	@Order(10)
 	public void GetWrongIdFormat() {
 		when().get("/id/{id:.+}", -1).then().statusCode(404);
 	}
 
 	@Test
-	@Order(9)
+	@Order(11)
 	public void GetNonexistenceEmail() {
 		when().get("/email/{email:.+}", "non-exist@emial.com").then().statusCode(404);
 	}
 
 	@Test
-	@Order(10)
+	@Order(12)
 	public void GetWrongEmailFormat() {
 		when().get("/email/{email:.+}", "notemail").then().statusCode(404);
 	}
 
-}
\ No newline at end of file
+	@Test
+	@Order(13)
+	public void ImportCustomers() {
+		String body = String.join("\n",
+				"{\"name\":\"imported\",\"email\":\"imported@email.com\",\"phonenumber\":\"01234567891\"}",
+				"{not json",
+				"{\"name\":\"duplicate\",\"email\":\"imported@email.com\",\"phonenumber\":\"01234567892\"}",
+				"{\"name\":\"invalid\",\"email\":\"notemail\",\"phonenumber\":\"01234567893\"}");
+		Response response = given().contentType("application/x-ndjson").accept("application/x-ndjson")
+				.body(body.getBytes(StandardCharsets.UTF_8))
+				.when().post("/import").then().statusCode(200).extract().response();
+
+		Map<Integer, Integer> statuses = new HashMap<>();
+		Integer created = null;
+		for (String line : response.asString().split("\n")) {
+			JsonPath result = new JsonPath(line);
+			statuses.put(result.getInt("line"), result.getInt("status"));
+			if (result.getInt("status") == 201) {
+				created = result.getInt("id");
+			}
+		}
+		assertEquals(Map.of(1, 201, 2, 400, 3, 409, 4, 400), statuses);
+
+		when().get("/id/{id:.+}", created).then().statusCode(200).body("email", equalTo("imported@email.com"));
+		when().delete("/id/{id:.+}", created).then().statusCode(200);
+	}
+
+	@Test
+	@Order(14)
+	public void CachedLookupsFollowWrites() {
+		Customer cached = new Customer();
+		cached.setName("cached");
+		cached.setEmail("cached@email.com");
+		cached.setPhonenumber("01234567894");
+
+		// the miss is cached as well and must be evicted by the create
+		when().get("/email/{email:.+}", cached.getEmail()).then().statusCode(404);
+		given().contentType(ContentType.JSON).body(cached).when().post().then().statusCode(201);
+		int id = when().get("/email/{email:.+}", cached.getEmail()).then().statusCode(200).extract().path("id");
+		when().get("/id/{id:.+}", id).then().statusCode(200).body("name", equalTo("cached"));
+
+		when().delete("/id/{id:.+}", id).then().statusCode(200);
+		when().get("/id/{id:.+}", id).then().statusCode(404);
+		when().get("/email/{email:.+}", cached.getEmail()).then().statusCode(404);
+	}
+
+	@Test
+	@Order(15)
+	public void ConditionalGetsFollowWrites() {
+		Customer tagged = new Customer();
+		tagged.setName("tagged");
+		tagged.setEmail("tagged@email.com");
+		tagged.setPhonenumber("01234567895");
+
+		String listTag = when().get().then().statusCode(200).extract().header("ETag");
+		given().header("If-None-Match", listTag).when().get().then().statusCode(304);
+
+		given().contentType(ContentType.JSON).body(tagged).when().post().then().statusCode(201);
+		given().header("If-None-Match", listTag).when().get().then().statusCode(200);
+
+		Response found = when().get("/email/{email:.+}", tagged.getEmail()).then().statusCode(200).extract()
+				.response();
+		String tag = found.header("ETag");
+		int id = found.path("id");
+		given().header("If-None-Match", tag).when().get("/id/{id:.+}", id).then().statusCode(304)
+				.header("ETag", tag);
+
+		tagged.setId(id);
+		tagged.setName("retagged");
+		given().contentType(ContentType.JSON).body(tagged).put("/id/{id:.+}", id).then().statusCode(200);
+		String updated = given().header("If-None-Match", tag).when().get("/id/{id:.+}", id).then().statusCode(200)
+				.body("name", equalTo("retagged")).extract().header("ETag");
+		assertTrue(!tag.equals(updated), "ETag has not changed with the update");
+
+		when().delete("/id/{id:.+}", id).then().statusCode(200);
+	}
+
+	@Test
+	@Order(16)
+	public void UpdateWithStaleIfMatchIsRefused() {
+		Customer versioned = new Customer();
+		versioned.setName("versioned");
+		versioned.setEmail("versioned@email.com");
+		versioned.setPhonenumber("01234567896");
+
+		Response created = given().contentType(ContentType.JSON).body(versioned).when().post().then().statusCode(201)
+				.extract().response();
+		String tag = created.header("ETag");
+		int id = created.path("id");
+		versioned.setId(id);
+
+		versioned.setName("first");
+		String updated = given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned)
+				.put("/id/{id:.+}", id).then().statusCode(200).extract().header("ETag");
+		assertTrue(!tag.equals(updated), "ETag has not changed with the update");
+
+		// a second writer still holding the first version must not overwrite the update
+		versioned.setName("second");
+		given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned).put("/id/{id:.+}", id).then()
+				.statusCode(412);
+		when().get("/id/{id:.+}", id).then().statusCode(200).header("ETag", updated).body("name", equalTo("first"));
+
+		when().delete("/id/{id:.+}", id).then().statusCode(200);
+	}
+
+	@Test
+	@Order(17)
+	public void PatchChangesOnlyGivenFields() {
+		Customer patched = new Customer();
+		patched.setName("patched");
+		patched.setEmail("patched@email.com");
+		patched.setPhonenumber("01234567897");
+
+		Response created = given().contentType(ContentType.JSON).body(patched).when().post().then().statusCode(201)
+				.extract().response();
+		String tag = created.header("ETag");
+		int id = created.path("id");
+
+		String updated = given().contentType("application/merge-patch+json").header("If-Match", tag)
+				.body("{\"phonenumber\":\"01234567898\"}").patch("/id/{id:.+}", id).then().statusCode(200)
+				.body("name", equalTo("patched")).body("phonenumber", equalTo("01234567898")).extract()
+				.header("ETag");
+		assertTrue(!tag.equals(updated), "ETag has not changed with the patch");
+
+		given().contentType("application/merge-patch+json").body("{\"email\":\"not an email\"}")
+				.patch("/id/{id:.+}", id).then().statusCode(400);
+		given().contentType("application/merge-patch+json").header("If-Match", tag).body("{\"name\":\"stale\"}")
+				.patch("/id/{id:.+}", id).then().statusCode(412);
+		when().get("/id/{id:.+}", id).then().statusCode(200).body("name", equalTo("patched"))
+				.body("email", equalTo("patched@email.com"));
+
+		when().delete("/id/{id:.+}", id).then().statusCode(200);
+	}
+
+	@Test
+	@Order(18)
+	public void GetByIdsReportsMissingIds() {
+		Customer[] customers = when().get().then().statusCode(200).extract().body().as(Customer[].class);
+		int id = customers[0].getId();
+
+		Customer[] found = given().queryParam("ids", "999999," + id).when().get().then().statusCode(200)
+				.header("X-Missing-Ids", "999999").extract().body().as(Customer[].class);
+		assertEquals(1, found.length);
+		assertEquals(customers[0], found[0]);
+
+		given().queryParam("ids", "1,x").when().get().then().statusCode(400);
+	}
+
+	@Test
+	@Order(19)
+	public void VersionedUpdateTakesTheIdFromThePath() {
+		// ids above 127 are not interned Integers, enough customers are imported to reach one
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 130; i++) {
+			body.append("{\"name\":\"bulk\",\"email\":\"bulk" + i + "@email.com\",\"phonenumber\":\"01234567890\"}\n");
+		}
+		List<Integer> ids = given().contentType("application/x-ndjson").accept("application/x-ndjson")
+				.body(body.toString().getBytes(StandardCharsets.UTF_8)).when().post("/import").then().statusCode(200)
+				.extract().asString().lines().map(line -> new JsonPath(line).getInt("id")).collect(Collectors.toList());
+		Integer id = ids.stream().max(Integer::compare).orElseThrow();
+		Integer other = ids.get(0);
+		assertTrue(id > 127, "no customer id above 127");
+
+		Response found = when().get("/id/{id:.+}", id).then().statusCode(200).extract().response();
+		Customer versioned = found.as(Customer.class);
+		String tag = found.header("ETag");
+
+		// without an id in the body the path says which customer is updated
+		versioned.setId(null);
+		versioned.setName("first");
+		String updated = given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned)
+				.put("/id/{id:.+}", id).then().statusCode(200).body("id", equalTo(id)).extract().header("ETag");
+		assertTrue(!tag.equals(updated), "ETag has not changed with the update");
+
+		// a writer still holding the first version must not overwrite the update
+		versioned.setName("second");
+		given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned).put("/id/{id:.+}", id).then()
+				.statusCode(412);
+
+		// an id naming another customer is rejected, and neither is changed
+		versioned.setId(other);
+		given().contentType(ContentType.JSON).header("If-Match", updated).body(versioned).put("/id/{id:.+}", id)
+				.then().statusCode(400);
+		when().get("/id/{id:.+}", id).then().statusCode(200).header("ETag", updated).body("name", equalTo("first"));
+		when().get("/id/{id:.+}", other).then().statusCode(200).body("name", equalTo("bulk"));
+
+		for (Integer imported : ids) {
+			when().delete("/id/{id:.+}", imported).then().statusCode(200);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package uk.ac.newcastle.enterprisemiddleware.flighttest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightGraph;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
+
+/**
+ * Flight reads are served from FlightCatalog, which FlightService only changes
+ * once a write commits. A rolled back write must leave no trace in it.
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class FlightCatalogIntegrationTest {
+
+	@Inject
+	FlightService flightService;
+
+	@Test
+	public void OnlyCommittedWritesReachTheCatalog() {
+		QuarkusTransaction.begin();
+		flightService.create(flight(null, "K0001", "KKX"));
+		QuarkusTransaction.rollback();
+		assertTrue(flightService.findByNumber("K0001").isEmpty(), "rolled back create is visible");
+
+		Flight created = flight(null, "K0001", "KKX");
+		QuarkusTransaction.run(() -> flightService.create(created));
+		Integer id = created.getId();
+		assertEquals("KKX", flightService.findById(id).orElseThrow().getDestination());
+
+		QuarkusTransaction.begin();
+		flightService.update(id, flight(id, "K0001", "KKY"), null);
+		QuarkusTransaction.rollback();
+		assertEquals("KKX", flightService.findById(id).orElseThrow().getDestination());
+
+		QuarkusTransaction.run(() -> flightService.update(id, flight(id, "K0001", "KKY"), null));
+		assertEquals("KKY", flightService.findByNumber("K0001").orElseThrow().getDestination());
+
+		QuarkusTransaction.begin();
+		flightService.delete(id);
+		QuarkusTransaction.rollback();
+		assertTrue(flightService.findById(id).isPresent(), "rolled back delete is visible");
+
+		QuarkusTransaction.run(() -> flightService.delete(id));
+		assertTrue(flightService.findById(id).isEmpty(), "committed delete is not visible");
+	}
+
+	@Test
+	public void ReadersGetTheirOwnCopies() {
+		Flight read = flightService.findById(1).orElseThrow();
+		read.setDestination("ZZZ");
+		flightService.findAll().get(0).setNumber("Z9999");
+
+		assertEquals("XYZ", flightService.findById(1).orElseThrow().getDestination());
+		assertEquals("A1234", flightService.findByNumber("A1234").orElseThrow().getNumber());
+	}
+
+	@Test
+	public void SingleWritesKeepTheGraphInOrder() {
+		List<Integer> ids = new ArrayList<>();
+		for (String[] route : new String[][] { { "K0013", "KKC" }, { "K0011", "KKA" }, { "K0012", "KKA" } }) {
+			Flight created = flight(null, route[0], route[1]);
+			QuarkusTransaction.run(() -> flightService.create(created));
+			ids.add(created.getId());
+		}
+		assertEquals(List.of("K0011", "K0012", "K0013"), numbers(flightService.graph().departingFrom("KKW")));
+
+		// K0011 moves behind the others, on the route of K0013
+		QuarkusTransaction.run(() -> flightService.update(ids.get(1), flight(ids.get(1), "K0011", "KKC"), null));
+		FlightGraph graph = flightService.graph();
+		assertEquals(List.of("K0012", "K0011", "K0013"), numbers(graph.departingFrom("KKW")));
+		assertEquals(List.of("K0012"), numbers(graph.arrivingAt("KKA")));
+		assertEquals(List.of("K0011", "K0013"), numbers(graph.arrivingAt("KKC")));
+
+		QuarkusTransaction.run(() -> flightService.delete(ids.get(2)));
+		assertEquals(List.of("K0011", "K0013"), numbers(flightService.graph().departingFrom("KKW")));
+		assertTrue(flightService.graph().arrivingAt("KKA").isEmpty(), "deleted flight is still in the graph");
+
+		QuarkusTransaction.run(() -> {
+			flightService.delete(ids.get(0));
+			flightService.delete(ids.get(1));
+		});
+	}
+
+	private static List<String> numbers(List<Flight> flights) {
+		return flights.stream().map(Flight::getNumber).collect(Collectors.toList());
+	}
+
+	private static Flight flight(Integer id, String number, String destination) {
+		Flight flight = new Flight();
+		flight.setId(id);
+		flight.setNumber(number);
+		flight.setDeparture("KKW");
+		flight.setDestination(destination);
+		return flight;
+	}
+}
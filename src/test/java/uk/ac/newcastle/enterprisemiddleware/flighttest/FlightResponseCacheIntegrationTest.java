@@ -0,0 +1,166 @@
+package uk.ac.newcastle.enterprisemiddleware.flighttest;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightRestService;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
+
+@QuarkusTest
+@TestHTTPEndpoint(FlightRestService.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class FlightResponseCacheIntegrationTest {
+
+	@Inject
+	ResponseCache responseCache;
+
+	@Inject
+	FlightService flightService;
+
+	// RestAssured only points at the test port once the application is started,
+	// so the fixtures are created by the first test rather than in @BeforeAll
+	private static void createFlights() {
+		// enough flights on one route for the listing to be worth compressing
+		for (int i = 1; i <= 5; i++) {
+			given().contentType(ContentType.JSON)
+					.body("{\"number\":\"C000" + i + "\",\"departure\":\"CCA\",\"destination\":\"CCB\"}").when()
+					.post().then().statusCode(201);
+		}
+	}
+
+	@Test
+	@Order(1)
+	public void SecondReadIsServedFromCache() {
+		createFlights();
+		io.restassured.response.Response first = when().get("/number/C0001");
+		first.then().statusCode(200);
+		assertTrue(responseCache.contains(URI.create("/flights/number/C0001"), flightService.tag()),
+				"response not cached");
+		long size = responseCache.size();
+
+		io.restassured.response.Response second = when().get("/number/C0001");
+		second.then().statusCode(200);
+		assertEquals(first.header("ETag"), second.header("ETag"));
+		assertArrayEquals(first.asByteArray(), second.asByteArray());
+		assertEquals(size, responseCache.size());
+	}
+
+	@Test
+	@Order(5)
+	public void UnknownParametersShareTheEntry() {
+		createFlights();
+		io.restassured.response.Response first = given().queryParam("departure", "CCA").queryParam("limit", 2)
+				.when().get("/search");
+		first.then().statusCode(200);
+		long size = responseCache.size();
+
+		// another order and unknown parameters are the same resource
+		io.restassured.response.Response second = given().queryParam("limit", 2).queryParam("departure", "CCA")
+				.queryParam("x", 1).when().get("/search");
+		second.then().statusCode(200);
+		assertEquals(size, responseCache.size());
+		assertArrayEquals(first.asByteArray(), second.asByteArray());
+
+		// the next page is linked on the host asked for, without the unknown parameter
+		String next = second.header("Link").replaceAll("^<(.*)>.*$", "$1");
+		assertTrue(next.startsWith("http://localhost:" + RestAssured.port + "/flights/search?"), next);
+		assertTrue(!next.contains("x=1"), next);
+
+		List<Integer> ids = given().queryParam("departure", "CCA").when().get("/search").then().statusCode(200)
+				.extract().path("id");
+		for (Integer id : ids) {
+			when().delete("/id/{id}", id).then().statusCode(200);
+		}
+	}
+
+	@Test
+	@Order(2)
+	public void GzipBodyDecompressesToTheIdentityBody() throws IOException {
+		URL url = new URL("http://localhost:" + RestAssured.port + "/flights/search?departure=CCA");
+		byte[] identity = read(url);
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+		byte[] gzip;
+		try (InputStream in = connection.getInputStream()) {
+			gzip = in.readAllBytes();
+		}
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+			assertArrayEquals(identity, in.readAllBytes());
+		}
+	}
+
+	@Test
+	@Order(3)
+	public void MatchingETagIsNotModified() {
+		String etag = when().get("/number/C0001").then().statusCode(200).extract().header("ETag");
+		given().header("If-None-Match", etag).when().get("/number/C0001").then().statusCode(304);
+		given().header("If-None-Match", etag).queryParam("departure", "CCA").when().get("/search").then()
+				.statusCode(200);
+	}
+
+	@Test
+	@Order(4)
+	public void WriteMakesTheNextReadFresh() {
+		String etag = given().queryParam("departure", "CCA").when().get("/search").then().statusCode(200)
+				.body("number", not(hasItem("C0006"))).extract().header("ETag");
+
+		given().contentType(ContentType.JSON)
+				.body("{\"number\":\"C0006\",\"departure\":\"CCA\",\"destination\":\"CCB\"}").when().post().then()
+				.statusCode(201);
+
+		String fresh = given().header("If-None-Match", etag).queryParam("departure", "CCA").when().get("/search")
+				.then().statusCode(200).body("number", hasItem("C0006")).extract().header("ETag");
+		assertNotEquals(etag, fresh);
+
+		// the other flight tests expect the seeded flight only
+		List<Integer> ids = given().queryParam("departure", "CCA").when().get("/search").then().statusCode(200)
+				.extract().path("id");
+		for (Integer id : ids) {
+			when().delete("/id/{id}", id).then().statusCode(200);
+		}
+	}
+
+	private static byte[] read(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestProperty("Accept-Encoding", "identity");
+		assertEquals(200, connection.getResponseCode());
+		assertNull(connection.getHeaderField("Content-Encoding"));
+		try (InputStream in = connection.getInputStream()) {
+			return in.readAllBytes();
+		}
+	}
+}
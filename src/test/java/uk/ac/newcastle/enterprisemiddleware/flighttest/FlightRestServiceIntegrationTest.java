@@ -3,9 +3,16 @@ package uk.ac.newcastle.enterprisemiddleware.flighttest;
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
@@ -17,8 +24,10 @@ import io.quarkus.test.common.http.TestHTTPEndpoint;
 import io.quarkus.test.h2.H2DatabaseTestResource;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
 import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
 import uk.ac.newcastle.enterprisemiddleware.flight.FlightRestService;
+import uk.ac.newcastle.enterprisemiddleware.util.MergePatch;
 
 @QuarkusTest
 @TestHTTPEndpoint(FlightRestService.class)
@@ -76,7 +85,7 @@ class FlightRestServiceIntegrationTest {
 		assertEquals(2, flights.length);
 		flights[1].setDestination("BCD");
 		Flight c = given().contentType(ContentType.JSON).body(flights[1])
-				.put("/id/{id:.+}", flights[0].getId().toString()).then().statusCode(200).extract()
+				.put("/id/{id:.+}", flights[1].getId().toString()).then().statusCode(200).extract()
 				.as(Flight.class);
 		assertTrue(c.getDestination().equals(flights[1].getDestination()), "Name has not been updated");
 	}
@@ -115,4 +124,141 @@ class FlightRestServiceIntegrationTest {
 	public void GetNonexistenceNumber() {
 		when().get("/number/{number:.+}", "NEXIT").then().statusCode(404);
 	}
+
+	@Test
+	@Order(11)
+	public void SearchByRouteIsPagedInRouteOrder() {
+		String[][] routes = { { "S1002", "RRR" }, { "S1001", "RRR" }, { "S1003", "PPP" } };
+		Integer[] ids = new Integer[routes.length];
+		for (int i = 0; i < routes.length; i++) {
+			ids[i] = given().contentType(ContentType.JSON)
+					.body("{\"number\":\"" + routes[i][0] + "\",\"departure\":\"QQQ\",\"destination\":\"" + routes[i][1] + "\"}")
+					.when().post().then().statusCode(201).extract().path("id");
+		}
+
+		io.restassured.response.Response first = given().queryParam("departure", "QQQ")
+				.queryParam("destination", "RRR").queryParam("limit", 1).when().get("/search");
+		first.then().statusCode(200).body("number", equalTo(List.of("S1001")));
+		String next = first.header("Link").replaceAll("^<(.*)>.*$", "$1");
+		given().urlEncodingEnabled(false).when().get(next).then().statusCode(200)
+				.body("number", equalTo(List.of("S1002"))).header("Link", nullValue());
+
+		given().queryParam("departure", "QQQ").queryParam("order", "desc").queryParam("count", true).when()
+				.get("/search").then().statusCode(200).header("X-Total-Count", "3")
+				.body("number", equalTo(List.of("S1002", "S1001", "S1003")));
+		when().get("/search").then().statusCode(400);
+
+		for (Integer id : ids) {
+			when().delete("/id/{id:.+}", id).then().statusCode(200);
+		}
+	}
+
+	@Test
+	@Order(12)
+	public void AvailabilityFollowsBookings() {
+		Integer id = given().contentType(ContentType.JSON)
+				.body("{\"number\":\"V1001\",\"departure\":\"VVA\",\"destination\":\"VVB\"}").when().post()
+				.then().statusCode(201).extract().path("id");
+		Integer bookingId = given().basePath("/bookings").contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":" + id + ",\"date\":\"2032-05-05\"}").when().post("/ref")
+				.then().statusCode(201).extract().path("id");
+
+		given().queryParam("from", "2032-05-01").queryParam("to", "2032-05-31").when()
+				.get("/id/{id}/availability", id).then().statusCode(200)
+				.body("booked", equalTo(List.of("2032-05-05"))).body("availableDays", equalTo(30));
+		given().queryParam("from", "2032-05-06").queryParam("to", "2032-05-31").when()
+				.get("/id/{id}/availability", id).then().statusCode(200).body("booked.size()", equalTo(0));
+
+		given().basePath("/bookings").when().delete("/{id}", bookingId).then().statusCode(200);
+		given().queryParam("from", "2032-05-01").queryParam("to", "2032-05-31").when()
+				.get("/id/{id}/availability", id).then().statusCode(200).body("booked.size()", equalTo(0))
+				.body("availableDays", equalTo(31));
+
+		given().queryParam("from", "2032-05-31").queryParam("to", "2032-05-01").when()
+				.get("/id/{id}/availability", id).then().statusCode(400);
+		given().queryParam("from", "05/01/2032").when().get("/id/{id}/availability", id).then().statusCode(400);
+		when().delete("/id/{id:.+}", id).then().statusCode(200);
+		when().get("/id/{id}/availability", id).then().statusCode(404);
+	}
+
+	@Test
+	@Order(13)
+	@SuppressWarnings("unchecked")
+	public void AvailabilityFollowsMovedBookings() {
+		Integer first = given().contentType(ContentType.JSON)
+				.body("{\"number\":\"V1002\",\"departure\":\"VVA\",\"destination\":\"VVB\"}").when().post()
+				.then().statusCode(201).extract().path("id");
+		Integer second = given().contentType(ContentType.JSON)
+				.body("{\"number\":\"V1003\",\"departure\":\"VVA\",\"destination\":\"VVB\"}").when().post()
+				.then().statusCode(201).extract().path("id");
+		Integer bookingId = given().basePath("/bookings").contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":" + first + ",\"date\":\"2032-05-05\"}").when().post("/ref")
+				.then().statusCode(201).extract().path("id");
+
+		// a new date frees the old day of the flight
+		given().basePath("/bookings").contentType(MergePatch.MEDIA_TYPE).body("{\"date\":\"2032-06-06\"}").when()
+				.patch("/{id}", bookingId).then().statusCode(200);
+		assertBooked(first, List.of("2032-06-06"));
+
+		// a new flight frees the day of the old one
+		Map<String, Object> booking = given().basePath("/bookings").when().get("/{id}", bookingId).then()
+				.statusCode(200).extract().as(Map.class);
+		booking.put("flight", when().get("/id/{id}", second).then().statusCode(200).extract().as(Map.class));
+		given().basePath("/bookings").contentType(ContentType.JSON).body(booking).when().put("/{id}", bookingId)
+				.then().statusCode(200);
+		assertBooked(first, List.of());
+		assertBooked(second, List.of("2032-06-06"));
+
+		given().basePath("/bookings").when().delete("/{id}", bookingId).then().statusCode(200);
+		assertBooked(second, List.of());
+		when().delete("/id/{id:.+}", first).then().statusCode(200);
+		when().delete("/id/{id:.+}", second).then().statusCode(200);
+	}
+
+	@Test
+	@Order(14)
+	public void VersionedUpdateTakesTheIdFromThePath() {
+		// ids above 127 are not interned Integers, enough flights are imported to reach one
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 130; i++) {
+			body.append(String.format("{\"number\":\"H%04d\",\"departure\":\"HHA\",\"destination\":\"HHB\"}\n", i));
+		}
+		List<Integer> ids = given().contentType("application/x-ndjson").accept("application/x-ndjson")
+				.body(body.toString().getBytes(StandardCharsets.UTF_8)).when().post("/import").then().statusCode(200)
+				.extract().asString().lines().map(line -> new JsonPath(line).getInt("id")).collect(Collectors.toList());
+		Integer id = ids.stream().max(Integer::compare).orElseThrow();
+		Integer other = ids.get(0);
+		assertTrue(id > 127, "no flight id above 127");
+
+		Flight versioned = when().get("/id/{id}", id).then().statusCode(200).extract().as(Flight.class);
+		String tag = when().get("/id/{id}", id).then().extract().header("ETag");
+
+		// without an id in the body the path says which flight is updated
+		versioned.setId(null);
+		versioned.setDestination("HHC");
+		String updated = given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned)
+				.put("/id/{id}", id).then().statusCode(200).body("id", equalTo(id)).extract().header("ETag");
+		assertTrue(!tag.equals(updated), "ETag has not changed with the update");
+
+		// a writer still holding the first version must not overwrite the update
+		versioned.setDestination("HHD");
+		given().contentType(ContentType.JSON).header("If-Match", tag).body(versioned).put("/id/{id}", id).then()
+				.statusCode(412);
+
+		// an id naming another flight is rejected, and neither is changed
+		versioned.setId(other);
+		given().contentType(ContentType.JSON).header("If-Match", updated).body(versioned).put("/id/{id}", id).then()
+				.statusCode(400);
+		when().get("/id/{id}", id).then().statusCode(200).header("ETag", updated).body("destination", equalTo("HHC"));
+		when().get("/id/{id}", other).then().statusCode(200).body("destination", equalTo("HHB"));
+
+		for (Integer imported : ids) {
+			when().delete("/id/{id}", imported).then().statusCode(200);
+		}
+	}
+
+	private static void assertBooked(Integer id, List<String> days) {
+		given().queryParam("from", "2032-05-01").queryParam("to", "2032-06-30").when()
+				.get("/id/{id}/availability", id).then().statusCode(200).body("booked", equalTo(days));
+	}
 }
@@ -0,0 +1,89 @@
+package uk.ac.newcastle.enterprisemiddleware.jobtest;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class JobRestServiceIntegrationTest {
+
+	@Test
+	public void ExportJobResultCanBeFetchedInRanges() throws InterruptedException {
+		String location = given().post("/jobs/bookings-export?format=csv").then().statusCode(202)
+				.extract().header("Location");
+
+		Response job = when().get(location);
+		for (int i = 0; i < 100 && !job.path("status").equals("DONE"); i++) {
+			assertTrue(job.path("status").equals("QUEUED") || job.path("status").equals("RUNNING"),
+					"unexpected status " + job.path("status"));
+			Thread.sleep(50);
+			job = when().get(location);
+		}
+		assertEquals("DONE", job.path("status"));
+		int size = job.path("size");
+
+		when().get(location + "/result").then().statusCode(200).contentType(startsWith("text/csv"))
+				.header("Accept-Ranges", "bytes").body(startsWith("id,date,customer_id,"));
+		given().header("Range", "bytes=3-6").when().get(location + "/result").then().statusCode(206)
+				.header("Content-Range", "bytes 3-6/" + size).body(equalTo("date"));
+		given().header("Range", "bytes=" + size + "-").when().get(location + "/result").then().statusCode(416);
+		// an invalid range is ignored rather than unsatisfiable
+		given().header("Range", "bytes=5-3").when().get(location + "/result").then().statusCode(200)
+				.header("Content-Length", String.valueOf(size));
+
+		when().delete(location).then().statusCode(204);
+		when().get(location).then().statusCode(404);
+	}
+
+	@Test
+	public void UnknownJobFormatIsRejected() {
+		given().post("/jobs/bookings-export?format=xml").then().statusCode(400);
+		given().post("/jobs/bookings?flightFrom=A0000&flightTo=A9999&format=xml").then().statusCode(400);
+	}
+
+	@Test
+	public void ReportOnlyHoldsTheBookingsOfTheFlightRange() throws InterruptedException {
+		Integer bookingId = given().contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":1,\"date\":\"2033-07-07\"}").post("/bookings/ref").then()
+				.statusCode(201).extract().path("id");
+
+		String inRange = done(given().post("/jobs/bookings?flightFrom=A0000&flightTo=A9999").then().statusCode(202)
+				.extract().header("Location"));
+		String lines = when().get(inRange + "/result").then().statusCode(200).extract().asString();
+		assertTrue(lines.startsWith("{\"id\":" + bookingId + ",") || lines.contains("\n{\"id\":" + bookingId + ","),
+				lines);
+		for (String line : lines.split("\n")) {
+			assertTrue(line.contains("\"number\":\"A"), line);
+		}
+
+		String outOfRange = done(given().post("/jobs/bookings?flightFrom=B0000&flightTo=B9999").then()
+				.statusCode(202).extract().header("Location"));
+		when().get(outOfRange).then().body("size", equalTo(0));
+
+		given().post("/jobs/bookings?flightFrom=A0000").then().statusCode(400);
+		given().post("/jobs/bookings?flightFrom=B0000&flightTo=A0000").then().statusCode(400);
+
+		when().delete("/bookings/{id}", bookingId).then().statusCode(200);
+	}
+
+	// waits for the job to be done, returns its location
+	private static String done(String location) throws InterruptedException {
+		for (int i = 0; i < 100 && !when().get(location).path("status").equals("DONE"); i++) {
+			Thread.sleep(50);
+		}
+		when().get(location).then().body("status", equalTo("DONE"));
+		return location;
+	}
+}
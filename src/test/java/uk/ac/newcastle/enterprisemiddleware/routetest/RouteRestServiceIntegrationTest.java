@@ -0,0 +1,57 @@
+package uk.ac.newcastle.enterprisemiddleware.routetest;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.hamcrest.CoreMatchers.equalTo;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class RouteRestServiceIntegrationTest {
+
+	@Test
+	public void ConnectionsAreFoundFewestLegsFirst() {
+		String[][] flights = { { "R0001", "KKA", "KKB" }, { "R0002", "KKB", "KKC" }, { "R0003", "KKA", "KKC" },
+				{ "R0004", "KKA", "KKD" }, { "R0005", "KKD", "KKC" } };
+		Integer[] ids = new Integer[flights.length];
+		for (int i = 0; i < flights.length; i++) {
+			ids[i] = given().contentType(ContentType.JSON)
+					.body("{\"number\":\"" + flights[i][0] + "\",\"departure\":\"" + flights[i][1]
+							+ "\",\"destination\":\"" + flights[i][2] + "\"}")
+					.post("/flights").then().statusCode(201).extract().path("id");
+		}
+
+		given().queryParam("from", "KKA").queryParam("to", "KKC").when().get("/routes").then().statusCode(200)
+				.body("legs.number", equalTo(List.of(List.of("R0003"), List.of("R0001", "R0002"),
+						List.of("R0004", "R0005"))))
+				.body("connections", equalTo(List.of(List.of(), List.of("KKB"), List.of("KKD"))));
+		given().queryParam("from", "KKA").queryParam("to", "KKC").queryParam("maxLegs", 1).when().get("/routes")
+				.then().statusCode(200).body("legs.number", equalTo(List.of(List.of("R0003"))));
+
+		// the direct flight is taken on that date
+		given().contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":" + ids[2] + ",\"date\":\"2032-05-05\"}").post("/bookings/ref")
+				.then().statusCode(201);
+		given().queryParam("from", "KKA").queryParam("to", "KKC").queryParam("date", "2032-05-05").when()
+				.get("/routes").then().statusCode(200)
+				.body("legs.number", equalTo(List.of(List.of("R0001", "R0002"), List.of("R0004", "R0005"))));
+
+		given().queryParam("from", "KKC").queryParam("to", "KKA").when().get("/routes").then().statusCode(200)
+				.body("size()", equalTo(0));
+		given().queryParam("from", "KKA").queryParam("to", "KKA").when().get("/routes").then().statusCode(400);
+		given().queryParam("from", "KKA").queryParam("to", "KKC").queryParam("maxLegs", 9).when().get("/routes")
+				.then().statusCode(400);
+
+		for (Integer id : ids) {
+			when().delete("/flights/id/{id}", id).then().statusCode(200);
+		}
+	}
+}
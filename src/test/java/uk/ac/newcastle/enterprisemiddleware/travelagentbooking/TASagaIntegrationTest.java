@@ -0,0 +1,155 @@
+package uk.ac.newcastle.enterprisemiddleware.travelagentbooking;
+
+import static io.restassured.RestAssured.given;
+import static io.restassured.RestAssured.when;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectMock;
+import io.restassured.http.ContentType;
+import io.smallrye.mutiny.Uni;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.flight.Flight;
+
+// in the package of the saga so that the compensator can be run by the test
+// rather than by the scheduler, which is off in tests
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class TASagaIntegrationTest {
+
+	@InjectMock
+	@RestClient
+	FlightService flightService;
+
+	@InjectMock
+	@RestClient
+	TaxiService taxiService;
+
+	@InjectMock
+	@RestClient
+	HotelService hotelService;
+
+	@Inject
+	TASagaCompensator compensator;
+
+	private Customer customer;
+
+	private Flight flight;
+
+	@BeforeEach
+	void setup() {
+		customer = when().get("/customers/id/1").then().statusCode(200).extract().as(Customer.class);
+		flight = when().get("/flights/id/1").then().statusCode(200).extract().as(Flight.class);
+		when(taxiService.getByEmailAsync(any())).thenReturn(Uni.createFrom().item(Response.ok().build()));
+	}
+
+	@Test
+	public void PartialFailureIsCompensated() {
+		when(flightService.createBookingAsync(any())).thenReturn(booked(9101));
+		when(taxiService.createBookingAsync(any())).thenReturn(booked(9102));
+		when(hotelService.createBookingAsync(any())).thenReturn(failed(500));
+
+		post().then().statusCode(400);
+		compensator.compensate();
+		verify(flightService).deleteBooking(9101);
+		verify(taxiService).deleteBooking(9102);
+		verify(hotelService, never()).deleteBooking(anyInt());
+
+		// the saga is compensated, there is nothing left to retry
+		compensator.compensate();
+		verify(flightService, times(1)).deleteBooking(9101);
+		verify(taxiService, times(1)).deleteBooking(9102);
+	}
+
+	@Test
+	public void UpstreamBookingAlreadyDeletedCountsAsCompensated() {
+		when(flightService.createBookingAsync(any())).thenReturn(booked(9201));
+		when(taxiService.createBookingAsync(any())).thenReturn(booked(9202));
+		when(hotelService.createBookingAsync(any())).thenReturn(failed(500));
+		when(flightService.deleteBooking(9201)).thenThrow(new WebApplicationException(404));
+
+		post().then().statusCode(400);
+		compensator.compensate();
+		verify(taxiService).deleteBooking(9202);
+
+		compensator.compensate();
+		verify(flightService, times(1)).deleteBooking(9201);
+		verify(taxiService, times(1)).deleteBooking(9202);
+	}
+
+	@Test
+	public void FailingCompensationIsGivenUpAfterMaxAttempts() {
+		when(flightService.createBookingAsync(any())).thenReturn(booked(9301));
+		when(taxiService.createBookingAsync(any())).thenReturn(failed(500));
+		when(hotelService.createBookingAsync(any())).thenReturn(failed(500));
+		when(flightService.deleteBooking(9301)).thenThrow(new WebApplicationException(503));
+
+		post().then().statusCode(400);
+		// app.saga.max-attempts is 3 and the backoff 0 in tests
+		for (int i = 0; i < 5; i++) {
+			compensator.compensate();
+		}
+		verify(flightService, times(3)).deleteBooking(9301);
+	}
+
+	@Test
+	public void SuccessfulSagaLeavesNothingToCompensate() {
+		// the flight booking is stored locally by the travel agent booking, so it
+		// has to exist
+		Integer bookingId = given().contentType(ContentType.JSON)
+				.body("{\"customerId\":1,\"flightId\":1,\"date\":\"2033-03-03\"}").post("/bookings/ref").then()
+				.statusCode(201).extract().path("id");
+		Booking flightBooking = booking(bookingId);
+		when(flightService.createBookingAsync(any())).thenReturn(Uni.createFrom().item(flightBooking));
+		when(taxiService.createBookingAsync(any())).thenReturn(booked(9402));
+		when(hotelService.createBookingAsync(any())).thenReturn(booked(9403));
+
+		post().then().statusCode(201);
+		compensator.compensate();
+		verify(flightService, never()).deleteBooking(bookingId);
+		verify(taxiService, never()).deleteBooking(9402);
+		verify(hotelService, never()).deleteBooking(9403);
+	}
+
+	private io.restassured.response.Response post() {
+		TABooking tabooking = new TABooking();
+		tabooking.setCustomer(customer);
+		tabooking.setFlightbooking(booking(null));
+		return given().contentType(ContentType.JSON).body(tabooking).when().post("/tabookings");
+	}
+
+	private Booking booking(Integer id) {
+		Booking booking = new Booking();
+		booking.setId(id);
+		booking.setCustomer(customer);
+		booking.setFlight(flight);
+		booking.setDate(new Date());
+		return booking;
+	}
+
+	private Uni<Booking> booked(Integer id) {
+		return Uni.createFrom().item(booking(id));
+	}
+
+	private static Uni<Booking> failed(int status) {
+		return Uni.createFrom().failure(new WebApplicationException(status));
+	}
+}
@@ -0,0 +1,143 @@
+package uk.ac.newcastle.enterprisemiddleware.utiltest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.ac.newcastle.enterprisemiddleware.util.MicroBatcher;
+
+class MicroBatcherTest {
+
+	private final List<List<Integer>> loads = new CopyOnWriteArrayList<>();
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setup() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	void teardown() {
+		executor.shutdownNow();
+	}
+
+	// the value of every even key is its name, odd keys have none
+	private Map<Integer, String> load(List<Integer> keys) {
+		loads.add(keys);
+		return keys.stream().filter(key -> key % 2 == 0)
+				.collect(Collectors.toMap(Function.identity(), key -> "v" + key));
+	}
+
+	@Test
+	public void ConcurrentKeysAreLoadedTogether() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::load, Duration.ofMillis(500), 100);
+		List<Future<String>> values = concurrently(batcher, 2, 4, 6, 4, 8);
+
+		assertEquals(List.of("v2", "v4", "v6", "v4", "v8"), get(values));
+		assertEquals(1, loads.size());
+		assertEquals(List.of(2, 4, 6, 8), sorted(loads.get(0)));
+	}
+
+	@Test
+	public void FullBatchIsLoadedBeforeTheWindowPasses() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::load, Duration.ofSeconds(30), 3);
+		long start = System.nanoTime();
+		List<Future<String>> values = concurrently(batcher, 2, 4, 6);
+
+		assertEquals(List.of("v2", "v4", "v6"), get(values));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), "waited for the window");
+		assertEquals(List.of(List.of(2, 4, 6)), List.of(sorted(loads.get(0))));
+	}
+
+	@Test
+	public void LoneKeyIsLoadedOnceTheWindowPasses() {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::load, Duration.ofMillis(100), 100);
+		long start = System.nanoTime();
+
+		assertEquals("v2", batcher.load(2));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90), "loaded before the window");
+		assertEquals(List.of(List.of(2)), loads);
+
+		// the batch is closed, the next lookup opens a new one
+		assertEquals("v4", batcher.load(4));
+		assertEquals(2, loads.size());
+	}
+
+	@Test
+	public void FailedLoadFailsEveryLookup() throws Exception {
+		IllegalStateException failure = new IllegalStateException("database down");
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(keys -> {
+			loads.add(keys);
+			throw failure;
+		}, Duration.ofMillis(500), 100);
+		List<Future<String>> values = concurrently(batcher, 2, 4, 6);
+
+		for (Future<String> value : values) {
+			ExecutionException e = assertThrows(ExecutionException.class, value::get);
+			assertSame(failure, e.getCause());
+		}
+		assertEquals(1, loads.size());
+	}
+
+	@Test
+	public void MissingKeysAreNull() throws Exception {
+		MicroBatcher<Integer, String> batcher = new MicroBatcher<>(this::load, Duration.ofMillis(500), 100);
+		List<Future<String>> values = concurrently(batcher, 1, 2, 3);
+
+		List<String> expected = new ArrayList<>();
+		expected.add(null);
+		expected.add("v2");
+		expected.add(null);
+		assertEquals(expected, get(values));
+		assertNull(new MicroBatcher<Integer, String>(keys -> Map.of(), Duration.ZERO, 1).load(7));
+	}
+
+	// looks the keys up from as many threads, released together
+	private List<Future<String>> concurrently(MicroBatcher<Integer, String> batcher, Integer... keys) {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> values = new ArrayList<>();
+		for (Integer key : keys) {
+			Callable<String> lookup = () -> {
+				start.await();
+				return batcher.load(key);
+			};
+			values.add(executor.submit(lookup));
+		}
+		start.countDown();
+		return values;
+	}
+
+	private static List<String> get(List<Future<String>> values) throws Exception {
+		List<String> result = new ArrayList<>();
+		for (Future<String> value : values) {
+			result.add(value.get(10, TimeUnit.SECONDS));
+		}
+		return result;
+	}
+
+	private static List<Integer> sorted(List<Integer> keys) {
+		return keys.stream().sorted().collect(Collectors.toList());
+	}
+}
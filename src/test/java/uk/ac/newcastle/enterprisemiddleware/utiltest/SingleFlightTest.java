@@ -0,0 +1,120 @@
+package uk.ac.newcastle.enterprisemiddleware.utiltest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import uk.ac.newcastle.enterprisemiddleware.util.SingleFlight;
+
+class SingleFlightTest {
+
+	private static final int CALLERS = 8;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final SingleFlight<Integer, String> flight = new SingleFlight<>("test", registry);
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	// holds the load until every other caller is waiting for it
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setup() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	void teardown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void ConcurrentCallersShareOneLoad() throws Exception {
+		List<Future<String>> values = callConcurrently(key -> {
+			loads.incrementAndGet();
+			await(release);
+			return "v" + key;
+		});
+
+		for (Future<String> value : values) {
+			assertEquals("v1", value.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, loads.get());
+		assertEquals(1, calls("loaded"));
+		assertEquals(CALLERS - 1, calls("shared"));
+
+		// nothing is kept, the next call loads again
+		assertEquals("reloaded", flight.get(1, key -> {
+			loads.incrementAndGet();
+			return "reloaded";
+		}));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void FailedLoadFailsEveryCallerAndIsNotKept() throws Exception {
+		IllegalStateException failure = new IllegalStateException("database down");
+		List<Future<String>> values = callConcurrently(key -> {
+			loads.incrementAndGet();
+			await(release);
+			throw failure;
+		});
+
+		for (Future<String> value : values) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> value.get(10, TimeUnit.SECONDS));
+			assertSame(failure, e.getCause());
+		}
+		assertEquals(1, loads.get());
+
+		assertEquals("v1", flight.get(1, key -> "v" + key));
+	}
+
+	// calls the key from CALLERS threads and lets the load finish once all but
+	// the loading one have found it running
+	private List<Future<String>> callConcurrently(Function<Integer, String> loader) throws InterruptedException {
+		List<Future<String>> values = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			values.add(executor.submit(() -> flight.get(1, loader)));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (calls("shared") < CALLERS - 1) {
+			assertTrue(System.nanoTime() < deadline, "callers did not join the load");
+			Thread.sleep(5);
+		}
+		release.countDown();
+		return values;
+	}
+
+	private long calls(String result) {
+		return (long) registry.get("singleflight.calls").tag("flight", "test").tag("result", result).counter().count();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}